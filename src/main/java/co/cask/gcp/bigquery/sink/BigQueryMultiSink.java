@@ -0,0 +1,285 @@
+/*
+ * Copyright © 2018 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.gcp.bigquery.sink;
+
+import co.cask.cdap.api.annotation.Description;
+import co.cask.cdap.api.annotation.Name;
+import co.cask.cdap.api.annotation.Plugin;
+import co.cask.cdap.api.data.batch.Output;
+import co.cask.cdap.api.data.format.StructuredRecord;
+import co.cask.cdap.api.data.schema.Schema;
+import co.cask.cdap.api.dataset.lib.KeyValue;
+import co.cask.cdap.etl.api.Emitter;
+import co.cask.cdap.etl.api.InvalidEntry;
+import co.cask.cdap.etl.api.PipelineConfigurer;
+import co.cask.cdap.etl.api.batch.BatchRuntimeContext;
+import co.cask.cdap.etl.api.batch.BatchSink;
+import co.cask.cdap.etl.api.batch.BatchSinkContext;
+import co.cask.gcp.bigquery.util.BigQueryUtil;
+import co.cask.gcp.gcs.StorageClient;
+import co.cask.hydrator.common.batch.sink.SinkOutputFormatProvider;
+import com.google.cloud.bigquery.BigQuery;
+import com.google.cloud.bigquery.BigQueryException;
+import com.google.cloud.bigquery.DatasetInfo;
+import com.google.cloud.bigquery.Field;
+import com.google.cloud.bigquery.FormatOptions;
+import com.google.cloud.bigquery.JobInfo;
+import com.google.cloud.bigquery.LoadJobConfiguration;
+import com.google.cloud.bigquery.TableId;
+import com.google.cloud.storage.StorageException;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * This class <code>BigQueryMultiSink</code> is a plugin that writes <code>StructuredRecords</code> to many
+ * BigQuery tables, routing every record to a table by the value of its split field.
+ *
+ * Records are written to one group of temporary files per table on Google Cloud Storage. Once the run succeeds,
+ * every table is loaded by its own load job, and the load jobs run concurrently up to a configurable limit.
+ */
+@Plugin(type = "batchsink")
+@Name(BigQueryMultiSink.NAME)
+@Description("Writes records to one or more BigQuery tables. The table of each record is determined by its split "
+  + "field. Data is first written to a temporary location on Google Cloud Storage, then loaded into BigQuery from "
+  + "there.")
+public final class BigQueryMultiSink extends BatchSink<StructuredRecord, Object, Object> {
+  public static final String NAME = "BigQueryMultiTable";
+  private static final String TABLE_PREFIX = "multisink.";
+  // error code of records with a split field value that is not a valid table name
+  private static final int INVALID_TABLE_NAME = 1;
+  private static final Logger LOG = LoggerFactory.getLogger(BigQueryMultiSink.class);
+
+  private final BigQueryMultiSinkConfig config;
+  // Schema of every table, keyed by table name. The split field is not part of the schemas.
+  private Map<String, Schema> tableSchemas;
+  // Encoder of every table, compiled for the schema of the last input record written to the table.
+  private Map<String, BigQueryRecordEncoder> encoders;
+  private Configuration configuration;
+  // Temporary path of the load files, with one sub directory per table.
+  private String loadPath;
+  // Shared staging bucket the temporary files are written to. Only set when no bucket is configured.
+  private String stagingBucket;
+  // UUID for the run. Will be used as prefix of the temporary files in the bucket.
+  private UUID uuid;
+
+  public BigQueryMultiSink(BigQueryMultiSinkConfig config) {
+    this.config = config;
+  }
+
+  @Override
+  public void configurePipeline(PipelineConfigurer pipelineConfigurer) {
+    config.validate();
+    super.configurePipeline(pipelineConfigurer);
+  }
+
+  @Override
+  public void prepareRun(BatchSinkContext context) throws Exception {
+    config.validate();
+    Map<String, Schema> schemas = getTableSchemas(context.getArguments().asMap());
+    if (!context.isPreviewEnabled()) {
+      BigQuery bigquery = BigQueryUtil.getBigQuery(config.getServiceAccountFilePath(), config.getProject());
+      // create dataset if it does not exist
+      if (bigquery.getDataset(config.getDataset()) == null) {
+        try {
+          bigquery.create(DatasetInfo.newBuilder(config.getDataset()).build());
+        } catch (BigQueryException e) {
+          throw new RuntimeException("Exception occurred while creating dataset " + config.getDataset() + ".", e);
+        }
+      }
+    }
+    LOG.debug("Writing records to {} BigQuery tables in dataset '{}'.", schemas.size(), config.getDataset());
+
+    uuid = UUID.randomUUID();
+    configuration = BigQueryUtil.getBigQueryConfig(config.getServiceAccountFilePath(), config.getProject());
+    String bucket = config.getBucket();
+    if (bucket == null) {
+      // runs without a bucket share a staging bucket, so buckets are not created and deleted by every run
+      stagingBucket = BigQueryUtil.getStagingBucket(config.getProject(), config.getServiceAccountFilePath());
+      bucket = stagingBucket;
+    }
+
+    configuration.set("fs.gs.system.bucket", bucket);
+    configuration.setBoolean("fs.gs.impl.disable.cache", true);
+    configuration.setBoolean("fs.gs.metadata.cache.enable", false);
+    loadPath = String.format("gs://%s/%s", bucket, getTemporaryPrefix());
+
+    // tables have different schemas, so records are staged as json, which does not need a schema per file
+    Map<String, String> outputProperties = new HashMap<>();
+    for (Map.Entry<String, String> entry : configuration) {
+      outputProperties.put(entry.getKey(), entry.getValue());
+    }
+    outputProperties.putAll(PartitionedLoadOutputFormat.configure(loadPath, LoadFileFormat.JSON, null));
+    context.addOutput(Output.of(config.getReferenceName(), new SinkOutputFormatProvider(
+      PartitionedLoadOutputFormat.class.getName(), outputProperties)));
+  }
+
+  @Override
+  public void initialize(BatchRuntimeContext context) throws Exception {
+    super.initialize(context);
+    tableSchemas = getTableSchemas(context.getArguments().asMap());
+    encoders = new HashMap<>();
+  }
+
+  @Override
+  public void transform(StructuredRecord input, Emitter<KeyValue<Object, Object>> emitter) throws Exception {
+    Object table = input.get(config.getSplitField());
+    if (table == null) {
+      throw new IllegalArgumentException(String.format("Split field '%s' of the record is not set.",
+                                                       config.getSplitField()));
+    }
+    String tableName = table.toString();
+    if (!BigQueryUtil.isValidTableName(tableName)) {
+      // the table name is the directory of the temporary files of the table, and the table of the load job
+      String message = String.format("Split field value '%s' is not a valid BigQuery table name.", tableName);
+      emitter.emitError(new InvalidEntry<>(INVALID_TABLE_NAME, message, new KeyValue<Object, Object>(input, table)));
+      return;
+    }
+    Schema tableSchema = tableSchemas.get(tableName);
+    if (tableSchema == null) {
+      // like the other multi sinks, records of tables without a schema argument are not written
+      return;
+    }
+
+    // the input schema of a table is usually fixed, so the encoder is only recompiled if records with another
+    // schema show up
+    Schema inputSchema = input.getSchema();
+    BigQueryRecordEncoder encoder = encoders.get(tableName);
+    if (encoder == null || !encoder.isCompiledFor(inputSchema)) {
+      encoder = BigQueryRecordEncoder.compile(inputSchema, tableSchema, true);
+      encoders.put(tableName, encoder);
+    }
+    // the load group of the record is its table
+    emitter.emit(new KeyValue<>(encoder.toJson(input), tableName));
+  }
+
+  @Override
+  public void onRunFinish(boolean succeeded, BatchSinkContext context) {
+    try {
+      if (succeeded && !context.isPreviewEnabled()) {
+        loadTables(getTableSchemas(context.getArguments().asMap()));
+      }
+    } finally {
+      deleteTemporaryFiles();
+    }
+  }
+
+  /**
+   * Loads the files of every table with its own load job. The tables are created by the load jobs if they do not
+   * exist.
+   */
+  private void loadTables(Map<String, Schema> schemas) {
+    Path outputPath = new Path(loadPath);
+    try {
+      BigQuery bigquery = BigQueryUtil.getBigQuery(config.getServiceAccountFilePath(), config.getProject());
+      FileSystem fs = outputPath.getFileSystem(configuration);
+      List<LoadJobConfiguration> loads = new ArrayList<>();
+      for (Path group : PartitionedLoadOutputFormat.getGroupDirectories(fs, outputPath)) {
+        String tableName = group.getName();
+        loads.add(LoadJobConfiguration.newBuilder(TableId.of(config.getDataset(), tableName), group.toString() + "/*",
+                                                  FormatOptions.json())
+                    .setSchema(getBigQuerySchema(schemas.get(tableName)))
+                    .setCreateDisposition(JobInfo.CreateDisposition.CREATE_IF_NEEDED)
+                    .setWriteDisposition(JobInfo.WriteDisposition.WRITE_APPEND)
+                    .build());
+      }
+      LOG.debug("Loading {} tables into BigQuery dataset '{}' with at most {} concurrent load jobs.", loads.size(),
+                config.getDataset(), config.getMaxConcurrentLoads());
+      LoadJobRunner.run(bigquery, loads, config.getMaxConcurrentLoads());
+    } catch (IOException | BigQueryException e) {
+      throw new RuntimeException(String.format("Failed to load records into BigQuery dataset '%s'.",
+                                               config.getDataset()), e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(String.format("Interrupted while loading records into BigQuery dataset '%s'.",
+                                               config.getDataset()), e);
+    }
+  }
+
+  /**
+   * Deletes the temporary files of the run. Files in the shared staging bucket that can not be deleted are
+   * eventually deleted by the lifecycle rule of the bucket.
+   */
+  private void deleteTemporaryFiles() {
+    Path gcsPath = new Path(loadPath);
+    try {
+      if (stagingBucket != null) {
+        StorageClient.create(config.getProject(), config.getServiceAccountFilePath())
+          .deletePrefix(stagingBucket, getTemporaryPrefix());
+        return;
+      }
+      FileSystem fs = gcsPath.getFileSystem(configuration);
+      if (fs.exists(gcsPath)) {
+        fs.delete(gcsPath, true);
+      }
+    } catch (IOException | StorageException e) {
+      LOG.warn("Failed to delete temporary path " + gcsPath.toUri().getPath() + ", " + e.getMessage());
+    }
+  }
+
+  /**
+   * @return prefix of the temporary files of the run in the bucket
+   */
+  private String getTemporaryPrefix() {
+    return String.format("hadoop/input/%s", uuid);
+  }
+
+  /**
+   * Gets the schemas of the tables to write to from the 'multisink.[table]' arguments, without the split field.
+   */
+  private Map<String, Schema> getTableSchemas(Map<String, String> arguments) throws IOException {
+    Map<String, Schema> schemas = new HashMap<>();
+    for (Map.Entry<String, String> argument : arguments.entrySet()) {
+      String key = argument.getKey();
+      if (!key.startsWith(TABLE_PREFIX)) {
+        continue;
+      }
+      String name = key.substring(TABLE_PREFIX.length());
+      if (!BigQueryUtil.isValidTableName(name)) {
+        throw new IllegalArgumentException(String.format(
+          "Argument '%s' does not name a valid BigQuery table. Table names can only contain letters, digits and "
+            + "underscores.", key));
+      }
+      Schema schema = Schema.parseJson(argument.getValue());
+      List<Schema.Field> fields = new ArrayList<>();
+      for (Schema.Field field : schema.getFields()) {
+        if (!field.getName().equals(config.getSplitField())) {
+          fields.add(field);
+        }
+      }
+      schemas.put(name, Schema.recordOf(schema.getRecordName(), fields));
+    }
+    return schemas;
+  }
+
+  private static com.google.cloud.bigquery.Schema getBigQuerySchema(Schema schema) {
+    List<Field> fields = new ArrayList<>();
+    for (Schema.Field field : schema.getFields()) {
+      fields.add(BigQueryUtil.getBigQueryField(field.getName(), field.getSchema()));
+    }
+    return com.google.cloud.bigquery.Schema.of(fields);
+  }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright © 2018 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.gcp.bigquery.sink;
+
+import co.cask.cdap.api.annotation.Description;
+import co.cask.cdap.api.annotation.Macro;
+import co.cask.gcp.common.GCPReferenceSinkConfig;
+
+import javax.annotation.Nullable;
+
+/**
+ * This class <code>BigQueryMultiSinkConfig</code> provides all the configuration required for
+ * configuring the <code>BigQueryMultiSink</code> plugin.
+ */
+public final class BigQueryMultiSinkConfig extends GCPReferenceSinkConfig {
+  private static final String DEFAULT_SPLIT_FIELD = "tablename";
+  private static final int DEFAULT_MAX_CONCURRENT_LOADS = 10;
+
+  @Macro
+  @Description("The dataset to write to. A dataset is contained within a specific project. "
+    + "Datasets are top-level containers that are used to organize and control access to tables and views.")
+  private String dataset;
+
+  @Macro
+  @Nullable
+  @Description("The Google Cloud Storage bucket to store temporary data in. "
+    + "It will be automatically created if it does not exist, but will not be automatically deleted. "
+    + "Cloud Storage data will be deleted after it is loaded into BigQuery. " +
+    "If it is not provided, the data is stored in a staging bucket shared by all runs of the project, named "
+    + "'bigquery-staging-' followed by a random suffix and labeled 'bigquery-staging', "
+    + "whose objects are deleted after 7 days by a lifecycle rule.")
+  private String bucket;
+
+  @Macro
+  @Nullable
+  @Description("The name of the field that will be used to determine which table to write to. "
+    + "Defaults to 'tablename'.")
+  private String splitField;
+
+  @Macro
+  @Nullable
+  @Description("The maximum number of load jobs that run at the same time once the run succeeds. "
+    + "Every table is loaded by its own load job. Defaults to 10.")
+  private Integer maxConcurrentLoads;
+
+  public BigQueryMultiSinkConfig(String referenceName, String dataset, @Nullable String bucket,
+                                 @Nullable String splitField, @Nullable Integer maxConcurrentLoads) {
+    this.referenceName = referenceName;
+    this.dataset = dataset;
+    this.bucket = bucket;
+    this.splitField = splitField;
+    this.maxConcurrentLoads = maxConcurrentLoads;
+  }
+
+  public String getDataset() {
+    return dataset;
+  }
+
+  @Nullable
+  public String getBucket() {
+    return bucket == null || bucket.isEmpty() ? null : bucket;
+  }
+
+  public String getSplitField() {
+    return splitField == null || splitField.isEmpty() ? DEFAULT_SPLIT_FIELD : splitField;
+  }
+
+  public int getMaxConcurrentLoads() {
+    return maxConcurrentLoads == null ? DEFAULT_MAX_CONCURRENT_LOADS : maxConcurrentLoads;
+  }
+
+  @Override
+  public void validate() {
+    super.validate();
+    if (!containsMacro("maxConcurrentLoads") && maxConcurrentLoads != null && maxConcurrentLoads < 1) {
+      throw new IllegalArgumentException("Max concurrent loads should be positive.");
+    }
+  }
+}
@@ -0,0 +1,475 @@
+/*
+ * Copyright © 2018 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.gcp.bigquery.sink;
+
+import co.cask.cdap.api.common.Bytes;
+import co.cask.cdap.api.data.format.StructuredRecord;
+import co.cask.cdap.api.data.schema.Schema;
+import co.cask.gcp.bigquery.util.BigQueryUtil;
+import com.google.gson.stream.JsonWriter;
+import org.apache.avro.generic.GenericData;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+
+/**
+ * Encodes {@link StructuredRecord StructuredRecords} of one input schema into the values written to BigQuery.
+ *
+ * All schema resolution happens once when the encoder is compiled: the fields shared by the input and output schema,
+ * their non-nullable schemas and the conversion for their type are resolved into parallel arrays, so encoding a
+ * record is a single pass over those arrays without any schema lookups or type switches. Nested records are encoded
+ * by nested encoders compiled the same way, arrays are written to REPEATED columns and maps to REPEATED RECORD
+ * columns with a key and a value field.
+ *
+ * BigQuery arrays can not contain nulls, so null array elements are skipped.
+ */
+public final class BigQueryRecordEncoder {
+  private static final String MAP_KEY = "key";
+  private static final String MAP_VALUE = "value";
+  private static final long MICROS_PER_MILLI = 1000L;
+
+  private final Schema inputSchema;
+  // names of the fields to encode
+  private final String[] names;
+  // positions of the fields in the output schema
+  private final int[] positions;
+  // converts values to Avro values, only set for native encoders
+  private final ValueEncoder[] encoders;
+  // writes values as json, only set for textual encoders
+  private final JsonValueWriter[] jsonWriters;
+  // schema of the Avro records, only set for native encoders
+  private final org.apache.avro.Schema avroSchema;
+  // buffer and writer reused for every record encoded to json
+  private StringWriter jsonBuffer;
+  private JsonWriter jsonWriter;
+
+  private BigQueryRecordEncoder(Schema inputSchema, String[] names, int[] positions, @Nullable ValueEncoder[] encoders,
+                                @Nullable JsonValueWriter[] jsonWriters,
+                                @Nullable org.apache.avro.Schema avroSchema) {
+    this.inputSchema = inputSchema;
+    this.names = names;
+    this.positions = positions;
+    this.encoders = encoders;
+    this.jsonWriters = jsonWriters;
+    this.avroSchema = avroSchema;
+  }
+
+  /**
+   * Compiles an encoder for records of the given input schema. Only fields present in both the input and the output
+   * schema are encoded.
+   *
+   * @param inputSchema schema of the records to encode
+   * @param outputSchema schema of the BigQuery table
+   * @param textual whether values are encoded in their textual BigQuery representation, as used by json files,
+   *                or in their native representation, as used by Avro files
+   * @return compiled encoder
+   */
+  public static BigQueryRecordEncoder compile(Schema inputSchema, Schema outputSchema, boolean textual) {
+    if (textual) {
+      // shared by all the fields, the encoder is used by a single thread
+      return compile(inputSchema, outputSchema, new TemporalFormatter(), null);
+    }
+    return compile(inputSchema, outputSchema, StructuredToAvroEncoder.getAvroSchema(outputSchema));
+  }
+
+  /**
+   * Compiles an encoder that encodes records of the given input schema into Avro records of the given Avro schema.
+   *
+   * @param inputSchema schema of the records to encode
+   * @param outputSchema schema of the BigQuery table
+   * @param avroSchema Avro schema equivalent to the output schema
+   * @return compiled encoder
+   */
+  public static BigQueryRecordEncoder compile(Schema inputSchema, Schema outputSchema,
+                                              org.apache.avro.Schema avroSchema) {
+    return compile(inputSchema, outputSchema, null, avroSchema);
+  }
+
+  private static BigQueryRecordEncoder compile(Schema inputSchema, Schema outputSchema,
+                                               @Nullable TemporalFormatter formatter,
+                                               @Nullable org.apache.avro.Schema avroSchema) {
+    List<String> names = new ArrayList<>();
+    List<Integer> positions = new ArrayList<>();
+    List<ValueEncoder> encoders = new ArrayList<>();
+    List<JsonValueWriter> jsonWriters = new ArrayList<>();
+    List<Schema.Field> outputFields = outputSchema.getFields();
+    for (int i = 0; i < outputFields.size(); i++) {
+      String name = outputFields.get(i).getName();
+      Schema.Field inputField = inputSchema.getField(name);
+      // From all the fields in input record, encode only those fields that are present in output schema
+      if (inputField == null) {
+        continue;
+      }
+      Schema fieldSchema = BigQueryUtil.getNonNullableSchema(inputField.getSchema());
+      Schema outputFieldSchema = BigQueryUtil.getNonNullableSchema(outputFields.get(i).getSchema());
+      names.add(name);
+      positions.add(i);
+      if (formatter != null) {
+        jsonWriters.add(getJsonWriter(name, fieldSchema, outputFieldSchema, formatter));
+      } else {
+        encoders.add(getNativeEncoder(name, fieldSchema, outputFieldSchema,
+                                      getNonNullableSchema(avroSchema.getFields().get(i).schema())));
+      }
+    }
+
+    return new BigQueryRecordEncoder(inputSchema, names.toArray(new String[0]),
+                                     positions.stream().mapToInt(Integer::intValue).toArray(),
+                                     formatter == null ? encoders.toArray(new ValueEncoder[0]) : null,
+                                     formatter == null ? null : jsonWriters.toArray(new JsonValueWriter[0]),
+                                     avroSchema);
+  }
+
+  /**
+   * @return whether this encoder was compiled for the given schema
+   */
+  public boolean isCompiledFor(Schema schema) {
+    return inputSchema == schema || inputSchema.equals(schema);
+  }
+
+  /**
+   * Encodes a record into a line of newline delimited json. The json is written directly to a reused buffer,
+   * without building an intermediate tree of json elements.
+   */
+  public String toJson(StructuredRecord input) {
+    if (jsonWriter == null) {
+      jsonBuffer = new StringWriter();
+      jsonWriter = new JsonWriter(jsonBuffer);
+      // lenient writers accept several top level values, which allows to reuse the writer for every record. It also
+      // writes NaN and infinite floating point values, which BigQuery accepts.
+      jsonWriter.setLenient(true);
+    }
+    jsonBuffer.getBuffer().setLength(0);
+    try {
+      writeJson(jsonWriter, input);
+      jsonWriter.flush();
+    } catch (IOException e) {
+      // never happens when writing to a string
+      throw new UncheckedIOException(e);
+    }
+    return jsonBuffer.toString();
+  }
+
+  /**
+   * Encodes a record into an Avro record of the output schema.
+   */
+  public GenericData.Record toAvro(StructuredRecord input) {
+    GenericData.Record record = new GenericData.Record(avroSchema);
+    for (int i = 0; i < names.length; i++) {
+      record.put(positions[i], encode(encoders[i], input.get(names[i])));
+    }
+    return record;
+  }
+
+  private void writeJson(JsonWriter writer, StructuredRecord input) throws IOException {
+    writer.beginObject();
+    for (int i = 0; i < names.length; i++) {
+      writer.name(names[i]);
+      writeJson(writer, jsonWriters[i], input.get(names[i]));
+    }
+    writer.endObject();
+  }
+
+  private static void writeJson(JsonWriter writer, JsonValueWriter valueWriter,
+                                @Nullable Object value) throws IOException {
+    if (value == null) {
+      writer.nullValue();
+    } else {
+      valueWriter.write(writer, value);
+    }
+  }
+
+  @Nullable
+  private static Object encode(ValueEncoder encoder, @Nullable Object value) {
+    return value == null ? null : encoder.encode(value);
+  }
+
+  /**
+   * Gets the writer that writes values as json, as written to newline delimited json files.
+   */
+  private static JsonValueWriter getJsonWriter(String name, Schema schema, Schema outputSchema,
+                                               TemporalFormatter formatter) {
+    switch (getComplexType(name, schema, outputSchema)) {
+      case RECORD:
+        BigQueryRecordEncoder recordEncoder = compile(schema, outputSchema, formatter, null);
+        return (writer, value) -> recordEncoder.writeJson(writer, (StructuredRecord) value);
+      case ARRAY:
+        JsonValueWriter elementWriter = getJsonWriter(name, getNonNullableSchema(schema.getComponentSchema()),
+                                                      getNonNullableSchema(outputSchema.getComponentSchema()),
+                                                      formatter);
+        return (writer, value) -> {
+          writer.beginArray();
+          for (Object element : asIterable(value)) {
+            if (element != null) {
+              elementWriter.write(writer, element);
+            }
+          }
+          writer.endArray();
+        };
+      case MAP:
+        JsonValueWriter valueWriter = getJsonWriter(name, getNonNullableSchema(schema.getMapSchema().getValue()),
+                                                    getNonNullableSchema(outputSchema.getMapSchema().getValue()),
+                                                    formatter);
+        return (writer, value) -> {
+          writer.beginArray();
+          for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+            writer.beginObject();
+            writer.name(MAP_KEY).value(entry.getKey().toString());
+            writer.name(MAP_VALUE);
+            writeJson(writer, valueWriter, entry.getValue());
+            writer.endObject();
+          }
+          writer.endArray();
+        };
+      default:
+        ValueEncoder encoder = getScalarTextEncoder(schema, formatter);
+        return (writer, value) -> {
+          Object encoded = encoder.encode(value);
+          if (encoded == null) {
+            writer.nullValue();
+          } else if (encoded instanceof Number) {
+            writer.value((Number) encoded);
+          } else if (encoded instanceof Boolean) {
+            writer.value(((Boolean) encoded).booleanValue());
+          } else {
+            writer.value(encoded.toString());
+          }
+        };
+    }
+  }
+
+  /**
+   * Gets the encoder that converts scalar values to the textual representation BigQuery expects.
+   */
+  private static ValueEncoder getScalarTextEncoder(Schema schema, TemporalFormatter formatter) {
+    Schema.LogicalType logicalType = schema.getLogicalType();
+    if (logicalType != null) {
+      switch (logicalType) {
+        case DATE:
+          return value -> formatter.formatDate((Integer) value);
+        case TIME_MILLIS:
+          return value -> formatter.formatTimeMillis((Integer) value);
+        case TIME_MICROS:
+          return value -> formatter.formatTimeMicros((Long) value);
+        case TIMESTAMP_MILLIS:
+          //timestamp for json input should be in this format yyyy-MM-dd HH:mm:ss.SSSSSS
+          return value -> formatter.formatTimestampMillis((Long) value);
+        case TIMESTAMP_MICROS:
+          return value -> formatter.formatTimestampMicros((Long) value);
+        default:
+          throw new IllegalStateException(String.format("Unsupported logical type %s", logicalType));
+      }
+    }
+
+    Schema.Type type = schema.getType();
+    switch (type) {
+      case NULL:
+        return value -> null; // nothing much to do here.
+      case INT:
+      case LONG:
+      case FLOAT:
+      case DOUBLE:
+      case BOOLEAN:
+        return value -> value;
+      case STRING:
+        return Object::toString;
+      case BYTES:
+        // bytes are expected to be base64 encoded
+        return value -> Base64.getEncoder().encodeToString(toBytes(value));
+      default:
+        throw new IllegalStateException(String.format("Unsupported type %s", type));
+    }
+  }
+
+  /**
+   * Gets the encoder that converts values to their native Avro representation. Date, time and timestamp values are
+   * kept as their numeric internal values, which match the Avro logical types of the output schema. BigQuery only
+   * loads them as DATE, TIME and TIMESTAMP columns if the load job reads Avro logical types.
+   */
+  private static ValueEncoder getNativeEncoder(String name, Schema schema, Schema outputSchema,
+                                               org.apache.avro.Schema avroSchema) {
+    switch (getComplexType(name, schema, outputSchema)) {
+      case RECORD:
+        BigQueryRecordEncoder recordEncoder = compile(schema, outputSchema, null, avroSchema);
+        return value -> recordEncoder.toAvro((StructuredRecord) value);
+      case ARRAY:
+        ValueEncoder elementEncoder = getNativeEncoder(name, getNonNullableSchema(schema.getComponentSchema()),
+                                                       getNonNullableSchema(outputSchema.getComponentSchema()),
+                                                       getNonNullableSchema(avroSchema.getElementType()));
+        return value -> encodeArray(value, elementEncoder);
+      case MAP:
+        ValueEncoder valueEncoder = getNativeEncoder(name, getNonNullableSchema(schema.getMapSchema().getValue()),
+                                                     getNonNullableSchema(outputSchema.getMapSchema().getValue()),
+                                                     getNonNullableSchema(avroSchema.getValueType()));
+        return value -> {
+          Map<String, Object> map = new HashMap<>();
+          for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+            map.put(entry.getKey().toString(), encode(valueEncoder, entry.getValue()));
+          }
+          return map;
+        };
+      default:
+        return getScalarNativeEncoder(schema, outputSchema);
+    }
+  }
+
+  /**
+   * Gets the encoder that converts scalar values to the Avro representation of the output schema. Avro only accepts
+   * values of the exact type of the schema, so values of narrower input types are widened to the output type, and
+   * timestamps and times are converted between milliseconds and microseconds.
+   */
+  private static ValueEncoder getScalarNativeEncoder(Schema schema, Schema outputSchema) {
+    Schema.LogicalType from = schema.getLogicalType();
+    Schema.LogicalType to = outputSchema.getLogicalType();
+    Schema.Type outputType = outputSchema.getType();
+    if (from == Schema.LogicalType.TIMESTAMP_MILLIS && to == Schema.LogicalType.TIMESTAMP_MICROS) {
+      return value -> TimeUnit.MILLISECONDS.toMicros((Long) value);
+    }
+    if (from == Schema.LogicalType.TIMESTAMP_MICROS && to == Schema.LogicalType.TIMESTAMP_MILLIS) {
+      return value -> Math.floorDiv((Long) value, MICROS_PER_MILLI);
+    }
+    if (from == Schema.LogicalType.TIME_MILLIS && to == Schema.LogicalType.TIME_MICROS) {
+      return value -> TimeUnit.MILLISECONDS.toMicros((Integer) value);
+    }
+    if (from == Schema.LogicalType.TIME_MICROS && to == Schema.LogicalType.TIME_MILLIS) {
+      return value -> (int) ((Long) value / MICROS_PER_MILLI);
+    }
+    if (outputType == Schema.Type.BYTES) {
+      // CDAP allows bytes to be represented as either byte[] or ByteBuffer, Avro only accepts ByteBuffer
+      return value -> value instanceof byte[] ? ByteBuffer.wrap((byte[]) value) : value;
+    }
+    if (schema.getType() == outputType) {
+      return value -> value;
+    }
+
+    switch (outputType) {
+      case INT:
+        return value -> ((Number) value).intValue();
+      case LONG:
+        return value -> ((Number) value).longValue();
+      case FLOAT:
+        return value -> ((Number) value).floatValue();
+      case DOUBLE:
+        return value -> ((Number) value).doubleValue();
+      case STRING:
+        // written like json files write them
+        ValueEncoder textEncoder = getScalarTextEncoder(schema, new TemporalFormatter());
+        return value -> textEncoder.encode(value).toString();
+      default:
+        return value -> value;
+    }
+  }
+
+  /**
+   * Gets the type of a field if it is a record, array or map, and makes sure the output schema has the same type.
+   *
+   * @return the complex type of the field, or {@link Schema.Type#NULL} for all other types
+   * @throws IllegalArgumentException if the field is a record, array or map in only one of the schemas
+   */
+  private static Schema.Type getComplexType(String name, Schema schema, Schema outputSchema) {
+    Schema.Type type = schema.getType();
+    boolean complex = isComplex(type);
+    if ((complex || isComplex(outputSchema.getType())) && type != outputSchema.getType()) {
+      throw new IllegalArgumentException(String.format("Field '%s' of type '%s' can not be written as type '%s'.",
+                                                       name, type, outputSchema.getType()));
+    }
+    return complex ? type : Schema.Type.NULL;
+  }
+
+  private static boolean isComplex(Schema.Type type) {
+    return type == Schema.Type.RECORD || type == Schema.Type.ARRAY || type == Schema.Type.MAP;
+  }
+
+  private static List<Object> encodeArray(Object value, ValueEncoder elementEncoder) {
+    List<Object> encoded = new ArrayList<>();
+    for (Object element : asIterable(value)) {
+      if (element != null) {
+        encoded.add(elementEncoder.encode(element));
+      }
+    }
+    return encoded;
+  }
+
+  /**
+   * CDAP allows arrays to be represented as either collections or java arrays, including arrays of primitives.
+   */
+  private static Iterable<?> asIterable(Object value) {
+    if (value instanceof Collection) {
+      return (Collection<?>) value;
+    }
+    if (value instanceof Object[]) {
+      return Arrays.asList((Object[]) value);
+    }
+    return new AbstractList<Object>() {
+      @Override
+      public Object get(int index) {
+        return Array.get(value, index);
+      }
+
+      @Override
+      public int size() {
+        return Array.getLength(value);
+      }
+    };
+  }
+
+  private static Schema getNonNullableSchema(Schema schema) {
+    return BigQueryUtil.getNonNullableSchema(schema);
+  }
+
+  private static org.apache.avro.Schema getNonNullableSchema(org.apache.avro.Schema schema) {
+    if (schema.getType() != org.apache.avro.Schema.Type.UNION) {
+      return schema;
+    }
+    for (org.apache.avro.Schema type : schema.getTypes()) {
+      if (type.getType() != org.apache.avro.Schema.Type.NULL) {
+        return type;
+      }
+    }
+    return schema;
+  }
+
+  private static byte[] toBytes(Object value) {
+    return value instanceof ByteBuffer ? Bytes.getBytes((ByteBuffer) value) : (byte[]) value;
+  }
+
+  /**
+   * Converts a non-null field value to the value written to BigQuery.
+   */
+  private interface ValueEncoder {
+    Object encode(Object value);
+  }
+
+  /**
+   * Writes a non-null field value as json.
+   */
+  private interface JsonValueWriter {
+    void write(JsonWriter writer, Object value) throws IOException;
+  }
+}
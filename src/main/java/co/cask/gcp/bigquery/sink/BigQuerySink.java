@@ -30,31 +30,44 @@ import co.cask.cdap.etl.api.batch.BatchRuntimeContext;
 import co.cask.cdap.etl.api.batch.BatchSink;
 import co.cask.cdap.etl.api.batch.BatchSinkContext;
 import co.cask.gcp.bigquery.util.BigQueryUtil;
+import co.cask.gcp.gcs.StorageClient;
 import co.cask.hydrator.common.LineageRecorder;
+import com.google.api.services.bigquery.Bigquery;
+import com.google.api.services.bigquery.model.JobConfigurationLoad;
+import com.google.api.services.bigquery.model.TableReference;
 import com.google.cloud.bigquery.BigQuery;
 import com.google.cloud.bigquery.BigQueryException;
+import com.google.cloud.bigquery.CopyJobConfiguration;
 import com.google.cloud.bigquery.DatasetInfo;
 import com.google.cloud.bigquery.Field;
 import com.google.cloud.bigquery.FieldList;
-import com.google.cloud.bigquery.LegacySQLTypeName;
+import com.google.cloud.bigquery.FormatOptions;
+import com.google.cloud.bigquery.Job;
+import com.google.cloud.bigquery.JobConfiguration;
+import com.google.cloud.bigquery.JobInfo;
+import com.google.cloud.bigquery.LoadJobConfiguration;
+import com.google.cloud.bigquery.QueryJobConfiguration;
 import com.google.cloud.bigquery.Table;
-import com.google.cloud.hadoop.io.bigquery.BigQueryFileFormat;
+import com.google.cloud.bigquery.TableId;
+import com.google.cloud.bigquery.TableInfo;
+import com.google.cloud.hadoop.io.bigquery.BigQueryConfiguration;
+import com.google.cloud.hadoop.io.bigquery.BigQueryFactory;
 import com.google.cloud.hadoop.io.bigquery.output.BigQueryOutputConfiguration;
 import com.google.cloud.hadoop.io.bigquery.output.BigQueryTableFieldSchema;
 import com.google.cloud.hadoop.io.bigquery.output.BigQueryTableSchema;
 import com.google.cloud.hadoop.io.bigquery.output.IndirectBigQueryOutputFormat;
-import com.google.gson.JsonNull;
-import com.google.gson.JsonObject;
+import com.google.cloud.storage.StorageException;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.mapred.AvroKey;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.NullWritable;
-import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.time.format.DateTimeFormatter;
+import java.security.GeneralSecurityException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -73,16 +86,31 @@ import java.util.stream.Collectors;
 @Description("This sink writes to a BigQuery table. "
   + "BigQuery is Google's serverless, highly scalable, enterprise data warehouse. "
   + "Data is first written to a temporary location on Google Cloud Storage, then loaded into BigQuery from there.")
-public final class BigQuerySink extends BatchSink<StructuredRecord, JsonObject, NullWritable> {
+public final class BigQuerySink extends BatchSink<StructuredRecord, Object, Object> {
   public static final String NAME = "BigQueryTable";
-  private static final DateTimeFormatter dtf = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSSSSS");
-  private static final DateTimeFormatter timeFormatter = DateTimeFormatter.ofPattern("HH:mm:ss.SSSSSS");
+  // load group of the Avro files of tables that are not partitioned
+  private static final String AVRO_LOAD_GROUP = "all";
   private static final Logger LOG = LoggerFactory.getLogger(BigQuerySink.class);
 
   private final BigQuerySinkConfig config;
   private Schema schema;
+  // Only set when records are staged as Avro files.
+  private StructuredToAvroEncoder avroEncoder;
+  // Encoder compiled for the schema of the last input record. Used for json files.
+  private BigQueryRecordEncoder encoder;
   private Configuration configuration;
-  // UUID for the run. Will be used as bucket name if bucket is not provided.
+  // Assigns records to load groups. Only set when the table is partitioned on a column and records are loaded.
+  private LoadPartitioner partitioner;
+  // Table the records are written to before they are merged into the destination table. Only set for upserts.
+  private String stagingTable;
+  // Table the groups of inserted records are loaded into before it is copied into the destination table at once.
+  // Only set when inserted records are loaded in one job per group.
+  private String loadTable;
+  // Temporary path of grouped load files. Only set when records are loaded in one job per group.
+  private String groupedLoadPath;
+  // Shared staging bucket the temporary files are written to. Only set when no bucket is configured.
+  private String stagingBucket;
+  // UUID for the run. Will be used as prefix of the temporary files in the bucket.
   private UUID uuid;
 
   public BigQuerySink(BigQuerySinkConfig config) {
@@ -98,6 +126,18 @@ public final class BigQuerySink extends BatchSink<StructuredRecord, JsonObject,
   @Override
   public void prepareRun(BatchSinkContext context) throws Exception {
     config.validate(context.getInputSchema());
+    LoadFileFormat fileFormat = config.getFileFormat();
+    // a single load job can only write to a limited number of partitions, so files are grouped by partition and
+    // every group is loaded by its own job once the run succeeds. Avro files are always loaded by the sink, because
+    // the load jobs of the output format do not read Avro logical types.
+    boolean groupedLoads = LoadPartitioner.of(config) != null || fileFormat == LoadFileFormat.AVRO;
+    uuid = UUID.randomUUID();
+    if (config.getOperation() == Operation.UPSERT) {
+      stagingTable = String.format("_%s_staging_%s", config.getTable(), uuid.toString().replace("-", ""));
+    } else if (groupedLoads) {
+      loadTable = String.format("_%s_load_%s", config.getTable(), uuid.toString().replace("-", ""));
+    }
+
     if (!context.isPreviewEnabled()) {
       BigQuery bigquery = BigQueryUtil.getBigQuery(config.getServiceAccountFilePath(), config.getProject());
       // create dataset if it does not exist
@@ -108,126 +148,159 @@ public final class BigQuerySink extends BatchSink<StructuredRecord, JsonObject,
           throw new RuntimeException("Exception occurred while creating dataset " + config.getDataset() + ".", e);
         }
       }
+      createTable(bigquery, groupedLoads);
+      if (groupedLoads) {
+        createWriteTable(bigquery);
+      }
     }
 
     // schema validation against bigquery table schema
     validateSchema();
 
-    uuid = UUID.randomUUID();
-    configuration = BigQueryUtil.getBigQueryConfig(config.getServiceAccountFilePath(), config.getProject());
-
     List<BigQueryTableFieldSchema> fields = new ArrayList<>();
     for (Schema.Field field : config.getSchema().getFields()) {
-      String tableTypeName = getTableDataType(BigQueryUtil.getNonNullableSchema(field.getSchema())).name();
-      BigQueryTableFieldSchema tableFieldSchema = new BigQueryTableFieldSchema()
-        .setName(field.getName())
-        .setType(tableTypeName)
-        .setMode(Field.Mode.NULLABLE.name());
-      fields.add(tableFieldSchema);
+      fields.add(BigQueryUtil.getTableFieldSchema(field.getName(), field.getSchema()));
     }
 
+    configuration = BigQueryUtil.getBigQueryConfig(config.getServiceAccountFilePath(), config.getProject());
     String bucket = config.getBucket();
-    if (config.getBucket() == null) {
-      bucket = uuid.toString();
-      // By default, this option is false, meaning the job can not delete the bucket. So enable it only when bucket name
-      // is not provided.
-      configuration.setBoolean("fs.gs.bucket.delete.enable", true);
+    if (bucket == null) {
+      // runs without a bucket share a staging bucket, so buckets are not created and deleted by every run
+      stagingBucket = BigQueryUtil.getStagingBucket(config.getProject(), config.getServiceAccountFilePath());
+      bucket = stagingBucket;
     }
 
     configuration.set("fs.gs.system.bucket", bucket);
     configuration.setBoolean("fs.gs.impl.disable.cache", true);
     configuration.setBoolean("fs.gs.metadata.cache.enable", false);
-    String temporaryGcsPath = String.format("gs://%s/hadoop/input/%s", bucket, uuid);
+    String temporaryGcsPath = String.format("gs://%s/%s", bucket, getTemporaryPrefix());
 
     BigQueryOutputConfiguration.configure(
       configuration,
-      String.format("%s.%s", config.getDataset(), config.getTable()),
+      String.format("%s.%s", config.getDataset(), getWriteTable()),
       new BigQueryTableSchema().setFields(fields),
       temporaryGcsPath,
-      BigQueryFileFormat.NEWLINE_DELIMITED_JSON,
-      TextOutputFormat.class);
+      fileFormat.getBigQueryFileFormat(),
+      fileFormat.getOutputFormatClass());
 
     // Both emitLineage and setOutputFormat internally try to create an external dataset if it does not already exists.
     // We call emitLineage before since it creates the dataset with schema which .
     emitLineage(context, fields);
-    setOutputFormat(context);
+    if (groupedLoads) {
+      groupedLoadPath = temporaryGcsPath;
+      String avroSchema = fileFormat == LoadFileFormat.AVRO ?
+        StructuredToAvroEncoder.getAvroSchema(config.getSchema()).toString() : null;
+      for (Map.Entry<String, String> entry :
+        PartitionedLoadOutputFormat.configure(groupedLoadPath, fileFormat, avroSchema).entrySet()) {
+        configuration.set(entry.getKey(), entry.getValue());
+      }
+      setOutputFormat(context, PartitionedLoadOutputFormat.class.getName());
+      return;
+    }
+    setOutputFormat(context, IndirectBigQueryOutputFormat.class.getName());
   }
 
   @Override
   public void initialize(BatchRuntimeContext context) throws Exception {
     super.initialize(context);
     schema = config.getSchema();
+    if (config.getFileFormat() == LoadFileFormat.AVRO) {
+      avroEncoder = new StructuredToAvroEncoder(schema);
+    }
+    partitioner = LoadPartitioner.of(config);
+    Schema inputSchema = context.getInputSchema();
+    if (avroEncoder == null && inputSchema != null) {
+      encoder = BigQueryRecordEncoder.compile(inputSchema, schema, true);
+    }
   }
 
   @Override
-  public void transform(StructuredRecord input, Emitter<KeyValue<JsonObject, NullWritable>> emitter) throws Exception {
-    JsonObject object = new JsonObject();
-    for (Schema.Field recordField : input.getSchema().getFields()) {
-      // From all the fields in input record, decode only those fields that are present in output schema
-      if (schema.getField(recordField.getName()) != null) {
-        decodeSimpleTypes(object, recordField.getName(), input);
-      }
+  public void transform(StructuredRecord input, Emitter<KeyValue<Object, Object>> emitter) throws Exception {
+    if (avroEncoder != null) {
+      // Avro files are always loaded in groups, which is a single group if the table is not partitioned
+      String group = partitioner == null ? AVRO_LOAD_GROUP : partitioner.getGroup(input);
+      emitter.emit(new KeyValue<>(new AvroKey<GenericRecord>(avroEncoder.encode(input)), group));
+      return;
+    }
+
+    // the value is ignored by the BigQuery output formats, and is the load group of the record for grouped loads
+    Object group = partitioner == null ? NullWritable.get() : partitioner.getGroup(input);
+
+    // the input schema is usually fixed, so the encoder is only recompiled if records with another schema show up
+    Schema inputSchema = input.getSchema();
+    if (encoder == null || !encoder.isCompiledFor(inputSchema)) {
+      encoder = BigQueryRecordEncoder.compile(inputSchema, schema, true);
     }
-    emitter.emit(new KeyValue<>(object, NullWritable.get()));
+    emitter.emit(new KeyValue<>(encoder.toJson(input), group));
   }
 
   @Override
   public void onRunFinish(boolean succeeded, BatchSinkContext context) {
-    if (config.getBucket() == null) {
-      Path gcsPath = new Path(String.format("gs://%s", uuid.toString()));
+    try {
       try {
-        FileSystem fs = gcsPath.getFileSystem(configuration);
-        if (fs.exists(gcsPath)) {
-          fs.delete(gcsPath, true);
+        if (groupedLoadPath != null && succeeded && !context.isPreviewEnabled()) {
+          loadGroups();
+        }
+      } finally {
+        deleteTemporaryFiles();
+      }
+
+      if (succeeded && !context.isPreviewEnabled()) {
+        if (stagingTable != null) {
+          mergeStagingTable();
+        } else if (loadTable != null) {
+          copyLoadTable();
         }
-      } catch (IOException e) {
-        LOG.warn("Failed to delete bucket " + gcsPath.toUri().getPath() + ", " + e.getMessage());
+      }
+    } finally {
+      // the run may have changed the schema of the table
+      BigQueryUtil.invalidateBigQueryTable(config.getProject(), config.getDataset(), config.getTable());
+      if (!getWriteTable().equals(config.getTable()) && !context.isPreviewEnabled()) {
+        deleteWriteTable();
       }
     }
   }
 
-  private LegacySQLTypeName getTableDataType(Schema schema) {
-    Schema.LogicalType logicalType = schema.getLogicalType();
-
-    if (logicalType != null) {
-      switch (logicalType) {
-        case DATE:
-          return LegacySQLTypeName.DATE;
-        case TIME_MILLIS:
-        case TIME_MICROS:
-          return LegacySQLTypeName.TIME;
-        case TIMESTAMP_MILLIS:
-        case TIMESTAMP_MICROS:
-          return LegacySQLTypeName.TIMESTAMP;
-        default:
-          throw new IllegalStateException("Unsupported logical type " + logicalType);
-      }
+  /**
+   * @return the table records are written to, which is the staging table for upserts and the load table for
+   *   inserts loaded in groups
+   */
+  private String getWriteTable() {
+    if (stagingTable != null) {
+      return stagingTable;
     }
+    return loadTable == null ? config.getTable() : loadTable;
+  }
 
-    Schema.Type type = schema.getType();
-    switch(type) {
-      case INT:
-      case LONG:
-        return LegacySQLTypeName.INTEGER;
-      case STRING:
-        return LegacySQLTypeName.STRING;
-      case FLOAT:
-      case DOUBLE:
-        return LegacySQLTypeName.FLOAT;
-      case BOOLEAN:
-        return LegacySQLTypeName.BOOLEAN;
-      case BYTES:
-        return LegacySQLTypeName.BYTES;
-      default:
-        throw new IllegalStateException("Unsupported type " + type);
+  /**
+   * @return prefix of the temporary files of the run in the bucket
+   */
+  private String getTemporaryPrefix() {
+    return String.format("hadoop/input/%s", uuid);
+  }
+
+  /**
+   * Deletes the temporary files of the run from the bucket. Files left in the shared staging bucket are eventually
+   * deleted by the lifecycle rule of the bucket.
+   */
+  private void deleteTemporaryFiles() {
+    String bucket = config.getBucket() == null ? stagingBucket : config.getBucket();
+    if (bucket == null) {
+      return;
+    }
+    try {
+      StorageClient.create(config.getProject(), config.getServiceAccountFilePath())
+        .deletePrefix(bucket, getTemporaryPrefix());
+    } catch (IOException | StorageException e) {
+      LOG.warn("Failed to delete temporary files gs://{}/{}, {}", bucket, getTemporaryPrefix(), e.getMessage());
     }
   }
 
-  private void setOutputFormat(BatchSinkContext context) {
+  private void setOutputFormat(BatchSinkContext context, String outputFormatClassName) {
     context.addOutput(Output.of(config.getReferenceName(), new OutputFormatProvider() {
       @Override
       public String getOutputFormatClassName() {
-        return IndirectBigQueryOutputFormat.class.getName();
+        return outputFormatClassName;
       }
 
       @Override
@@ -251,56 +324,194 @@ public final class BigQuerySink extends BatchSink<StructuredRecord, JsonObject,
     }
   }
 
-  private static void decodeSimpleTypes(JsonObject json, String name, StructuredRecord input) {
-    Object object = input.get(name);
-    Schema schema = BigQueryUtil.getNonNullableSchema(input.getSchema().getField(name).getSchema());
-
-    if (object == null) {
-      json.add(name, JsonNull.INSTANCE);
+  /**
+   * Creates the table if it does not exist and it is partitioned, clustered, the target of upserts or loaded in
+   * groups. Other tables are created by the load job instead.
+   */
+  private void createTable(BigQuery bigquery, boolean groupedLoads) {
+    List<String> clusteringFields = config.getClusteringFields();
+    String partitionExpression = config.getPartitionExpression();
+    if (partitionExpression == null && clusteringFields.isEmpty() && config.getOperation() == Operation.INSERT
+      && !groupedLoads) {
       return;
     }
+    TableId tableId = TableId.of(bigquery.getOptions().getProjectId(), config.getDataset(), config.getTable());
+    if (bigquery.getTable(tableId) != null) {
+      return;
+    }
+
+    String createStmt = BigQueryUtil.getCreateTableStatement(tableId, config.getSchema(), partitionExpression,
+                                                             clusteringFields);
+    LOG.debug("Creating BigQuery table '{}.{}' with statement: {}", config.getDataset(), config.getTable(),
+              createStmt);
+    runQuery(bigquery, createStmt, "create table");
+  }
+
+  /**
+   * Creates the staging or load table that groups are loaded into, with the schema, partitioning and clustering of
+   * the destination table, so that it can be merged or copied into the destination table.
+   */
+  private void createWriteTable(BigQuery bigquery) {
+    String project = bigquery.getOptions().getProjectId();
+    Table table = bigquery.getTable(TableId.of(project, config.getDataset(), config.getTable()));
+    if (table == null) {
+      throw new IllegalStateException(String.format("BigQuery table '%s.%s' does not exist.", config.getDataset(),
+                                                    config.getTable()));
+    }
+    try {
+      bigquery.create(TableInfo.of(TableId.of(project, config.getDataset(), getWriteTable()), table.getDefinition()));
+    } catch (BigQueryException e) {
+      throw new RuntimeException(String.format("Exception occurred while creating BigQuery table '%s.%s'.",
+                                               config.getDataset(), getWriteTable()), e);
+    }
+  }
 
-    Schema.LogicalType logicalType = schema.getLogicalType();
-    if (logicalType != null) {
-      switch (logicalType) {
-        case DATE:
-          json.addProperty(name, input.getDate(name).toString());
-          break;
-        case TIME_MILLIS:
-        case TIME_MICROS:
-          json.addProperty(name, timeFormatter.format(input.getTime(name)));
-          break;
-        case TIMESTAMP_MILLIS:
-        case TIMESTAMP_MICROS:
-          //timestamp for json input should be in this format yyyy-MM-dd HH:mm:ss.SSSSSS
-          json.addProperty(name, dtf.format(input.getTimestamp(name)));
-          break;
-        default:
-          throw new IllegalStateException(String.format("Unsupported logical type %s", logicalType));
+  /**
+   * Copies the load table into the destination table with a single copy job, so that either all or none of the
+   * groups are appended to the destination table.
+   */
+  private void copyLoadTable() {
+    try {
+      BigQuery bigquery = BigQueryUtil.getBigQuery(config.getServiceAccountFilePath(), config.getProject());
+      String project = bigquery.getOptions().getProjectId();
+      CopyJobConfiguration copy =
+        CopyJobConfiguration.newBuilder(TableId.of(project, config.getDataset(), config.getTable()),
+                                        TableId.of(project, config.getDataset(), loadTable))
+          .setCreateDisposition(JobInfo.CreateDisposition.CREATE_NEVER)
+          .setWriteDisposition(JobInfo.WriteDisposition.WRITE_APPEND)
+          .build();
+      LOG.debug("Copying load table '{}' into BigQuery table '{}.{}'.", loadTable, config.getDataset(),
+                config.getTable());
+      runJob(bigquery, copy, "copy records into table");
+    } catch (IOException e) {
+      throw new RuntimeException("Exception while trying to get BigQuery service.", e);
+    }
+  }
+
+  /**
+   * Merges the staging table into the destination table with a single MERGE statement.
+   */
+  private void mergeStagingTable() {
+    try {
+      BigQuery bigquery = BigQueryUtil.getBigQuery(config.getServiceAccountFilePath(), config.getProject());
+      String project = bigquery.getOptions().getProjectId();
+      TableId stagingTableId = TableId.of(project, config.getDataset(), stagingTable);
+      if (bigquery.getTable(stagingTableId) == null) {
+        // no records were written
+        return;
       }
-      return;
+      List<String> columns = config.getSchema().getFields().stream()
+        .map(Schema.Field::getName)
+        .collect(Collectors.toList());
+      String mergeStmt = BigQueryUtil.getMergeStatement(TableId.of(project, config.getDataset(), config.getTable()),
+                                                        stagingTableId, columns, config.getTableKey(),
+                                                        config.getDedupeBy());
+      LOG.debug("Merging staging table '{}' into BigQuery table '{}.{}' with statement: {}", stagingTable,
+                config.getDataset(), config.getTable(), mergeStmt);
+      runQuery(bigquery, mergeStmt, "merge records into table");
+    } catch (IOException e) {
+      throw new RuntimeException("Exception while trying to get BigQuery service.", e);
+    }
+  }
+
+  private void deleteWriteTable() {
+    try {
+      BigQuery bigquery = BigQueryUtil.getBigQuery(config.getServiceAccountFilePath(), config.getProject());
+      bigquery.delete(TableId.of(config.getDataset(), getWriteTable()));
+    } catch (IOException | BigQueryException e) {
+      LOG.warn("Failed to delete staging table " + getWriteTable() + ", " + e.getMessage());
+    }
+  }
+
+  /**
+   * Runs a standard SQL statement and waits for it to complete.
+   *
+   * @param action description of the statement used in error messages
+   */
+  private void runQuery(BigQuery bigquery, String query, String action) {
+    runJob(bigquery, QueryJobConfiguration.newBuilder(query).setUseLegacySql(false).build(), action);
+  }
+
+  /**
+   * Runs a job and waits for it to complete.
+   *
+   * @param action description of the job used in error messages
+   */
+  private void runJob(BigQuery bigquery, JobConfiguration configuration, String action) {
+    Job job;
+    try {
+      job = bigquery.create(JobInfo.of(configuration)).waitFor();
+    } catch (BigQueryException e) {
+      throw new RuntimeException(String.format("Exception occurred while trying to %s '%s.%s'.",
+                                               action, config.getDataset(), config.getTable()), e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(String.format("Interrupted while trying to %s '%s.%s'.",
+                                               action, config.getDataset(), config.getTable()), e);
+    }
+    if (job == null || job.getStatus().getError() != null) {
+      throw new RuntimeException(String.format("Failed to %s '%s.%s': %s", action, config.getDataset(),
+                                               config.getTable(), job == null ? "job not found" :
+                                                 job.getStatus().getError()));
     }
+  }
 
-    Schema.Type type = schema.getType();
-    switch (type) {
-      case NULL:
-        json.add(name, JsonNull.INSTANCE); // nothing much to do here.
-        break;
-      case INT:
-      case LONG:
-      case FLOAT:
-      case DOUBLE:
-        json.addProperty(name, (Number) object);
-        break;
-      case BOOLEAN:
-        json.addProperty(name, (Boolean) object);
-        break;
-      case STRING:
-        json.addProperty(name, object.toString());
-        break;
-      default:
-        throw new IllegalStateException(String.format("Unsupported type %s", type));
+  /**
+   * Loads every group of temporary files with its own load job into the table records are written to. At most the
+   * configured number of jobs run at the same time.
+   */
+  private void loadGroups() {
+    Path outputPath = new Path(groupedLoadPath);
+    try {
+      FileSystem fs = outputPath.getFileSystem(configuration);
+      List<Path> groups = PartitionedLoadOutputFormat.getGroupDirectories(fs, outputPath);
+      LOG.debug("Loading {} groups into BigQuery table '{}.{}'.", groups.size(), config.getDataset(),
+                getWriteTable());
+      if (config.getFileFormat() == LoadFileFormat.AVRO) {
+        loadAvroGroups(groups);
+        return;
+      }
+      BigQuery bigquery = BigQueryUtil.getBigQuery(config.getServiceAccountFilePath(), config.getProject());
+      TableId tableId = TableId.of(config.getDataset(), getWriteTable());
+      List<LoadJobConfiguration> loads = new ArrayList<>();
+      for (Path group : groups) {
+        loads.add(LoadJobConfiguration.newBuilder(tableId, group.toString() + "/*", FormatOptions.json())
+                    .setCreateDisposition(JobInfo.CreateDisposition.CREATE_NEVER)
+                    .setWriteDisposition(JobInfo.WriteDisposition.WRITE_APPEND)
+                    .build());
+      }
+      LoadJobRunner.run(bigquery, loads, config.getMaxConcurrentLoads());
+    } catch (IOException | BigQueryException e) {
+      throw new RuntimeException(String.format("Failed to load records into BigQuery table '%s.%s'.",
+                                               config.getDataset(), config.getTable()), e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(String.format("Interrupted while loading records into BigQuery table '%s.%s'.",
+                                               config.getDataset(), config.getTable()), e);
+    }
+  }
+
+  /**
+   * Loads groups of Avro files into the table records are written to, which is created from the Avro schema if it
+   * does not exist yet.
+   */
+  private void loadAvroGroups(List<Path> groups) throws IOException, InterruptedException {
+    Bigquery bigquery;
+    try {
+      bigquery = new BigQueryFactory().getBigQuery(configuration);
+    } catch (GeneralSecurityException e) {
+      throw new IOException("Failed to create BigQuery client.", e);
+    }
+    String project = configuration.get(BigQueryConfiguration.PROJECT_ID_KEY);
+    TableReference table = new TableReference()
+      .setProjectId(project)
+      .setDatasetId(config.getDataset())
+      .setTableId(getWriteTable());
+    List<JobConfigurationLoad> loads = new ArrayList<>();
+    for (Path group : groups) {
+      loads.add(LoadJobRunner.getAvroLoad(table, group.toString() + "/*"));
     }
+    LoadJobRunner.runAvro(bigquery, project, loads, config.getMaxConcurrentLoads());
   }
 
   /**
@@ -334,10 +545,10 @@ public final class BigQuerySink extends BatchSink<StructuredRecord, JsonObject,
                       config.getDataset(), config.getTable(), diff));
     }
 
-    // validate the missing columns in output schema are nullable fields in bigquery
+    // validate the missing columns in output schema are nullable or repeated fields in bigquery
     List<String> remainingBQFields = BigQueryUtil.getBqFieldsMinusSchema(bqFields, outputSchemaFields);
     for (String field : remainingBQFields) {
-      if (bqFields.get(field).getMode() != Field.Mode.NULLABLE) {
+      if (bqFields.get(field).getMode() == Field.Mode.REQUIRED) {
         throw new IllegalArgumentException(
           String.format("The output schema does not match the BigQuery table schema for '%s.%s'. " +
                           "The table requires column '%s', which is not in the output schema.",
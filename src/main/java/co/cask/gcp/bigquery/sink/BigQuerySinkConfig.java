@@ -21,8 +21,13 @@ import co.cask.cdap.api.annotation.Macro;
 import co.cask.cdap.api.data.schema.Schema;
 import co.cask.gcp.bigquery.util.BigQueryUtil;
 import co.cask.gcp.common.GCPReferenceSinkConfig;
+import com.google.cloud.bigquery.LegacySQLTypeName;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import javax.annotation.Nullable;
 
 /**
@@ -30,6 +35,10 @@ import javax.annotation.Nullable;
  * configuring the <code>BigQuerySink</code> plugin.
  */
 public final class BigQuerySinkConfig extends GCPReferenceSinkConfig {
+  private static final int DEFAULT_PARTITIONS_PER_LOAD = 1000;
+  private static final int DEFAULT_MAX_CONCURRENT_LOADS = 10;
+  private static final int MAX_CLUSTERING_FIELDS = 4;
+
   @Macro
   @Description("The dataset to write to. A dataset is contained within a specific project. "
     + "Datasets are top-level containers that are used to organize and control access to tables and views.")
@@ -46,13 +55,88 @@ public final class BigQuerySinkConfig extends GCPReferenceSinkConfig {
   @Description("The Google Cloud Storage bucket to store temporary data in. "
     + "It will be automatically created if it does not exist, but will not be automatically deleted. "
     + "Cloud Storage data will be deleted after it is loaded into BigQuery. " +
-    "If it is not provided, a unique bucket will be created and then deleted after the run finishes.")
+    "If it is not provided, the data is stored in a staging bucket shared by all runs of the project, named "
+    + "'bigquery-staging-' followed by a random suffix and labeled 'bigquery-staging', "
+    + "whose objects are deleted after 7 days by a lifecycle rule.")
   private String bucket;
 
   @Macro
   @Description("The schema of the data to write. Must be compatible with the table schema.")
   private String schema;
 
+  @Macro
+  @Nullable
+  @Description("The format of the temporary files written to Google Cloud Storage before they are loaded into "
+    + "BigQuery. Can be 'json' or 'avro'. Avro files are binary and considerably smaller than json. "
+    + "Defaults to 'json'.")
+  private String fileFormat;
+
+  @Macro
+  @Nullable
+  @Description("How records are applied to the table. 'insert' appends them. 'upsert' writes them to a staging "
+    + "table that is merged into the table on the table key once the run succeeds: existing rows with the same key "
+    + "are updated and all other records are inserted. Defaults to 'insert'.")
+  private String operation;
+
+  @Macro
+  @Nullable
+  @Description("Comma separated list of the columns that identify a row of the table. Required for upserts.")
+  private String tableKey;
+
+  @Macro
+  @Nullable
+  @Description("Column that decides which record is kept if several records of an upsert have the same table key. "
+    + "The record with the greatest value is kept. If not set, upserts fail when records have the same key.")
+  private String dedupeBy;
+
+  @Macro
+  @Nullable
+  @Description("How the table is partitioned if the sink creates it. Can be 'none', 'time' or 'integer'. "
+    + "Time partitioned tables are partitioned by day on the partition field, or on ingestion time if no partition "
+    + "field is given. Integer partitioned tables are partitioned on ranges of the partition field. "
+    + "Defaults to 'none'.")
+  private String partitioningType;
+
+  @Macro
+  @Nullable
+  @Description("The column to partition the table on. Must be a date or timestamp column for time partitioning and "
+    + "an int or long column for integer partitioning.")
+  private String partitionField;
+
+  @Macro
+  @Nullable
+  @Description("The inclusive start of the integer partition ranges. Required for integer partitioning.")
+  private Long rangeStart;
+
+  @Macro
+  @Nullable
+  @Description("The exclusive end of the integer partition ranges. Required for integer partitioning.")
+  private Long rangeEnd;
+
+  @Macro
+  @Nullable
+  @Description("The width of each integer partition range. Required for integer partitioning.")
+  private Long rangeInterval;
+
+  @Macro
+  @Nullable
+  @Description("Comma separated list of up to four columns to cluster the table on if the sink creates it. "
+    + "Clustering requires the table to be partitioned.")
+  private String clusteringOrder;
+
+  @Macro
+  @Nullable
+  @Description("The maximum number of partitions a single load job writes to when the table is partitioned on a "
+    + "column. Temporary files are grouped by partition so that each group is loaded by its own job. "
+    + "Defaults to 1000.")
+  private Integer partitionsPerLoad;
+
+  @Macro
+  @Nullable
+  @Description("The maximum number of load jobs that run at the same time once the run succeeds, when temporary "
+    + "files are loaded in groups. Defaults to 10.")
+  private Integer maxConcurrentLoads;
+
   public BigQuerySinkConfig(String referenceName, String dataset, String table,
                             @Nullable String bucket, String schema) {
     this.referenceName = referenceName;
@@ -75,6 +159,107 @@ public final class BigQuerySinkConfig extends GCPReferenceSinkConfig {
     return bucket;
   }
 
+  /**
+   * @return the format of the files staged on Google Cloud Storage
+   * @throws IllegalArgumentException if the format is not supported
+   */
+  public LoadFileFormat getFileFormat() {
+    if (fileFormat == null || fileFormat.isEmpty()) {
+      return LoadFileFormat.JSON;
+    }
+    return LoadFileFormat.fromValue(fileFormat)
+      .orElseThrow(() -> new IllegalArgumentException("Unsupported file format " + fileFormat + "."));
+  }
+
+  /**
+   * @return how records are applied to the table
+   * @throws IllegalArgumentException if the operation is not supported
+   */
+  public Operation getOperation() {
+    if (operation == null || operation.isEmpty()) {
+      return Operation.INSERT;
+    }
+    return Operation.fromValue(operation)
+      .orElseThrow(() -> new IllegalArgumentException("Unsupported operation " + operation + "."));
+  }
+
+  public List<String> getTableKey() {
+    return splitFields(tableKey);
+  }
+
+  @Nullable
+  public String getDedupeBy() {
+    return dedupeBy == null || dedupeBy.trim().isEmpty() ? null : dedupeBy.trim();
+  }
+
+  /**
+   * @return how the table is partitioned
+   * @throws IllegalArgumentException if the partitioning type is not supported
+   */
+  public PartitioningType getPartitioningType() {
+    if (partitioningType == null || partitioningType.isEmpty()) {
+      return PartitioningType.NONE;
+    }
+    return PartitioningType.fromValue(partitioningType)
+      .orElseThrow(() -> new IllegalArgumentException("Unsupported partitioning type " + partitioningType + "."));
+  }
+
+  @Nullable
+  public String getPartitionField() {
+    return partitionField == null || partitionField.isEmpty() ? null : partitionField;
+  }
+
+  @Nullable
+  public Long getRangeStart() {
+    return rangeStart;
+  }
+
+  @Nullable
+  public Long getRangeEnd() {
+    return rangeEnd;
+  }
+
+  @Nullable
+  public Long getRangeInterval() {
+    return rangeInterval;
+  }
+
+  public List<String> getClusteringFields() {
+    return splitFields(clusteringOrder);
+  }
+
+  public int getPartitionsPerLoad() {
+    return partitionsPerLoad == null ? DEFAULT_PARTITIONS_PER_LOAD : partitionsPerLoad;
+  }
+
+  public int getMaxConcurrentLoads() {
+    return maxConcurrentLoads == null ? DEFAULT_MAX_CONCURRENT_LOADS : maxConcurrentLoads;
+  }
+
+  /**
+   * Gets the PARTITION BY expression used to create the table.
+   *
+   * @return the partition expression, or null if the table is not partitioned
+   */
+  @Nullable
+  public String getPartitionExpression() {
+    String field = getPartitionField();
+    switch (getPartitioningType()) {
+      case TIME:
+        if (field == null) {
+          return "_PARTITIONDATE";
+        }
+        Schema fieldSchema = BigQueryUtil.getNonNullableSchema(getSchema().getField(field).getSchema());
+        return fieldSchema.getLogicalType() == Schema.LogicalType.DATE ?
+          String.format("`%s`", field) : String.format("DATE(`%s`)", field);
+      case INTEGER:
+        return String.format("RANGE_BUCKET(`%s`, GENERATE_ARRAY(%d, %d, %d))",
+                             field, rangeStart, rangeEnd, rangeInterval);
+      default:
+        return null;
+    }
+  }
+
   /**
    * @return the schema of the dataset
    * @throws IllegalArgumentException if the schema is null or invalid
@@ -90,14 +275,141 @@ public final class BigQuerySinkConfig extends GCPReferenceSinkConfig {
     }
   }
 
+  private static List<String> splitFields(@Nullable String fields) {
+    if (fields == null || fields.isEmpty()) {
+      return Collections.emptyList();
+    }
+    return Stream.of(fields.split(","))
+      .map(String::trim)
+      .filter(name -> !name.isEmpty())
+      .collect(Collectors.toList());
+  }
+
+  private void validateOperation(Schema outputSchema) {
+    if (getOperation() == Operation.INSERT) {
+      return;
+    }
+    List<String> keys = getTableKey();
+    if (keys.isEmpty()) {
+      throw new IllegalArgumentException("Table key is required for upserts.");
+    }
+    for (String key : keys) {
+      Schema.Field keyField = outputSchema.getField(key);
+      if (keyField == null) {
+        throw new IllegalArgumentException(String.format("Table key field '%s' is not present in the output schema.",
+                                                         key));
+      }
+      Schema keySchema = BigQueryUtil.getNonNullableSchema(keyField.getSchema());
+      if (!keySchema.getType().isSimpleType() || BigQueryUtil.getTableDataType(keySchema) == LegacySQLTypeName.FLOAT) {
+        throw new IllegalArgumentException(String.format("Table key field '%s' can not be a float, double, record, "
+                                                           + "array or map.", key));
+      }
+    }
+
+    String dedupeBy = getDedupeBy();
+    if (dedupeBy != null) {
+      Schema.Field dedupeField = outputSchema.getField(dedupeBy);
+      if (dedupeField == null) {
+        throw new IllegalArgumentException(String.format("Dedupe field '%s' is not present in the output schema.",
+                                                         dedupeBy));
+      }
+      if (!BigQueryUtil.getNonNullableSchema(dedupeField.getSchema()).getType().isSimpleType()) {
+        throw new IllegalArgumentException(String.format("Dedupe field '%s' can not be a record, array or map.",
+                                                         dedupeBy));
+      }
+    }
+  }
+
+  private void validatePartitioning(Schema outputSchema) {
+    PartitioningType type = getPartitioningType();
+    String field = getPartitionField();
+    if (field != null) {
+      if (type == PartitioningType.NONE) {
+        throw new IllegalArgumentException("Partition field can only be set if the table is partitioned.");
+      }
+      Schema.Field partitionField = outputSchema.getField(field);
+      if (partitionField == null) {
+        throw new IllegalArgumentException(String.format("Partition field '%s' is not present in the output schema.",
+                                                         field));
+      }
+      Schema fieldSchema = BigQueryUtil.getNonNullableSchema(partitionField.getSchema());
+      Schema.LogicalType logicalType = fieldSchema.getLogicalType();
+      if (type == PartitioningType.TIME && logicalType != Schema.LogicalType.DATE
+        && logicalType != Schema.LogicalType.TIMESTAMP_MILLIS && logicalType != Schema.LogicalType.TIMESTAMP_MICROS) {
+        throw new IllegalArgumentException(
+          String.format("Partition field '%s' must be a date or timestamp for time partitioning.", field));
+      }
+      if (type == PartitioningType.INTEGER && (logicalType != null
+        || (fieldSchema.getType() != Schema.Type.INT && fieldSchema.getType() != Schema.Type.LONG))) {
+        throw new IllegalArgumentException(
+          String.format("Partition field '%s' must be an int or long for integer partitioning.", field));
+      }
+    }
+
+    if (type == PartitioningType.INTEGER) {
+      if (field == null || rangeStart == null || rangeEnd == null || rangeInterval == null) {
+        throw new IllegalArgumentException(
+          "Partition field, range start, range end and range interval are required for integer partitioning.");
+      }
+      if (rangeInterval < 1 || rangeEnd <= rangeStart) {
+        throw new IllegalArgumentException("Range interval must be positive and range end must be after range start.");
+      }
+    }
+
+    List<String> clusteringFields = getClusteringFields();
+    if (clusteringFields.isEmpty()) {
+      return;
+    }
+    if (type == PartitioningType.NONE) {
+      throw new IllegalArgumentException("Clustering requires the table to be partitioned.");
+    }
+    if (clusteringFields.size() > MAX_CLUSTERING_FIELDS) {
+      throw new IllegalArgumentException(String.format("At most %d clustering fields can be specified.",
+                                                       MAX_CLUSTERING_FIELDS));
+    }
+    for (String name : clusteringFields) {
+      Schema.Field clusteringField = outputSchema.getField(name);
+      if (clusteringField == null) {
+        throw new IllegalArgumentException(String.format("Clustering field '%s' is not present in the output schema.",
+                                                         name));
+      }
+      Schema fieldSchema = BigQueryUtil.getNonNullableSchema(clusteringField.getSchema());
+      LegacySQLTypeName columnType = BigQueryUtil.getTableDataType(fieldSchema);
+      if (BigQueryUtil.isRepeated(fieldSchema) || columnType == LegacySQLTypeName.RECORD
+        || columnType == LegacySQLTypeName.FLOAT || columnType == LegacySQLTypeName.BYTES
+        || columnType == LegacySQLTypeName.TIME) {
+        throw new IllegalArgumentException(String.format("Clustering field '%s' is of unsupported type '%s'.",
+                                                         name, columnType));
+      }
+    }
+  }
+
   /**
-   * Verifies if output schema only contains simple types. It also verifies if all the output schema fields are
-   * present in input schema.
+   * Verifies if output schema only contains types that can be written to BigQuery. It also verifies if all the
+   * output schema fields are present in input schema.
    *
    * @param inputSchema input schema to bigquery sink
    */
   public void validate(@Nullable Schema inputSchema) {
     super.validate();
+    if (!containsMacro("fileFormat")) {
+      getFileFormat();
+    }
+    if (!containsMacro("partitionsPerLoad") && partitionsPerLoad != null && partitionsPerLoad < 1) {
+      throw new IllegalArgumentException("Partitions per load should be positive.");
+    }
+    if (!containsMacro("maxConcurrentLoads") && maxConcurrentLoads != null && maxConcurrentLoads < 1) {
+      throw new IllegalArgumentException("Max concurrent loads should be positive.");
+    }
+    if (!containsMacro("schema") && !containsMacro("partitioningType") && !containsMacro("partitionField")
+      && !containsMacro("rangeStart") && !containsMacro("rangeEnd") && !containsMacro("rangeInterval")
+      && !containsMacro("clusteringOrder")) {
+      validatePartitioning(getSchema());
+    }
+    if (!containsMacro("schema") && !containsMacro("operation") && !containsMacro("tableKey")
+      && !containsMacro("dedupeBy")) {
+      validateOperation(getSchema());
+    }
     if (!containsMacro("schema")) {
       Schema outputSchema = getSchema();
       for (Schema.Field field : outputSchema.getFields()) {
@@ -107,13 +419,47 @@ public final class BigQuerySinkConfig extends GCPReferenceSinkConfig {
                                                            field.getName()));
         }
 
-        Schema fieldSchema = BigQueryUtil.getNonNullableSchema(field.getSchema());
+        validateFieldSchema(field.getName(), BigQueryUtil.getNonNullableSchema(field.getSchema()));
+      }
+    }
+  }
 
-        if (!fieldSchema.getType().isSimpleType()) {
-          throw new IllegalArgumentException(String.format("Field '%s' is of unsupported type '%s'.",
-                                                           field.getName(), fieldSchema.getType()));
+  /**
+   * Verifies that values of the provided non-nullable schema can be written to a BigQuery column. Records can be
+   * nested arbitrarily deep, but BigQuery can not store arrays of arrays, so the components of arrays and the
+   * values of maps can not be arrays or maps.
+   */
+  private static void validateFieldSchema(String name, Schema fieldSchema) {
+    Schema.Type type = fieldSchema.getType();
+    if (type.isSimpleType()) {
+      return;
+    }
+    switch (type) {
+      case RECORD:
+        for (Schema.Field field : fieldSchema.getFields()) {
+          validateFieldSchema(name + "." + field.getName(), BigQueryUtil.getNonNullableSchema(field.getSchema()));
         }
-      }
+        return;
+      case ARRAY:
+        validateRepeatedSchema(name, BigQueryUtil.getNonNullableSchema(fieldSchema.getComponentSchema()));
+        return;
+      case MAP:
+        Schema keySchema = BigQueryUtil.getNonNullableSchema(fieldSchema.getMapSchema().getKey());
+        if (keySchema.getType() != Schema.Type.STRING) {
+          throw new IllegalArgumentException(String.format("Map field '%s' must have string keys.", name));
+        }
+        validateRepeatedSchema(name, BigQueryUtil.getNonNullableSchema(fieldSchema.getMapSchema().getValue()));
+        return;
+      default:
+        throw new IllegalArgumentException(String.format("Field '%s' is of unsupported type '%s'.", name, type));
+    }
+  }
+
+  private static void validateRepeatedSchema(String name, Schema elementSchema) {
+    if (BigQueryUtil.isRepeated(elementSchema)) {
+      throw new IllegalArgumentException(
+        String.format("Field '%s' is of unsupported type. Arrays and maps can not contain arrays or maps.", name));
     }
+    validateFieldSchema(name, elementSchema);
   }
 }
@@ -0,0 +1,79 @@
+/*
+ * Copyright © 2018 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.gcp.bigquery.sink;
+
+import com.google.cloud.hadoop.io.bigquery.BigQueryFileFormat;
+import org.apache.avro.mapreduce.AvroKeyOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/**
+ * Format of the files staged on Google Cloud Storage before they are loaded into BigQuery.
+ */
+public enum LoadFileFormat {
+
+  /**
+   * Records are written as newline delimited JSON text.
+   */
+  JSON("json", BigQueryFileFormat.NEWLINE_DELIMITED_JSON, TextOutputFormat.class),
+
+  /**
+   * Records are written as binary Avro container files.
+   */
+  AVRO("avro", BigQueryFileFormat.AVRO, AvroKeyOutputFormat.class);
+
+  private final String value;
+  private final BigQueryFileFormat bigQueryFileFormat;
+  @SuppressWarnings("rawtypes")
+  private final Class<? extends FileOutputFormat> outputFormatClass;
+
+  @SuppressWarnings("rawtypes")
+  LoadFileFormat(String value, BigQueryFileFormat bigQueryFileFormat,
+                 Class<? extends FileOutputFormat> outputFormatClass) {
+    this.value = value;
+    this.bigQueryFileFormat = bigQueryFileFormat;
+    this.outputFormatClass = outputFormatClass;
+  }
+
+  public String getValue() {
+    return value;
+  }
+
+  public BigQueryFileFormat getBigQueryFileFormat() {
+    return bigQueryFileFormat;
+  }
+
+  @SuppressWarnings("rawtypes")
+  public Class<? extends FileOutputFormat> getOutputFormatClass() {
+    return outputFormatClass;
+  }
+
+  /**
+   * Converts load file format string value into {@link LoadFileFormat} enum.
+   *
+   * @param stringValue load file format string value
+   * @return load file format in optional container
+   */
+  public static Optional<LoadFileFormat> fromValue(String stringValue) {
+    return Stream.of(values())
+      .filter(format -> format.value.equalsIgnoreCase(stringValue))
+      .findAny();
+  }
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright © 2018 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.gcp.bigquery.sink;
+
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.services.bigquery.Bigquery;
+import com.google.api.services.bigquery.model.ErrorProto;
+import com.google.api.services.bigquery.model.JobConfiguration;
+import com.google.api.services.bigquery.model.JobConfigurationLoad;
+import com.google.api.services.bigquery.model.JobReference;
+import com.google.api.services.bigquery.model.TableReference;
+import com.google.cloud.bigquery.BigQuery;
+import com.google.cloud.bigquery.BigQueryException;
+import com.google.cloud.bigquery.Job;
+import com.google.cloud.bigquery.JobInfo;
+import com.google.cloud.bigquery.LoadJobConfiguration;
+import com.google.cloud.bigquery.TableId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+
+/**
+ * Runs BigQuery load jobs concurrently, with at most a fixed number of jobs running at the same time.
+ * Every job is submitted by its own worker thread, which waits for the job to complete before it picks up the next
+ * one, so the cap applies to the jobs running in BigQuery and not only to their submission.
+ */
+final class LoadJobRunner {
+  private static final Logger LOG = LoggerFactory.getLogger(LoadJobRunner.class);
+  static final String USE_AVRO_LOGICAL_TYPES = "useAvroLogicalTypes";
+  private static final String AVRO_FORMAT = "AVRO";
+  private static final String DONE_STATE = "DONE";
+  private static final String LOCATION = "location";
+  private static final long MIN_POLL_DELAY_MILLIS = 500L;
+  private static final long MAX_POLL_DELAY_MILLIS = 10000L;
+
+  private LoadJobRunner() {
+  }
+
+  /**
+   * Runs the given load jobs and waits for all of them to complete.
+   *
+   * @param bigquery BigQuery service
+   * @param loads configurations of the load jobs
+   * @param maxConcurrentJobs maximum number of jobs running at the same time
+   * @throws IOException if any of the jobs failed. This is only thrown once all jobs completed.
+   * @throws InterruptedException if interrupted while waiting for the jobs
+   */
+  static void run(BigQuery bigquery, List<LoadJobConfiguration> loads,
+                  int maxConcurrentJobs) throws IOException, InterruptedException {
+    List<Callable<String>> jobs = new ArrayList<>();
+    for (LoadJobConfiguration load : loads) {
+      jobs.add(() -> runJob(bigquery, load));
+    }
+    runAll(jobs, maxConcurrentJobs);
+  }
+
+  /**
+   * Runs the given Avro load jobs through the BigQuery API client and waits for all of them to complete.
+   * The load job configuration of the cloud client library can not enable Avro logical types, which is why
+   * Avro files are loaded with this method.
+   *
+   * @param bigquery BigQuery API client
+   * @param projectId project to run the jobs in
+   * @param loads configurations of the load jobs, see {@link #getAvroLoad(TableReference, String)}
+   * @param maxConcurrentJobs maximum number of jobs running at the same time
+   * @throws IOException if any of the jobs failed. This is only thrown once all jobs completed.
+   * @throws InterruptedException if interrupted while waiting for the jobs
+   */
+  static void runAvro(Bigquery bigquery, String projectId, List<JobConfigurationLoad> loads,
+                      int maxConcurrentJobs) throws IOException, InterruptedException {
+    List<Callable<String>> jobs = new ArrayList<>();
+    for (JobConfigurationLoad load : loads) {
+      jobs.add(() -> runAvroJob(bigquery, projectId, load));
+    }
+    runAll(jobs, maxConcurrentJobs);
+  }
+
+  /**
+   * Gets the configuration of a job that appends Avro files to a table. Date, time and timestamp fields are loaded
+   * as DATE, TIME and TIMESTAMP columns, instead of the INTEGER columns of their underlying Avro types.
+   * The table is created from the Avro schema if it does not exist.
+   *
+   * @param table table to load into
+   * @param sourceUri uri of the files to load
+   * @return load job configuration
+   */
+  static JobConfigurationLoad getAvroLoad(TableReference table, String sourceUri) {
+    JobConfigurationLoad load = new JobConfigurationLoad()
+      .setDestinationTable(table)
+      .setSourceUris(Collections.singletonList(sourceUri))
+      .setSourceFormat(AVRO_FORMAT)
+      .setCreateDisposition(JobInfo.CreateDisposition.CREATE_IF_NEEDED.name())
+      .setWriteDisposition(JobInfo.WriteDisposition.WRITE_APPEND.name());
+    // set as a generic property, older revisions of the API model do not have a setter for it
+    load.set(USE_AVRO_LOGICAL_TYPES, true);
+    return load;
+  }
+
+  private static void runAll(List<Callable<String>> jobs, int maxConcurrentJobs)
+    throws IOException, InterruptedException {
+    if (jobs.isEmpty()) {
+      return;
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(Math.min(maxConcurrentJobs, jobs.size()));
+    try {
+      List<Future<String>> results = new ArrayList<>();
+      for (Callable<String> job : jobs) {
+        results.add(executor.submit(job));
+      }
+
+      List<String> errors = new ArrayList<>();
+      for (Future<String> result : results) {
+        try {
+          String error = result.get();
+          if (error != null) {
+            errors.add(error);
+          }
+        } catch (ExecutionException e) {
+          errors.add(String.valueOf(e.getCause().getMessage()));
+        }
+      }
+      if (!errors.isEmpty()) {
+        throw new IOException(String.format("%d of %d load jobs failed: %s", errors.size(), jobs.size(), errors));
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Runs a single load job.
+   *
+   * @return the error of the job, or null if it succeeded
+   */
+  @Nullable
+  private static String runJob(BigQuery bigquery, LoadJobConfiguration load) throws InterruptedException {
+    TableId table = load.getDestinationTable();
+    Job job;
+    try {
+      job = bigquery.create(JobInfo.of(load)).waitFor();
+    } catch (BigQueryException e) {
+      return String.format("Table '%s': %s", table.getTable(), e.getMessage());
+    }
+    if (job == null) {
+      return String.format("Table '%s': load job no longer exists.", table.getTable());
+    }
+    if (job.getStatus().getError() != null) {
+      return String.format("Table '%s': %s", table.getTable(), job.getStatus().getError());
+    }
+    LOG.debug("Loaded {} into table '{}.{}'.", load.getSourceUris(), table.getDataset(), table.getTable());
+    return null;
+  }
+
+  /**
+   * Runs a single Avro load job through the BigQuery API client.
+   *
+   * @return the error of the job, or null if it succeeded
+   */
+  @Nullable
+  private static String runAvroJob(Bigquery bigquery, String projectId,
+                                   JobConfigurationLoad load) throws IOException, InterruptedException {
+    TableReference table = load.getDestinationTable();
+    JobReference reference = new JobReference()
+      .setProjectId(projectId)
+      .setJobId(String.format("cdap_load_%s", UUID.randomUUID().toString().replace("-", "")));
+    com.google.api.services.bigquery.model.Job job = new com.google.api.services.bigquery.model.Job()
+      .setJobReference(reference)
+      .setConfiguration(new JobConfiguration().setLoad(load));
+    try {
+      job = bigquery.jobs().insert(projectId, job).execute();
+      // jobs outside of the US and EU can only be looked up with their location
+      Object location = job.getJobReference().get(LOCATION);
+      long delay = MIN_POLL_DELAY_MILLIS;
+      while (job.getStatus() == null || !DONE_STATE.equals(job.getStatus().getState())) {
+        TimeUnit.MILLISECONDS.sleep(delay);
+        delay = Math.min(delay * 2, MAX_POLL_DELAY_MILLIS);
+        Bigquery.Jobs.Get get = bigquery.jobs().get(projectId, reference.getJobId());
+        if (location != null) {
+          get.set(LOCATION, location);
+        }
+        job = get.execute();
+      }
+    } catch (GoogleJsonResponseException e) {
+      return String.format("Table '%s': %s", table.getTableId(), e.getMessage());
+    }
+    ErrorProto error = job.getStatus().getErrorResult();
+    if (error != null) {
+      return String.format("Table '%s': %s", table.getTableId(), error.getMessage());
+    }
+    LOG.debug("Loaded {} into table '{}.{}'.", load.getSourceUris(), table.getDatasetId(), table.getTableId());
+    return null;
+  }
+}
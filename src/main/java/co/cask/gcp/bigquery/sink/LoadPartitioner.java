@@ -0,0 +1,109 @@
+/*
+ * Copyright © 2018 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.gcp.bigquery.sink;
+
+import co.cask.cdap.api.data.format.StructuredRecord;
+import co.cask.cdap.api.data.schema.Schema;
+import co.cask.gcp.bigquery.util.BigQueryUtil;
+
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+
+/**
+ * Assigns records to load groups based on the table partition they belong to. Each load group covers at most
+ * a fixed number of consecutive partitions and is loaded by its own load job, which bounds the number of partitions
+ * any single load job writes to.
+ */
+public final class LoadPartitioner {
+  // group of records whose partition field is null
+  static final String NULL_GROUP = "null";
+  // group of records whose partition field is outside the integer partition ranges
+  static final String UNPARTITIONED_GROUP = "unpartitioned";
+  private static final long MICROS_PER_DAY = TimeUnit.DAYS.toMicros(1);
+  private static final long MILLIS_PER_DAY = TimeUnit.DAYS.toMillis(1);
+
+  private final String field;
+  private final PartitioningType type;
+  private final Schema.LogicalType logicalType;
+  private final long rangeStart;
+  private final long rangeEnd;
+  private final long rangeInterval;
+  private final int partitionsPerLoad;
+
+  private LoadPartitioner(String field, PartitioningType type, @Nullable Schema.LogicalType logicalType,
+                          long rangeStart, long rangeEnd, long rangeInterval, int partitionsPerLoad) {
+    this.field = field;
+    this.type = type;
+    this.logicalType = logicalType;
+    this.rangeStart = rangeStart;
+    this.rangeEnd = rangeEnd;
+    this.rangeInterval = rangeInterval;
+    this.partitionsPerLoad = partitionsPerLoad;
+  }
+
+  /**
+   * Creates the partitioner for the configured table partitioning.
+   *
+   * @param config sink config
+   * @return the partitioner, or null if the table is not partitioned on a column or records are upserted through
+   *         an unpartitioned staging table, in which case a single load job is enough
+   */
+  @Nullable
+  public static LoadPartitioner of(BigQuerySinkConfig config) {
+    PartitioningType type = config.getPartitioningType();
+    String field = config.getPartitionField();
+    if (type == PartitioningType.NONE || field == null || config.getOperation() == Operation.UPSERT) {
+      return null;
+    }
+
+    Schema fieldSchema = BigQueryUtil.getNonNullableSchema(config.getSchema().getField(field).getSchema());
+    if (type == PartitioningType.INTEGER) {
+      return new LoadPartitioner(field, type, null, config.getRangeStart(), config.getRangeEnd(),
+                                 config.getRangeInterval(), config.getPartitionsPerLoad());
+    }
+    return new LoadPartitioner(field, type, fieldSchema.getLogicalType(), 0, 0, 1, config.getPartitionsPerLoad());
+  }
+
+  /**
+   * Gets the load group of a record. Group names are valid path names.
+   *
+   * @param record record to write
+   * @return name of the load group
+   */
+  public String getGroup(StructuredRecord record) {
+    Object value = record.get(field);
+    if (value == null) {
+      return NULL_GROUP;
+    }
+
+    long partition;
+    if (type == PartitioningType.INTEGER) {
+      long number = ((Number) value).longValue();
+      if (number < rangeStart || number >= rangeEnd) {
+        return UNPARTITIONED_GROUP;
+      }
+      partition = (number - rangeStart) / rangeInterval;
+    } else if (logicalType == Schema.LogicalType.DATE) {
+      partition = (Integer) value;
+    } else if (logicalType == Schema.LogicalType.TIMESTAMP_MILLIS) {
+      partition = Math.floorDiv((Long) value, MILLIS_PER_DAY);
+    } else {
+      partition = Math.floorDiv((Long) value, MICROS_PER_DAY);
+    }
+    return "g" + Math.floorDiv(partition, partitionsPerLoad);
+  }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright © 2018 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.gcp.bigquery.sink;
+
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/**
+ * Indicates how the records written by the BigQuery sink are applied to the destination table.
+ */
+public enum Operation {
+
+  /**
+   * Records are appended to the table.
+   */
+  INSERT("insert"),
+
+  /**
+   * Records are written to a staging table and merged into the table on the table key once the run succeeds.
+   * Existing rows with the same key are updated, all other records are inserted.
+   */
+  UPSERT("upsert");
+
+  private final String value;
+
+  Operation(String value) {
+    this.value = value;
+  }
+
+  public String getValue() {
+    return value;
+  }
+
+  /**
+   * Converts operation string value into {@link Operation} enum.
+   *
+   * @param stringValue operation string value
+   * @return operation in optional container
+   */
+  public static Optional<Operation> fromValue(String stringValue) {
+    return Stream.of(values())
+      .filter(operation -> operation.value.equalsIgnoreCase(stringValue))
+      .findAny();
+  }
+}
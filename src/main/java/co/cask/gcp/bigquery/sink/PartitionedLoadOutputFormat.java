@@ -0,0 +1,295 @@
+/*
+ * Copyright © 2018 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.gcp.bigquery.sink;
+
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.mapred.AvroKey;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.OutputCommitter;
+import org.apache.hadoop.mapreduce.OutputFormat;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * An OutputFormat that writes the temporary files of a load into one directory per load group, so that every group
+ * can be loaded into BigQuery by its own load job. The value of each record is the name of its load group, which
+ * is either a range of partitions of a table or a whole table.
+ *
+ * Task attempts write below an attempt directory. Committing a task moves its files into the group directories,
+ * aborting it deletes them, so the group directories only contain the files of successful attempts.
+ *
+ * Every open file holds its own upload buffer, so a task only keeps a limited number of files open. When a record of
+ * another group arrives, the file of the least recently written group is closed, and the next record of that group
+ * starts a new file.
+ */
+public class PartitionedLoadOutputFormat extends OutputFormat<Object, String> {
+  public static final String OUTPUT_PATH = "bigquery.partitioned.output.path";
+  public static final String FILE_FORMAT = "bigquery.partitioned.file.format";
+  public static final String AVRO_SCHEMA = "bigquery.partitioned.avro.schema";
+  public static final String MAX_OPEN_FILES = "bigquery.partitioned.max.open.files";
+  private static final String ATTEMPTS_DIR = "_attempts";
+  private static final int DEFAULT_MAX_OPEN_FILES = 16;
+
+  /**
+   * Get the configuration required to write grouped load files.
+   *
+   * @param outputPath directory that will contain one sub directory per load group
+   * @param fileFormat format of the files
+   * @param avroSchema schema of the Avro files, only required for the Avro format
+   */
+  public static Map<String, String> configure(String outputPath, LoadFileFormat fileFormat,
+                                              @Nullable String avroSchema) {
+    Map<String, String> config = new HashMap<>();
+    config.put(OUTPUT_PATH, outputPath);
+    config.put(FILE_FORMAT, fileFormat.getValue());
+    if (avroSchema != null) {
+      config.put(AVRO_SCHEMA, avroSchema);
+    }
+    return config;
+  }
+
+  /**
+   * Lists the directories of the load groups written by successful task attempts.
+   *
+   * @param fs file system of the output path
+   * @param outputPath output path of the load
+   * @return group directories
+   */
+  public static List<Path> getGroupDirectories(FileSystem fs, Path outputPath) throws IOException {
+    List<Path> groups = new ArrayList<>();
+    if (!fs.exists(outputPath)) {
+      return groups;
+    }
+    for (FileStatus status : fs.listStatus(outputPath)) {
+      if (status.isDirectory() && !ATTEMPTS_DIR.equals(status.getPath().getName())) {
+        groups.add(status.getPath());
+      }
+    }
+    return groups;
+  }
+
+  @Override
+  public RecordWriter<Object, String> getRecordWriter(TaskAttemptContext context) throws IOException {
+    Configuration conf = context.getConfiguration();
+    Path attemptDir = getAttemptDirectory(conf, context.getTaskAttemptID());
+    LoadFileFormat fileFormat = LoadFileFormat.fromValue(conf.get(FILE_FORMAT))
+      .orElseThrow(() -> new IOException("Unsupported file format " + conf.get(FILE_FORMAT) + "."));
+    org.apache.avro.Schema avroSchema = fileFormat == LoadFileFormat.AVRO ?
+      new org.apache.avro.Schema.Parser().parse(conf.get(AVRO_SCHEMA)) : null;
+    return new GroupingRecordWriter(attemptDir.getFileSystem(conf), attemptDir, fileFormat, avroSchema,
+                                    conf.getInt(MAX_OPEN_FILES, DEFAULT_MAX_OPEN_FILES));
+  }
+
+  @Override
+  public void checkOutputSpecs(JobContext context) {
+    //no-op
+  }
+
+  @Override
+  public OutputCommitter getOutputCommitter(TaskAttemptContext context) {
+    return new GroupOutputCommitter();
+  }
+
+  private static Path getAttemptDirectory(Configuration conf, TaskAttemptID taskAttemptID) {
+    return new Path(new Path(conf.get(OUTPUT_PATH), ATTEMPTS_DIR), taskAttemptID.toString());
+  }
+
+  /**
+   * Writes every record to the file of its load group. Files are opened when a record of a group arrives and no file
+   * of the group is open, which closes the least recently written file once the maximum number of files is open.
+   */
+  private static class GroupingRecordWriter extends RecordWriter<Object, String> {
+    private final FileSystem fs;
+    private final Path attemptDir;
+    private final LoadFileFormat fileFormat;
+    private final org.apache.avro.Schema avroSchema;
+    private final int maxOpenFiles;
+    // open writers in the order their groups were last written to
+    private final Map<String, GroupWriter> writers;
+    // number of files written for every group
+    private final Map<String, Integer> files;
+
+    GroupingRecordWriter(FileSystem fs, Path attemptDir, LoadFileFormat fileFormat,
+                         org.apache.avro.Schema avroSchema, int maxOpenFiles) {
+      this.fs = fs;
+      this.attemptDir = attemptDir;
+      this.fileFormat = fileFormat;
+      this.avroSchema = avroSchema;
+      this.maxOpenFiles = maxOpenFiles;
+      this.writers = new LinkedHashMap<>(16, 0.75f, true);
+      this.files = new HashMap<>();
+    }
+
+    @Override
+    public void write(Object record, String group) throws IOException {
+      GroupWriter writer = writers.get(group);
+      if (writer == null) {
+        if (writers.size() >= maxOpenFiles) {
+          Iterator<GroupWriter> eldest = writers.values().iterator();
+          GroupWriter closed = eldest.next();
+          eldest.remove();
+          closed.close();
+        }
+        writer = open(group);
+        writers.put(group, writer);
+      }
+      writer.write(record);
+    }
+
+    @Override
+    public void close(TaskAttemptContext context) throws IOException {
+      IOException failure = null;
+      for (GroupWriter writer : writers.values()) {
+        try {
+          writer.close();
+        } catch (IOException e) {
+          if (failure == null) {
+            failure = e;
+          } else {
+            failure.addSuppressed(e);
+          }
+        }
+      }
+      if (failure != null) {
+        throw failure;
+      }
+    }
+
+    private GroupWriter open(String group) throws IOException {
+      // groups are directories of the attempt directory, and are moved into the output path on commit
+      if (group.isEmpty() || group.equals(".") || group.equals("..") || group.contains("/")
+        || group.contains(":")) {
+        throw new IOException(String.format("Invalid load group '%s'.", group));
+      }
+      Path groupDir = new Path(attemptDir, group);
+      int file = files.merge(group, 1, Integer::sum) - 1;
+      if (fileFormat == LoadFileFormat.AVRO) {
+        DataFileWriter<GenericRecord> writer = new DataFileWriter<>(new GenericDatumWriter<GenericRecord>(avroSchema));
+        writer.setCodec(CodecFactory.snappyCodec());
+        writer.create(avroSchema, fs.create(new Path(groupDir, "part-" + file + ".avro")));
+        return new GroupWriter() {
+          @Override
+          @SuppressWarnings("unchecked")
+          public void write(Object record) throws IOException {
+            writer.append(((AvroKey<GenericRecord>) record).datum());
+          }
+
+          @Override
+          public void close() throws IOException {
+            writer.close();
+          }
+        };
+      }
+
+      Writer writer = new BufferedWriter(new OutputStreamWriter(fs.create(new Path(groupDir, "part-" + file + ".json")),
+                                                                StandardCharsets.UTF_8));
+      return new GroupWriter() {
+        @Override
+        public void write(Object record) throws IOException {
+          writer.write(record.toString());
+          writer.write('\n');
+        }
+
+        @Override
+        public void close() throws IOException {
+          writer.close();
+        }
+      };
+    }
+  }
+
+  /**
+   * Writes the records of one load group.
+   */
+  private interface GroupWriter {
+    void write(Object record) throws IOException;
+
+    void close() throws IOException;
+  }
+
+  /**
+   * Moves the files of a committed task attempt into the group directories and deletes the files of aborted ones.
+   */
+  private static class GroupOutputCommitter extends OutputCommitter {
+
+    @Override
+    public void setupJob(JobContext jobContext) {
+
+    }
+
+    @Override
+    public void setupTask(TaskAttemptContext taskAttemptContext) {
+
+    }
+
+    @Override
+    public boolean needsTaskCommit(TaskAttemptContext taskAttemptContext) throws IOException {
+      Configuration conf = taskAttemptContext.getConfiguration();
+      Path attemptDir = getAttemptDirectory(conf, taskAttemptContext.getTaskAttemptID());
+      return attemptDir.getFileSystem(conf).exists(attemptDir);
+    }
+
+    @Override
+    public void commitTask(TaskAttemptContext taskAttemptContext) throws IOException {
+      Configuration conf = taskAttemptContext.getConfiguration();
+      TaskAttemptID attemptID = taskAttemptContext.getTaskAttemptID();
+      Path attemptDir = getAttemptDirectory(conf, attemptID);
+      Path outputPath = new Path(conf.get(OUTPUT_PATH));
+      FileSystem fs = attemptDir.getFileSystem(conf);
+      for (FileStatus group : fs.listStatus(attemptDir)) {
+        Path groupDir = new Path(outputPath, group.getPath().getName());
+        fs.mkdirs(groupDir);
+        for (FileStatus file : fs.listStatus(group.getPath())) {
+          // name the file after the task so that only one attempt of each task ends up in the group
+          Path target = new Path(groupDir, attemptID.getTaskID().toString() + "-" + file.getPath().getName());
+          if (!fs.rename(file.getPath(), target)) {
+            throw new IOException(String.format("Failed to move '%s' to '%s'.", file.getPath(), target));
+          }
+        }
+      }
+      fs.delete(attemptDir, true);
+    }
+
+    @Override
+    public void abortTask(TaskAttemptContext taskAttemptContext) throws IOException {
+      Configuration conf = taskAttemptContext.getConfiguration();
+      Path attemptDir = getAttemptDirectory(conf, taskAttemptContext.getTaskAttemptID());
+      attemptDir.getFileSystem(conf).delete(attemptDir, true);
+    }
+  }
+}
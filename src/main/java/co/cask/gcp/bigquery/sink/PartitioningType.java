@@ -0,0 +1,63 @@
+/*
+ * Copyright © 2018 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.gcp.bigquery.sink;
+
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/**
+ * Indicates how the destination table is partitioned when the sink creates it.
+ */
+public enum PartitioningType {
+
+  /**
+   * The table is not partitioned.
+   */
+  NONE("none"),
+
+  /**
+   * The table is partitioned by day, either on a date or timestamp column or on ingestion time.
+   */
+  TIME("time"),
+
+  /**
+   * The table is partitioned on ranges of an integer column.
+   */
+  INTEGER("integer");
+
+  private final String value;
+
+  PartitioningType(String value) {
+    this.value = value;
+  }
+
+  public String getValue() {
+    return value;
+  }
+
+  /**
+   * Converts partitioning type string value into {@link PartitioningType} enum.
+   *
+   * @param stringValue partitioning type string value
+   * @return partitioning type in optional container
+   */
+  public static Optional<PartitioningType> fromValue(String stringValue) {
+    return Stream.of(values())
+      .filter(type -> type.value.equalsIgnoreCase(stringValue))
+      .findAny();
+  }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright © 2018 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.gcp.bigquery.sink;
+
+import co.cask.cdap.api.data.format.StructuredRecord;
+import co.cask.cdap.api.data.schema.Schema;
+import org.apache.avro.generic.GenericRecord;
+
+/**
+ * Encodes {@link StructuredRecord StructuredRecords} into Avro {@link GenericRecord GenericRecords} that can be
+ * staged in binary Avro files and loaded into BigQuery.
+ *
+ * Date, time and timestamp fields are written as their internal numeric values together with the matching Avro
+ * logical type, so no text formatting happens on the write path. BigQuery ignores Avro logical types unless the load
+ * job enables them, so these files have to be loaded with {@link LoadJobRunner#getAvroLoad}. Values of narrower
+ * input types are widened to the type of the output schema.
+ */
+public class StructuredToAvroEncoder {
+  private final Schema schema;
+  private final org.apache.avro.Schema avroSchema;
+  private BigQueryRecordEncoder encoder;
+
+  public StructuredToAvroEncoder(Schema schema) {
+    this.schema = schema;
+    this.avroSchema = getAvroSchema(schema);
+  }
+
+  /**
+   * Converts a CDAP schema to an Avro schema. CDAP schemas serialize to Avro compatible json, including the
+   * logical type attributes BigQuery uses to map Avro types to DATE, TIME and TIMESTAMP columns when a load job
+   * reads Avro logical types.
+   *
+   * @param schema CDAP record schema
+   * @return equivalent Avro schema
+   */
+  public static org.apache.avro.Schema getAvroSchema(Schema schema) {
+    return new org.apache.avro.Schema.Parser().parse(schema.toString());
+  }
+
+  public org.apache.avro.Schema getAvroSchema() {
+    return avroSchema;
+  }
+
+  /**
+   * Encodes the fields of the input record that are present in the output schema.
+   *
+   * @param input input record
+   * @return Avro record with the output schema
+   */
+  public GenericRecord encode(StructuredRecord input) {
+    Schema inputSchema = input.getSchema();
+    if (encoder == null || !encoder.isCompiledFor(inputSchema)) {
+      encoder = BigQueryRecordEncoder.compile(inputSchema, schema, avroSchema);
+    }
+    return encoder.toAvro(input);
+  }
+}
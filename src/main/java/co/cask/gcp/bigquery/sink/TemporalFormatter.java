@@ -0,0 +1,145 @@
+/*
+ * Copyright © 2018 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.gcp.bigquery.sink;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Formats the internal values of date, time and timestamp fields into the text BigQuery expects, writing the
+ * digits directly into a reusable char buffer. Apart from the resulting string no objects are allocated.
+ *
+ * Dates are formatted as yyyy-MM-dd, times as HH:mm:ss.SSSSSS and timestamps as yyyy-MM-dd HH:mm:ss.SSSSSS in UTC.
+ * Values with a year outside 0000-9999 are outside BigQuery's range and fall back to java.time formatting, so
+ * that BigQuery reports them instead of silently loading a wrong value.
+ *
+ * Instances are not thread safe.
+ */
+public final class TemporalFormatter {
+  private static final DateTimeFormatter dtf = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSSSSS");
+  private static final long MICROS_PER_SECOND = 1000000L;
+  private static final long MICROS_PER_DAY = 86400L * MICROS_PER_SECOND;
+  // days from 0000-03-01 to 1970-01-01
+  private static final long DAYS_0000_TO_1970 = 719468L;
+  private static final long DAYS_PER_400_YEARS = 146097L;
+
+  // large enough for yyyy-MM-dd HH:mm:ss.SSSSSS
+  private final char[] buffer = new char[26];
+
+  /**
+   * Formats days since epoch as yyyy-MM-dd.
+   */
+  public String formatDate(int epochDay) {
+    int pos = writeDate(epochDay, 0);
+    if (pos < 0) {
+      return LocalDate.ofEpochDay(epochDay).toString();
+    }
+    return new String(buffer, 0, pos);
+  }
+
+  /**
+   * Formats milliseconds since midnight as HH:mm:ss.SSSSSS.
+   */
+  public String formatTimeMillis(int millisOfDay) {
+    return formatTimeMicros(TimeUnit.MILLISECONDS.toMicros(millisOfDay));
+  }
+
+  /**
+   * Formats microseconds since midnight as HH:mm:ss.SSSSSS.
+   */
+  public String formatTimeMicros(long microsOfDay) {
+    int pos = writeTime(microsOfDay, 0);
+    return new String(buffer, 0, pos);
+  }
+
+  /**
+   * Formats milliseconds since epoch as yyyy-MM-dd HH:mm:ss.SSSSSS in UTC.
+   */
+  public String formatTimestampMillis(long epochMillis) {
+    return formatTimestampMicros(Math.multiplyExact(epochMillis, 1000L));
+  }
+
+  /**
+   * Formats microseconds since epoch as yyyy-MM-dd HH:mm:ss.SSSSSS in UTC.
+   */
+  public String formatTimestampMicros(long epochMicros) {
+    long epochDay = Math.floorDiv(epochMicros, MICROS_PER_DAY);
+    long microsOfDay = Math.floorMod(epochMicros, MICROS_PER_DAY);
+    int pos = writeDate(epochDay, 0);
+    if (pos < 0) {
+      Instant instant = Instant.ofEpochSecond(Math.floorDiv(epochMicros, MICROS_PER_SECOND),
+                                              TimeUnit.MICROSECONDS.toNanos(Math.floorMod(epochMicros,
+                                                                                          MICROS_PER_SECOND)));
+      return dtf.format(instant.atZone(ZoneOffset.UTC));
+    }
+    buffer[pos++] = ' ';
+    pos = writeTime(microsOfDay, pos);
+    return new String(buffer, 0, pos);
+  }
+
+  /**
+   * Writes the date of the given epoch day, using the days-to-civil algorithm on the proleptic Gregorian calendar.
+   *
+   * @return position after the date, or -1 if the year is not in 0000-9999
+   */
+  private int writeDate(long epochDay, int pos) {
+    long shifted = epochDay + DAYS_0000_TO_1970;
+    long era = Math.floorDiv(shifted, DAYS_PER_400_YEARS);
+    long dayOfEra = shifted - era * DAYS_PER_400_YEARS;
+    long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+    long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+    // month starting from March
+    long shiftedMonth = (5 * dayOfYear + 2) / 153;
+    int day = (int) (dayOfYear - (153 * shiftedMonth + 2) / 5 + 1);
+    int month = (int) (shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9);
+    long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+    if (year < 0 || year > 9999) {
+      return -1;
+    }
+
+    pos = writeDigits((int) year, 4, pos);
+    buffer[pos++] = '-';
+    pos = writeDigits(month, 2, pos);
+    buffer[pos++] = '-';
+    return writeDigits(day, 2, pos);
+  }
+
+  private int writeTime(long microsOfDay, int pos) {
+    int secondOfDay = (int) (microsOfDay / MICROS_PER_SECOND);
+    pos = writeDigits(secondOfDay / 3600, 2, pos);
+    buffer[pos++] = ':';
+    pos = writeDigits(secondOfDay / 60 % 60, 2, pos);
+    buffer[pos++] = ':';
+    pos = writeDigits(secondOfDay % 60, 2, pos);
+    buffer[pos++] = '.';
+    return writeDigits((int) (microsOfDay % MICROS_PER_SECOND), 6, pos);
+  }
+
+  /**
+   * Writes a non-negative value as a zero padded number with the given number of digits.
+   */
+  private int writeDigits(int value, int digits, int pos) {
+    for (int i = pos + digits - 1; i >= pos; i--) {
+      buffer[i] = (char) ('0' + value % 10);
+      value /= 10;
+    }
+    return pos + digits;
+  }
+}
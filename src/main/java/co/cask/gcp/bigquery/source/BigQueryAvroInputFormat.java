@@ -0,0 +1,93 @@
+/*
+ * Copyright © 2018 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.gcp.bigquery.source;
+
+import co.cask.cdap.api.data.format.StructuredRecord;
+import co.cask.cdap.api.data.schema.Schema;
+import com.google.cloud.hadoop.io.bigquery.AvroBigQueryInputFormat;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.mapreduce.InputFormat;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Input format that exports a BigQuery table to Avro files and reads them into StructuredRecords of the output
+ * schema. The export and the splits are handled by {@link AvroBigQueryInputFormat}, the files are decoded by
+ * {@link BigQueryAvroRecordReader}. Sharded exports are read by the reader of the connector, which follows the
+ * files of its shard as they are written.
+ */
+public class BigQueryAvroInputFormat extends InputFormat<LongWritable, StructuredRecord> {
+  public static final String OUTPUT_SCHEMA = "bigquery.avro.output.schema";
+  // number of map tasks, which the connector uses as the number of shards of sharded exports
+  private static final String NUM_MAPS = "mapreduce.job.maps";
+  private static final String DEPRECATED_NUM_MAPS = "mapred.map.tasks";
+
+  private final AvroBigQueryInputFormat delegate = new AvroBigQueryInputFormat();
+
+  /**
+   * Get the configuration required to read exported files into records of the given schema.
+   *
+   * @param outputSchema schema of the records
+   */
+  public static Map<String, String> configure(Schema outputSchema) {
+    Map<String, String> config = new HashMap<>();
+    config.put(OUTPUT_SCHEMA, outputSchema.toString());
+    return config;
+  }
+
+  /**
+   * Get the configuration required to export a table in shards, with one split for every split size of table data.
+   * The files of every shard are read while the export is still writing them.
+   *
+   * @param outputSchema schema of the records
+   * @param tableBytes size of the exported table in bytes
+   * @param splitSizeBytes target size of the data read by one split in bytes
+   */
+  public static Map<String, String> configureSharded(Schema outputSchema, long tableBytes, long splitSizeBytes) {
+    Map<String, String> config = configure(outputSchema);
+    String splits = String.valueOf(getSplitCount(tableBytes, splitSizeBytes));
+    config.put(NUM_MAPS, splits);
+    config.put(DEPRECATED_NUM_MAPS, splits);
+    return config;
+  }
+
+  /**
+   * @return number of splits needed to read the given number of bytes with the given split size, at least 1
+   */
+  static int getSplitCount(long tableBytes, long splitSizeBytes) {
+    long splits = (tableBytes + splitSizeBytes - 1) / splitSizeBytes;
+    return (int) Math.max(1L, Math.min(Integer.MAX_VALUE, splits));
+  }
+
+  @Override
+  public List<InputSplit> getSplits(JobContext jobContext) throws IOException, InterruptedException {
+    return delegate.getSplits(jobContext);
+  }
+
+  @Override
+  public RecordReader<LongWritable, StructuredRecord> createRecordReader(InputSplit inputSplit,
+                                                                         TaskAttemptContext taskAttemptContext) {
+    return new BigQueryAvroRecordReader(delegate);
+  }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright © 2018 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.gcp.bigquery.source;
+
+import co.cask.cdap.api.data.format.StructuredRecord;
+import co.cask.cdap.api.data.schema.Schema;
+import com.google.cloud.hadoop.io.bigquery.AvroBigQueryInputFormat;
+import org.apache.avro.file.DataFileReader;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.mapred.FsInput;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+
+import java.io.IOException;
+
+/**
+ * Reads the records of an exported Avro file split into StructuredRecords. Files are decoded directly by a
+ * {@link StructuredRecordDatumReader}. Splits that are not plain file splits, such as the ones of sharded exports,
+ * are read by the record reader of the {@link AvroBigQueryInputFormat} and converted afterwards.
+ */
+public class BigQueryAvroRecordReader extends RecordReader<LongWritable, StructuredRecord> {
+  private final AvroBigQueryInputFormat delegateFormat;
+  private final LongWritable key = new LongWritable();
+  private Schema outputSchema;
+  private StructuredRecord current;
+  private long count;
+
+  // only set when reading a file split directly
+  private DataFileReader<StructuredRecord> fileReader;
+  private long start;
+  private long end;
+
+  // only set when reading through the record reader of the export input format
+  private RecordReader<LongWritable, GenericData.Record> delegate;
+  private BigQueryAvroToStructuredTransformer transformer;
+
+  BigQueryAvroRecordReader(AvroBigQueryInputFormat delegateFormat) {
+    this.delegateFormat = delegateFormat;
+  }
+
+  @Override
+  public void initialize(InputSplit inputSplit, TaskAttemptContext taskAttemptContext)
+    throws IOException, InterruptedException {
+    Configuration conf = taskAttemptContext.getConfiguration();
+    outputSchema = Schema.parseJson(conf.get(BigQueryAvroInputFormat.OUTPUT_SCHEMA));
+    if (inputSplit instanceof FileSplit) {
+      FileSplit split = (FileSplit) inputSplit;
+      fileReader = new DataFileReader<>(new FsInput(split.getPath(), conf),
+                                        new StructuredRecordDatumReader(outputSchema));
+      // start at the first block that begins in the split
+      fileReader.sync(split.getStart());
+      start = fileReader.previousSync();
+      end = split.getStart() + split.getLength();
+      return;
+    }
+
+    delegate = delegateFormat.createRecordReader(inputSplit, taskAttemptContext);
+    delegate.initialize(inputSplit, taskAttemptContext);
+    transformer = new BigQueryAvroToStructuredTransformer();
+  }
+
+  @Override
+  public boolean nextKeyValue() throws IOException, InterruptedException {
+    if (fileReader != null) {
+      if (!fileReader.hasNext() || fileReader.pastSync(end)) {
+        return false;
+      }
+      current = fileReader.next(current);
+    } else {
+      if (!delegate.nextKeyValue()) {
+        return false;
+      }
+      current = transformer.transform(delegate.getCurrentValue(), outputSchema);
+    }
+    key.set(count++);
+    return true;
+  }
+
+  @Override
+  public LongWritable getCurrentKey() {
+    return key;
+  }
+
+  @Override
+  public StructuredRecord getCurrentValue() {
+    return current;
+  }
+
+  @Override
+  public float getProgress() throws IOException, InterruptedException {
+    if (fileReader != null) {
+      return end == start ? 1.0f : Math.min(1.0f, (float) (fileReader.tell() - start) / (end - start));
+    }
+    return delegate.getProgress();
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (fileReader != null) {
+      fileReader.close();
+    }
+    if (delegate != null) {
+      delegate.close();
+    }
+  }
+}
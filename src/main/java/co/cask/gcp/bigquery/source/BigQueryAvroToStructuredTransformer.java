@@ -50,12 +50,13 @@ public class BigQueryAvroToStructuredTransformer extends RecordConverter<Generic
       return null;
     }
 
-    // Union schema expected to be nullable schema. Underlying non-nullable type should always be simple type
+    // Union schema expected to be nullable schema. Underlying non-nullable type should be a simple type, an array
+    // of a REPEATED column or a record of a RECORD column
     fieldSchema = fieldSchema.isNullable() ? fieldSchema.getNonNullable() : fieldSchema;
     Schema.Type fieldType = fieldSchema.getType();
 
-    // BigQuery Source only supports simple types, so throw an exception if type is any other than simple type
-    if (!fieldType.isSimpleType()) {
+    // BigQuery Source only supports simple types, arrays and records, so throw an exception for any other type
+    if (!fieldType.isSimpleType() && fieldType != Schema.Type.ARRAY && fieldType != Schema.Type.RECORD) {
       throw new UnexpectedFormatException("Field type " + fieldType + " is not supported.");
     }
 
@@ -83,7 +84,7 @@ public class BigQueryAvroToStructuredTransformer extends RecordConverter<Generic
       throw new IOException("Field type %s has value that is too large." + fieldType);
     }
 
-    // handle only simple types.
+    // arrays and records are converted element by element and field by field through this method
     return super.convertField(field, fieldSchema);
   }
 }
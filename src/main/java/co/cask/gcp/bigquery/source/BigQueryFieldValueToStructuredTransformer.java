@@ -0,0 +1,107 @@
+/*
+ * Copyright © 2018 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.gcp.bigquery.source;
+
+import co.cask.cdap.api.data.format.StructuredRecord;
+import co.cask.cdap.api.data.format.UnexpectedFormatException;
+import co.cask.cdap.api.data.schema.Schema;
+import com.google.cloud.bigquery.FieldValue;
+import com.google.cloud.bigquery.FieldValueList;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+
+/**
+ * Create StructuredRecords from rows read directly from a BigQuery table. Values of these rows are in their
+ * textual BigQuery representation.
+ */
+public class BigQueryFieldValueToStructuredTransformer {
+
+  public StructuredRecord transform(FieldValueList row, Schema structuredSchema) {
+    StructuredRecord.Builder builder = StructuredRecord.builder(structuredSchema);
+    for (Schema.Field field : structuredSchema.getFields()) {
+      String fieldName = field.getName();
+      builder.set(fieldName, convertField(row.get(fieldName), field.getSchema()));
+    }
+    return builder.build();
+  }
+
+  @Nullable
+  private Object convertField(FieldValue value, Schema fieldSchema) {
+    if (value.isNull()) {
+      return null;
+    }
+
+    // Union schema expected to be nullable schema. Underlying non-nullable type should be a simple type, an array
+    // of a REPEATED column or a record of a RECORD column
+    fieldSchema = fieldSchema.isNullable() ? fieldSchema.getNonNullable() : fieldSchema;
+    Schema.Type fieldType = fieldSchema.getType();
+    if (fieldType == Schema.Type.ARRAY) {
+      Schema componentSchema = fieldSchema.getComponentSchema();
+      List<Object> values = new ArrayList<>();
+      for (FieldValue element : value.getRepeatedValue()) {
+        values.add(convertField(element, componentSchema));
+      }
+      return values;
+    }
+    if (fieldType == Schema.Type.RECORD) {
+      // values of RECORD columns are rows of their sub fields
+      return transform(value.getRecordValue(), fieldSchema);
+    }
+
+    Schema.LogicalType logicalType = fieldSchema.getLogicalType();
+    if (logicalType != null) {
+      switch (logicalType) {
+        case DATE:
+          // date will be in yyyy-mm-dd format
+          return Math.toIntExact(LocalDate.parse(value.getStringValue()).toEpochDay());
+        case TIME_MILLIS:
+          // time will be in hh:mm:ss[.ffffff] format
+          return Math.toIntExact(
+            TimeUnit.NANOSECONDS.toMillis(LocalTime.parse(value.getStringValue()).toNanoOfDay()));
+        case TIME_MICROS:
+          return TimeUnit.NANOSECONDS.toMicros(LocalTime.parse(value.getStringValue()).toNanoOfDay());
+        case TIMESTAMP_MILLIS:
+          return TimeUnit.MICROSECONDS.toMillis(value.getTimestampValue());
+        case TIMESTAMP_MICROS:
+          return value.getTimestampValue();
+        default:
+          throw new UnexpectedFormatException("Field type " + fieldType + " is not supported.");
+      }
+    }
+
+    switch (fieldType) {
+      case BOOLEAN:
+        return value.getBooleanValue();
+      case LONG:
+        return value.getLongValue();
+      case DOUBLE:
+        return value.getDoubleValue();
+      case STRING:
+        return value.getStringValue();
+      case BYTES:
+        return value.getBytesValue();
+      default:
+        // BigQuery Source only supports simple types, arrays and records
+        throw new UnexpectedFormatException("Field type " + fieldType + " is not supported.");
+    }
+  }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright © 2018 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.gcp.bigquery.source;
+
+import co.cask.gcp.bigquery.util.BigQueryUtil;
+import com.google.cloud.bigquery.BigQuery;
+import com.google.cloud.bigquery.FieldValueList;
+import com.google.cloud.bigquery.StandardTableDefinition;
+import com.google.cloud.bigquery.Table;
+import com.google.cloud.bigquery.TableId;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.mapreduce.InputFormat;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * Input format that reads a BigQuery table directly through parallel read streams, without exporting it to Google
+ * Cloud Storage first. The table is divided into at most the configured number of streams, and every stream is read
+ * by its own {@link ReadStreamInputSplit}. The key of each row is its position in the table.
+ *
+ * Every stream covers a contiguous range of rows, which is read page by page through the table data API. Streams
+ * list their rows independently, so the table must not change while it is read. The source reads a copy of the
+ * table made for the run.
+ */
+public class BigQueryReadInputFormat extends InputFormat<LongWritable, FieldValueList> {
+  public static final String SERVICE_ACCOUNT_FILE_PATH = "bigquery.read.service.account.file.path";
+  public static final String PROJECT = "bigquery.read.project";
+  public static final String DATASET_PROJECT = "bigquery.read.dataset.project";
+  public static final String DATASET = "bigquery.read.dataset";
+  public static final String TABLE = "bigquery.read.table";
+  public static final String STREAMS = "bigquery.read.streams";
+  private static final Logger LOG = LoggerFactory.getLogger(BigQueryReadInputFormat.class);
+
+  /**
+   * Get the configuration required to read a table directly.
+   *
+   * @param serviceAccountFilePath service account file path
+   * @param project project the read runs in
+   * @param datasetProject project the dataset belongs to
+   * @param dataset dataset of the table
+   * @param table table to read
+   * @param streams maximum number of read streams
+   */
+  public static Map<String, String> configure(@Nullable String serviceAccountFilePath, String project,
+                                              String datasetProject, String dataset, String table, int streams) {
+    Map<String, String> config = new HashMap<>();
+    if (serviceAccountFilePath != null) {
+      config.put(SERVICE_ACCOUNT_FILE_PATH, serviceAccountFilePath);
+    }
+    config.put(PROJECT, project);
+    config.put(DATASET_PROJECT, datasetProject);
+    config.put(DATASET, dataset);
+    config.put(TABLE, table);
+    config.put(STREAMS, String.valueOf(streams));
+    return config;
+  }
+
+  /**
+   * Creates one split per read stream. Rows are spread evenly across the streams, and small tables get fewer
+   * streams so that no stream is empty.
+   */
+  @Override
+  public List<InputSplit> getSplits(JobContext jobContext) throws IOException {
+    Configuration conf = jobContext.getConfiguration();
+    Table table = getBigQuery(conf).getTable(getTableId(conf));
+    if (table == null) {
+      throw new IOException(String.format("BigQuery table '%s.%s' does not exist.", conf.get(DATASET),
+                                          conf.get(TABLE)));
+    }
+    Long numRows = table.<StandardTableDefinition>getDefinition().getNumRows();
+    if (numRows == null) {
+      // the rows would be silently skipped otherwise
+      throw new IOException(String.format("The number of rows of BigQuery table '%s.%s' is unknown.",
+                                          conf.get(DATASET), conf.get(TABLE)));
+    }
+    long rows = numRows;
+    int streams = (int) Math.max(1L, Math.min(conf.getInt(STREAMS, 1), rows));
+
+    List<InputSplit> splits = new ArrayList<>();
+    long start = 0;
+    for (int i = 0; i < streams; i++) {
+      // the first streams get one extra row each if the rows can not be divided evenly
+      long count = rows / streams + (i < rows % streams ? 1 : 0);
+      splits.add(new ReadStreamInputSplit(start, count));
+      start += count;
+    }
+    LOG.debug("Reading {} rows of BigQuery table '{}.{}' with {} streams.", rows, conf.get(DATASET),
+              conf.get(TABLE), splits.size());
+    return splits;
+  }
+
+  @Override
+  public RecordReader<LongWritable, FieldValueList> createRecordReader(InputSplit inputSplit,
+                                                                       TaskAttemptContext taskAttemptContext) {
+    return new BigQueryReadRecordReader();
+  }
+
+  static BigQuery getBigQuery(Configuration conf) throws IOException {
+    return BigQueryUtil.getBigQuery(conf.get(SERVICE_ACCOUNT_FILE_PATH), conf.get(PROJECT));
+  }
+
+  static TableId getTableId(Configuration conf) {
+    return TableId.of(conf.get(DATASET_PROJECT), conf.get(DATASET), conf.get(TABLE));
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright © 2018 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.gcp.bigquery.source;
+
+import com.google.cloud.bigquery.BigQuery;
+import com.google.cloud.bigquery.BigQueryException;
+import com.google.cloud.bigquery.FieldValueList;
+import com.google.cloud.bigquery.Table;
+import com.google.cloud.bigquery.TableId;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * Reads the rows of a single read stream of a BigQuery table. Pages of rows are fetched as the rows are consumed.
+ */
+public class BigQueryReadRecordReader extends RecordReader<LongWritable, FieldValueList> {
+  private static final long MAX_PAGE_SIZE = 10000L;
+
+  private final LongWritable key = new LongWritable();
+  private Iterator<FieldValueList> rows;
+  private FieldValueList current;
+  private long startRow;
+  private long rowCount;
+  private long rowsRead;
+
+  @Override
+  public void initialize(InputSplit inputSplit, TaskAttemptContext taskAttemptContext) throws IOException {
+    ReadStreamInputSplit split = (ReadStreamInputSplit) inputSplit;
+    startRow = split.getStartRow();
+    rowCount = split.getRowCount();
+    if (rowCount == 0) {
+      return;
+    }
+
+    Configuration conf = taskAttemptContext.getConfiguration();
+    TableId tableId = BigQueryReadInputFormat.getTableId(conf);
+    try {
+      BigQuery bigquery = BigQueryReadInputFormat.getBigQuery(conf);
+      Table table = bigquery.getTable(tableId);
+      if (table == null) {
+        throw new IOException(String.format("BigQuery table '%s.%s' does not exist.", tableId.getDataset(),
+                                            tableId.getTable()));
+      }
+      rows = bigquery.listTableData(tableId, table.getDefinition().getSchema(),
+                                    BigQuery.TableDataListOption.startIndex(startRow),
+                                    BigQuery.TableDataListOption.pageSize(Math.min(rowCount, MAX_PAGE_SIZE)))
+        .iterateAll().iterator();
+    } catch (BigQueryException e) {
+      throw new IOException(String.format("Failed to read rows %d to %d of BigQuery table '%s.%s'.", startRow,
+                                          startRow + rowCount, tableId.getDataset(), tableId.getTable()), e);
+    }
+  }
+
+  @Override
+  public boolean nextKeyValue() {
+    // the rows are listed until the end of the table, so stop at the end of the stream
+    if (rows == null || rowsRead >= rowCount || !rows.hasNext()) {
+      return false;
+    }
+    current = rows.next();
+    key.set(startRow + rowsRead);
+    rowsRead++;
+    return true;
+  }
+
+  @Override
+  public LongWritable getCurrentKey() {
+    return key;
+  }
+
+  @Override
+  public FieldValueList getCurrentValue() {
+    return current;
+  }
+
+  @Override
+  public float getProgress() {
+    return rowCount == 0 ? 1.0f : (float) rowsRead / rowCount;
+  }
+
+  @Override
+  public void close() {
+    rows = null;
+  }
+}
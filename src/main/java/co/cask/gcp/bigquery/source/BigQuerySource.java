@@ -19,29 +19,44 @@ package co.cask.gcp.bigquery.source;
 import co.cask.cdap.api.annotation.Description;
 import co.cask.cdap.api.annotation.Name;
 import co.cask.cdap.api.annotation.Plugin;
+import co.cask.cdap.api.common.Bytes;
 import co.cask.cdap.api.data.batch.Input;
 import co.cask.cdap.api.data.batch.InputFormatProvider;
 import co.cask.cdap.api.data.format.StructuredRecord;
 import co.cask.cdap.api.data.schema.Schema;
 import co.cask.cdap.api.data.schema.UnsupportedTypeException;
+import co.cask.cdap.api.dataset.DatasetProperties;
 import co.cask.cdap.api.dataset.lib.KeyValue;
+import co.cask.cdap.api.dataset.lib.KeyValueTable;
 import co.cask.cdap.etl.api.Emitter;
 import co.cask.cdap.etl.api.PipelineConfigurer;
 import co.cask.cdap.etl.api.batch.BatchRuntimeContext;
 import co.cask.cdap.etl.api.batch.BatchSource;
 import co.cask.cdap.etl.api.batch.BatchSourceContext;
 import co.cask.gcp.bigquery.util.BigQueryUtil;
+import co.cask.gcp.gcs.StorageClient;
 import co.cask.hydrator.common.LineageRecorder;
+import com.google.cloud.bigquery.BigQuery;
+import com.google.cloud.bigquery.BigQueryException;
+import com.google.cloud.bigquery.CopyJobConfiguration;
 import com.google.cloud.bigquery.Field;
 import com.google.cloud.bigquery.FieldList;
+import com.google.cloud.bigquery.FieldValue;
+import com.google.cloud.bigquery.FieldValueList;
+import com.google.cloud.bigquery.JobConfiguration;
+import com.google.cloud.bigquery.JobInfo;
 import com.google.cloud.bigquery.LegacySQLTypeName;
+import com.google.cloud.bigquery.QueryJobConfiguration;
 import com.google.cloud.bigquery.StandardSQLTypeName;
+import com.google.cloud.bigquery.StandardTableDefinition;
 import com.google.cloud.bigquery.Table;
+import com.google.cloud.bigquery.TableDefinition;
+import com.google.cloud.bigquery.TableId;
 import com.google.cloud.hadoop.io.bigquery.AvroBigQueryInputFormat;
 import com.google.cloud.hadoop.io.bigquery.BigQueryConfiguration;
-import org.apache.avro.generic.GenericData;
+import com.google.cloud.storage.StorageException;
+import com.google.common.hash.Hashing;
 import org.apache.hadoop.conf.Configuration;
-import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Job;
@@ -49,12 +64,14 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 import java.util.stream.Collectors;
+import javax.annotation.Nullable;
 import javax.ws.rs.Path;
 
 /**
@@ -64,15 +81,34 @@ import javax.ws.rs.Path;
 @Name(BigQuerySource.NAME)
 @Description("This source reads the entire contents of a BigQuery table. "
   + "BigQuery is Google's serverless, highly scalable, enterprise data warehouse."
-  + "Data is first written to a temporary location on Google Cloud Storage, then read into the pipeline from there.")
-public final class BigQuerySource extends BatchSource<LongWritable, GenericData.Record, StructuredRecord> {
+  + "Data is either first written to a temporary location on Google Cloud Storage, then read into the pipeline "
+  + "from there, or read directly from the table.")
+public final class BigQuerySource extends BatchSource<LongWritable, Object, StructuredRecord> {
   private static final Logger LOG = LoggerFactory.getLogger(BigQuerySource.class);
   public static final String NAME = "BigQueryTable";
+  // Dataset storing the watermark of every incrementally read source, keyed by the source and what it reads.
+  private static final String WATERMARK_DATASET = "bigquery_watermarks";
   private BigQuerySourceConfig config;
   private Schema outputSchema;
   private Configuration configuration;
-  private final BigQueryAvroToStructuredTransformer transformer = new BigQueryAvroToStructuredTransformer();
-  // UUID for the run. Will be used as bucket name if bucket is not provided.
+  private final BigQueryFieldValueToStructuredTransformer rowTransformer =
+    new BigQueryFieldValueToStructuredTransformer();
+  // Table the selected rows come from. This is the cache table of the query if a query is read.
+  private String sourceTable;
+  // Table the rows are read from. This is the temporary table of the run if it has one.
+  private TableId readTable;
+  // Temporary table of the run, holding the rows matching the filter, or a copy of the table for direct reads.
+  // Only set if the rows are filtered or read directly.
+  private TableId temporaryTable;
+  // Predicate the rows read must match, combining the configured filter and the watermark range.
+  private String filter;
+  // Highest watermark column value read by this run. Only set for incremental reads of non empty ranges.
+  private Long newWatermark;
+  // Key of the watermark of this source. Only set for incremental reads.
+  private byte[] watermarkKey;
+  // Shared staging bucket the temporary files are written to. Only set when no bucket is configured.
+  private String stagingBucket;
+  // UUID for the run. Will be used as prefix of the temporary files in the bucket.
   private UUID uuid;
 
   @Override
@@ -87,28 +123,90 @@ public final class BigQuerySource extends BatchSource<LongWritable, GenericData.
 
   @Override
   public void prepareRun(BatchSourceContext context) throws Exception {
-    validateOutputSchema();
+    sourceTable = config.getTable();
+    if (config.getQuery() != null) {
+      BigQuery bigquery = BigQueryUtil.getBigQuery(config.getServiceAccountFilePath(), config.getProject());
+      sourceTable = new QueryResultCache(bigquery, config.getDatasetProject(), config.getDataset(),
+                                         config.getQueryCacheHours()).getResultTable(config.getQuery());
+      // the query may just have written the table, so its cached metadata is outdated
+      BigQueryUtil.invalidateBigQueryTable(config.getDatasetProject(), config.getDataset(), sourceTable);
+    }
+    com.google.cloud.bigquery.Schema tableSchema = validateOutputSchema();
 
     uuid = UUID.randomUUID();
+    filter = config.getFilter();
+    if (config.getWatermarkColumn() != null) {
+      filter = getIncrementalFilter(context, tableSchema);
+    }
+    readTable = TableId.of(config.getDatasetProject(), config.getDataset(), sourceTable);
+    boolean direct = config.getReadMethod() == ReadMethod.DIRECT;
+    if (filter != null) {
+      // only the matching rows are moved, instead of the whole table. Columns that are not in the schema are
+      // dropped when the rows are decoded, so reading all columns of a table never needs a query.
+      temporaryTable = getTemporaryTable();
+      selectRows();
+    } else if (direct) {
+      // every stream lists its own range of rows, so all streams read a copy of the table, which does not change
+      // while it is read. Copies are free and do not read the table data.
+      StandardTableDefinition definition = getTableDefinition(readTable);
+      if (definition == null || definition.getNumRows() == null || definition.getStreamingBuffer() != null) {
+        // rows in the streaming buffer are neither copied nor counted, so the table is exported instead
+        LOG.debug("Exporting BigQuery table '{}.{}' instead of reading it directly, since its rows are not all "
+                    + "stored yet.", config.getDataset(), sourceTable);
+        direct = false;
+      } else {
+        temporaryTable = getTemporaryTable();
+        copyTable();
+      }
+    }
+    if (temporaryTable != null) {
+      BigQueryUtil.invalidateBigQueryTable(temporaryTable.getProject(), temporaryTable.getDataset(),
+                                           temporaryTable.getTable());
+      readTable = temporaryTable;
+    }
     configuration = BigQueryUtil.getBigQueryConfig(config.getServiceAccountFilePath(), config.getProject());
 
+    if (direct) {
+      for (Map.Entry<String, String> entry : BigQueryReadInputFormat.configure(
+        config.getServiceAccountFilePath(), config.getProject(), readTable.getProject(), readTable.getDataset(),
+        readTable.getTable(), config.getReadStreams()).entrySet()) {
+        configuration.set(entry.getKey(), entry.getValue());
+      }
+      emitLineage(context);
+      setInputFormat(context, BigQueryReadInputFormat.class.getName());
+      return;
+    }
+
     String bucket = config.getBucket();
     if (bucket == null) {
-      bucket = uuid.toString();
-      // By default, this option is false, meaning the job can not delete the bucket. So enable it only when bucket name
-      // is not provided.
-      configuration.setBoolean("fs.gs.bucket.delete.enable", true);
+      // runs without a bucket share a staging bucket, so buckets are not created and deleted by every run
+      stagingBucket = BigQueryUtil.getStagingBucket(config.getProject(), config.getServiceAccountFilePath());
+      bucket = stagingBucket;
     }
 
     configuration.set("fs.gs.system.bucket", bucket);
     configuration.setBoolean("fs.gs.impl.disable.cache", true);
     configuration.setBoolean("fs.gs.metadata.cache.enable", false);
 
-    String temporaryGcsPath = String.format("gs://%s/hadoop/input/%s", bucket, uuid);
+    String temporaryGcsPath = String.format("gs://%s/%s", bucket, getTemporaryPrefix());
     AvroBigQueryInputFormat.setTemporaryCloudStorageDirectory(configuration, temporaryGcsPath);
-    AvroBigQueryInputFormat.setEnableShardedExport(configuration, false);
-    BigQueryConfiguration.configureBigQueryInput(configuration, config.getDatasetProject(),
-                                                 config.getDataset(), config.getTable());
+    AvroBigQueryInputFormat.setEnableShardedExport(configuration, config.isShardedExport());
+    BigQueryConfiguration.configureBigQueryInput(configuration, readTable.getProject(), readTable.getDataset(),
+                                                 readTable.getTable());
+    Map<String, String> inputProperties;
+    if (config.isShardedExport()) {
+      // one split for every split size of table data, so that large tables are read by more mappers
+      long tableBytes = getTableBytes(readTable);
+      inputProperties = BigQueryAvroInputFormat.configureSharded(
+        config.getSchema(), tableBytes, config.getExportSplitSizeMB() * 1024L * 1024L);
+      LOG.debug("Exporting {} bytes of table '{}.{}' in shards of {} MB.", tableBytes, readTable.getDataset(),
+                readTable.getTable(), config.getExportSplitSizeMB());
+    } else {
+      inputProperties = BigQueryAvroInputFormat.configure(config.getSchema());
+    }
+    for (Map.Entry<String, String> entry : inputProperties.entrySet()) {
+      configuration.set(entry.getKey(), entry.getValue());
+    }
 
     Job job = Job.getInstance(configuration);
     job.setOutputKeyClass(LongWritable.class);
@@ -117,7 +215,7 @@ public final class BigQuerySource extends BatchSource<LongWritable, GenericData.
     // Both emitLineage and setOutputFormat internally try to create an external dataset if it does not already exists.
     // We call emitLineage before since it creates the dataset with schema which .
     emitLineage(context);
-    setInputFormat(context);
+    setInputFormat(context, BigQueryAvroInputFormat.class.getName());
   }
 
   @Override
@@ -127,30 +225,238 @@ public final class BigQuerySource extends BatchSource<LongWritable, GenericData.
   }
 
   /**
-   * Converts <code>JsonObject</code> to <code>StructuredRecord</code> for every record
-   * retrieved from the BigQuery table.
+   * Converts <code>FieldValueList</code> of directly read rows to <code>StructuredRecord</code>. Records of exported
+   * files are already decoded into <code>StructuredRecord</code> by the input format. Tables configured to be read
+   * directly are exported if they have rows in their streaming buffer, so both can show up.
    *
    * @param input input record
    * @param emitter emitting the transformed record into downstream nodes.
    */
   @Override
-  public void transform(KeyValue<LongWritable, GenericData.Record> input, Emitter<StructuredRecord> emitter)
+  public void transform(KeyValue<LongWritable, Object> input, Emitter<StructuredRecord> emitter)
     throws Exception {
-    emitter.emit(transformer.transform(input.getValue(), outputSchema));
+    if (input.getValue() instanceof FieldValueList) {
+      emitter.emit(rowTransformer.transform((FieldValueList) input.getValue(), outputSchema));
+      return;
+    }
+    emitter.emit((StructuredRecord) input.getValue());
   }
 
   @Override
   public void onRunFinish(boolean succeeded, BatchSourceContext context) {
-    org.apache.hadoop.fs.Path gcsPath = new org.apache.hadoop.fs.Path(String.format("gs://%s", uuid.toString()));
+    if (succeeded && newWatermark != null) {
+      KeyValueTable watermarks = context.getDataset(WATERMARK_DATASET);
+      watermarks.write(watermarkKey, Bytes.toBytes(newWatermark));
+      LOG.debug("Recorded watermark {} of column '{}'.", newWatermark, config.getWatermarkColumn());
+    }
     try {
-      if (config.getBucket() == null) {
-          FileSystem fs = gcsPath.getFileSystem(configuration);
-          if (fs.exists(gcsPath)) {
-            fs.delete(gcsPath, true);
-          }
+      deleteTemporaryFiles();
+    } finally {
+      if (temporaryTable != null) {
+        deleteTable(temporaryTable);
+      }
+      if (config.getQuery() != null && QueryResultCache.isTemporary(sourceTable)) {
+        // the results of queries that are not cached are only read by this run
+        deleteTable(TableId.of(config.getDatasetProject(), config.getDataset(), sourceTable));
+      }
+    }
+  }
+
+  /**
+   * @return the temporary table of the run, which is in the temporary dataset if one is configured
+   */
+  private TableId getTemporaryTable() {
+    String name = String.format("_%s_read_%s", sourceTable, uuid.toString().replace("-", ""));
+    String temporaryDataset = config.getTemporaryDataset();
+    return temporaryDataset == null ?
+      TableId.of(config.getDatasetProject(), config.getDataset(), name) :
+      TableId.of(config.getProject(), temporaryDataset, name);
+  }
+
+  /**
+   * @return the definition of the given table, or null if it is not a standard table
+   */
+  @Nullable
+  private StandardTableDefinition getTableDefinition(TableId tableId) throws IOException {
+    // the streaming buffer changes all the time, so the table is not taken from the cache
+    Table table = BigQueryUtil.getBigQuery(config.getServiceAccountFilePath(), config.getProject()).getTable(tableId);
+    if (table == null) {
+      throw new IllegalArgumentException(String.format("BigQuery table '%s:%s.%s' does not exist.",
+                                                       tableId.getProject(), tableId.getDataset(),
+                                                       tableId.getTable()));
+    }
+    TableDefinition definition = table.getDefinition();
+    return definition instanceof StandardTableDefinition ? (StandardTableDefinition) definition : null;
+  }
+
+  /**
+   * @return size in bytes of the given table, or 0 if it is unknown
+   */
+  private long getTableBytes(TableId tableId) throws IOException {
+    Table table = BigQueryUtil.getBigQueryTable(config.getServiceAccountFilePath(), tableId.getProject(),
+                                                tableId.getDataset(), tableId.getTable());
+    if (table == null) {
+      throw new IllegalArgumentException(String.format("BigQuery table '%s:%s.%s' does not exist.",
+                                                       tableId.getProject(), tableId.getDataset(),
+                                                       tableId.getTable()));
+    }
+    Long numBytes = table.<StandardTableDefinition>getDefinition().getNumBytes();
+    return numBytes == null ? 0L : numBytes;
+  }
+
+  /**
+   * @return prefix of the temporary files of the run in the bucket
+   */
+  private String getTemporaryPrefix() {
+    return String.format("hadoop/input/%s", uuid);
+  }
+
+  /**
+   * Deletes the exported files of the run from the shared staging bucket. Files that can not be deleted are
+   * eventually deleted by the lifecycle rule of the bucket.
+   */
+  private void deleteTemporaryFiles() {
+    if (stagingBucket != null) {
+      try {
+        StorageClient.create(config.getProject(), config.getServiceAccountFilePath())
+          .deletePrefix(stagingBucket, getTemporaryPrefix());
+      } catch (IOException | StorageException e) {
+        LOG.warn("Failed to delete temporary files gs://{}/{}, {}", stagingBucket, getTemporaryPrefix(),
+                 e.getMessage());
       }
-    } catch (IOException e) {
-      LOG.warn("Failed to delete bucket " + gcsPath.toUri().getPath() + ", " + e.getMessage());
+    }
+  }
+
+  /**
+   * Gets the key of the watermark of this source. The key contains the pipeline and stage, so that sources sharing a
+   * reference name do not share a watermark, and the table or query, column and column type the watermark belongs
+   * to, so that a watermark is never compared with values of another table or column.
+   */
+  private String getWatermarkKey(BatchSourceContext context, Field field) {
+    String source = config.getQuery() == null ?
+      String.format("%s.%s.%s", config.getDatasetProject(), config.getDataset(), config.getTable()) :
+      "query:" + Hashing.sha256().hashString(config.getQuery(), StandardCharsets.UTF_8);
+    return String.join("/", context.getNamespace(), context.getPipelineName(), context.getStageName(), source,
+                       field.getName(), field.getType().name());
+  }
+
+  /**
+   * Gets the predicate of the rows to read incrementally. Rows must lie between the watermark recorded by the last
+   * successful run and the current maximum of the watermark column. The upper bound keeps rows added during this run
+   * for the next run. The new watermark is recorded once this run succeeds.
+   *
+   * @return predicate the rows to read must match, including the configured filter
+   */
+  @Nullable
+  private String getIncrementalFilter(BatchSourceContext context,
+                                      com.google.cloud.bigquery.Schema tableSchema) throws Exception {
+    String column = config.getWatermarkColumn();
+    Field field = tableSchema.getFields().stream().filter(f -> f.getName().equals(column)).findAny()
+      .orElseThrow(() -> new IllegalArgumentException(String.format(
+        "Watermark column '%s' is not present in table '%s.%s'.", column, config.getDataset(), sourceTable)));
+    boolean timestamp = field.getType() == LegacySQLTypeName.TIMESTAMP;
+    if (!timestamp && field.getType() != LegacySQLTypeName.INTEGER) {
+      throw new IllegalArgumentException(String.format("Watermark column '%s' is of unsupported type '%s'. "
+                                                         + "It should be INT64 or TIMESTAMP.", column,
+                                                       field.getType()));
+    }
+
+    if (!context.datasetExists(WATERMARK_DATASET)) {
+      context.createDataset(WATERMARK_DATASET, KeyValueTable.class.getName(), DatasetProperties.EMPTY);
+    }
+    KeyValueTable watermarks = context.getDataset(WATERMARK_DATASET);
+    watermarkKey = Bytes.toBytes(getWatermarkKey(context, field));
+    byte[] previous = watermarks.read(watermarkKey);
+    Long lastWatermark = previous == null ? null : Bytes.toLong(previous);
+
+    String newRowsFilter = combine(config.getFilter(), BigQueryUtil.getRangeCondition(column, timestamp,
+                                                                                      lastWatermark, null));
+    TableId tableId = TableId.of(config.getDatasetProject(), config.getDataset(), sourceTable);
+    String maxStmt = BigQueryUtil.getMaxStatement(tableId, column, timestamp, newRowsFilter);
+    BigQuery bigquery = BigQueryUtil.getBigQuery(config.getServiceAccountFilePath(), config.getProject());
+    FieldValue max = bigquery.query(QueryJobConfiguration.newBuilder(maxStmt).setUseLegacySql(false).build())
+      .iterateAll().iterator().next().get(0);
+    // without new rows, nothing is read and the watermark stays the same
+    newWatermark = max.isNull() ? null : max.getLongValue();
+    Long until = newWatermark == null ? lastWatermark : newWatermark;
+    LOG.debug("Reading rows of table '{}.{}' with '{}' after {} up to {}.", config.getDataset(), sourceTable, column,
+              lastWatermark, until);
+    return combine(config.getFilter(), BigQueryUtil.getRangeCondition(column, timestamp, lastWatermark, until));
+  }
+
+  @Nullable
+  private static String combine(@Nullable String filter, @Nullable String condition) {
+    if (filter == null || condition == null) {
+      return filter == null ? condition : filter;
+    }
+    return String.format("(%s) AND %s", filter, condition);
+  }
+
+  /**
+   * Writes the rows matching the filter, with only the columns of the output schema, to the temporary table.
+   * The table is written to the temporary dataset if one is configured, so that tables in read-only datasets can
+   * be filtered too.
+   */
+  private void selectRows() throws IOException {
+    TableId tableId = TableId.of(config.getDatasetProject(), config.getDataset(), sourceTable);
+    List<String> columns = config.getSchema().getFields().stream()
+      .map(Schema.Field::getName)
+      .collect(Collectors.toList());
+    String selectStmt = BigQueryUtil.getSelectStatement(tableId, columns, filter);
+    LOG.debug("Selecting rows of BigQuery table '{}.{}' into '{}.{}' with statement: {}", config.getDataset(),
+              sourceTable, temporaryTable.getDataset(), temporaryTable.getTable(), selectStmt);
+
+    runJob(QueryJobConfiguration.newBuilder(selectStmt)
+             .setUseLegacySql(false)
+             .setDestinationTable(temporaryTable)
+             .setCreateDisposition(JobInfo.CreateDisposition.CREATE_IF_NEEDED)
+             .setWriteDisposition(JobInfo.WriteDisposition.WRITE_TRUNCATE)
+             .build(), "select rows of");
+  }
+
+  /**
+   * Copies the table to the temporary table, in the temporary dataset if one is configured.
+   */
+  private void copyTable() throws IOException {
+    LOG.debug("Copying BigQuery table '{}.{}' to '{}.{}'.", config.getDataset(), sourceTable,
+              temporaryTable.getDataset(), temporaryTable.getTable());
+    runJob(CopyJobConfiguration.newBuilder(temporaryTable, readTable)
+             .setCreateDisposition(JobInfo.CreateDisposition.CREATE_IF_NEEDED)
+             .setWriteDisposition(JobInfo.WriteDisposition.WRITE_TRUNCATE)
+             .build(), "copy");
+  }
+
+  /**
+   * Runs a job on the table and waits for it to complete.
+   *
+   * @param action description of the job used in error messages
+   */
+  private void runJob(JobConfiguration jobConfig, String action) throws IOException {
+    BigQuery bigquery = BigQueryUtil.getBigQuery(config.getServiceAccountFilePath(), config.getProject());
+    com.google.cloud.bigquery.Job job;
+    try {
+      job = bigquery.create(JobInfo.of(jobConfig)).waitFor();
+    } catch (BigQueryException e) {
+      throw new IOException(String.format("Failed to %s BigQuery table '%s.%s'.", action, config.getDataset(),
+                                          sourceTable), e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException(String.format("Interrupted while trying to %s BigQuery table '%s.%s'.", action,
+                                          config.getDataset(), sourceTable), e);
+    }
+    if (job == null || job.getStatus().getError() != null) {
+      throw new IOException(String.format("Failed to %s BigQuery table '%s.%s': %s", action, config.getDataset(),
+                                          sourceTable, job == null ? "job not found" :
+                                            job.getStatus().getError()));
+    }
+  }
+
+  private void deleteTable(TableId tableId) {
+    try {
+      BigQuery bigquery = BigQueryUtil.getBigQuery(config.getServiceAccountFilePath(), config.getProject());
+      bigquery.delete(tableId);
+    } catch (IOException | BigQueryException e) {
+      LOG.warn("Failed to delete temporary table " + tableId.getTable() + ", " + e.getMessage());
     }
   }
 
@@ -159,7 +465,8 @@ public final class BigQuerySource extends BatchSource<LongWritable, GenericData.
    * CDAP schema. The schemas type support for BigQuery and CDAP are almost the same,
    * hence, the translation is not that complicated.
    *
-   * @param request Received from the UI with the configuration for project, dataset, table and service account file.
+   * @param request Received from the UI with the configuration for project, dataset, table or query and service
+   *                account file.
    * @return Translated schema.
    * @throws Exception
    */
@@ -168,6 +475,17 @@ public final class BigQuerySource extends BatchSource<LongWritable, GenericData.
     String dataset = request.getDataset();
     String tableName = request.getTable();
     String project = request.getDatasetProject();
+    if (request.getQuery() != null) {
+      // a dry run gets the schema of the results without running, and paying for, the query
+      BigQuery bigquery = BigQueryUtil.getBigQuery(request.getServiceAccountFilePath(), request.getProject());
+      com.google.cloud.bigquery.Schema resultSchema =
+        new QueryResultCache(bigquery, project, dataset, request.getQueryCacheHours())
+          .getResultSchema(request.getQuery());
+      if (resultSchema == null) {
+        throw new IllegalArgumentException("Cannot read the query because its results have no schema.");
+      }
+      return Schema.recordOf("output", getSchemaFields(resultSchema.getFields(), null));
+    }
     Table table = BigQueryUtil.getBigQueryTable(request.getServiceAccountFilePath(), project, dataset, tableName);
     if (table == null) {
       // Table does not exist
@@ -180,17 +498,19 @@ public final class BigQuerySource extends BatchSource<LongWritable, GenericData.
       throw new IllegalArgumentException(String.format("Cannot read from table '%s:%s.%s' because it has no schema.",
                                                        project, dataset, table));
     }
-    List<Schema.Field> fields = getSchemaFields(bgSchema);
+    List<Schema.Field> fields = getSchemaFields(bgSchema.getFields(), null);
     return Schema.recordOf("output", fields);
   }
 
   /**
    * Validate output schema. This is needed because its possible that output schema is set without using
    * {@link #getSchema(BigQuerySourceConfig)} method.
+   *
+   * @return schema of the table
    */
-  private void validateOutputSchema() throws IOException {
+  private com.google.cloud.bigquery.Schema validateOutputSchema() throws IOException {
     String dataset = config.getDataset();
-    String tableName = config.getTable();
+    String tableName = sourceTable;
     String project = config.getDatasetProject();
     Table table = BigQueryUtil.getBigQueryTable(config.getServiceAccountFilePath(), project, dataset, tableName);
     if (table == null) {
@@ -215,17 +535,38 @@ public final class BigQuerySource extends BatchSource<LongWritable, GenericData.
     FieldList fields = bgSchema.getFields();
     // Match output schema field type with bigquery column type
     for (Schema.Field field : config.getSchema().getFields()) {
-      validateSimpleTypes(field);
+      validateSupportedType(field.getName(), field.getSchema());
       BigQueryUtil.validateFieldSchemaMatches(fields.get(field.getName()), field, dataset, tableName);
     }
+    return bgSchema;
   }
 
-  private void validateSimpleTypes(Schema.Field field) {
-    String name = field.getName();
-    Schema fieldSchema = BigQueryUtil.getNonNullableSchema(field.getSchema());
+  /**
+   * Validates that the field can be read from BigQuery. Arrays are read from REPEATED columns and records from
+   * RECORD columns, their components and fields are validated recursively.
+   */
+  private void validateSupportedType(String name, Schema schema) {
+    Schema fieldSchema = BigQueryUtil.getNonNullableSchema(schema);
     Schema.Type type = fieldSchema.getType();
 
-    // Complex types like arrays, maps and unions are not supported in BigQuery plugins.
+    if (type == Schema.Type.ARRAY) {
+      Schema componentSchema = BigQueryUtil.getNonNullableSchema(fieldSchema.getComponentSchema());
+      // bigquery does not support arrays of arrays
+      if (componentSchema.getType() == Schema.Type.ARRAY) {
+        throw new IllegalArgumentException(String.format("Field '%s' is an array of arrays, which is not supported.",
+                                                         name));
+      }
+      validateSupportedType(name, componentSchema);
+      return;
+    }
+    if (type == Schema.Type.RECORD) {
+      for (Schema.Field field : fieldSchema.getFields()) {
+        validateSupportedType(name + "." + field.getName(), field.getSchema());
+      }
+      return;
+    }
+
+    // Other complex types like maps and unions are not supported in BigQuery source.
     if (!type.isSimpleType()) {
       throw new IllegalArgumentException(String.format("Field '%s' is of unsupported type '%s'.", name, type));
     }
@@ -243,10 +584,17 @@ public final class BigQuerySource extends BatchSource<LongWritable, GenericData.
     }
   }
 
-  private List<Schema.Field> getSchemaFields(com.google.cloud.bigquery.Schema bgSchema)
+  /**
+   * Translates BigQuery columns into schema fields. RECORD columns become records, named after the path of the
+   * column so that record names are unique, and REPEATED columns become arrays.
+   *
+   * @param bqFields BigQuery columns
+   * @param path path of the record containing the columns, or null for the columns of the table
+   */
+  private List<Schema.Field> getSchemaFields(FieldList bqFields, @Nullable String path)
     throws UnsupportedTypeException {
     List<Schema.Field> fields = new ArrayList<>();
-    for (Field field : bgSchema.getFields()) {
+    for (Field field : bqFields) {
       LegacySQLTypeName type = field.getType();
       Schema schema;
       StandardSQLTypeName value = type.getStandardType();
@@ -268,6 +616,9 @@ public final class BigQuerySource extends BatchSource<LongWritable, GenericData.
         schema = Schema.of(Schema.LogicalType.DATE);
       } else if (value == StandardSQLTypeName.TIMESTAMP) {
         schema = Schema.of(Schema.LogicalType.TIMESTAMP_MICROS);
+      } else if (value == StandardSQLTypeName.STRUCT) {
+        String recordName = path == null ? field.getName() : path + "." + field.getName();
+        schema = Schema.recordOf(recordName, getSchemaFields(field.getSubFields(), recordName));
       } else {
         // this should never happen
         throw new UnsupportedTypeException(String.format("BigQuery column '%s' is of unsupported type '%s'.",
@@ -279,18 +630,18 @@ public final class BigQuerySource extends BatchSource<LongWritable, GenericData.
       } else if (field.getMode() == Field.Mode.REQUIRED) {
         fields.add(Schema.Field.of(field.getName(), schema));
       } else if (field.getMode() == Field.Mode.REPEATED) {
-        throw new UnsupportedTypeException(
-          String.format("BigQuery column '%s' is of unsupported mode 'repeated'.", field.getName()));
+        // repeated columns can not contain nulls, but are empty instead of null
+        fields.add(Schema.Field.of(field.getName(), Schema.arrayOf(schema)));
       }
     }
     return fields;
   }
 
-  private void setInputFormat(BatchSourceContext context) {
+  private void setInputFormat(BatchSourceContext context, String inputFormatClassName) {
     context.setInput(Input.of(config.referenceName, new InputFormatProvider() {
       @Override
       public String getInputFormatClassName() {
-        return AvroBigQueryInputFormat.class.getName();
+        return inputFormatClassName;
       }
 
       @Override
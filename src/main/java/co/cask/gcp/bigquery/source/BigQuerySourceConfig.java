@@ -30,13 +30,20 @@ import javax.annotation.Nullable;
  * Holds configuration required for configuring {@link BigQuerySource}.
  */
 public final class BigQuerySourceConfig extends GCPReferenceSourceConfig {
+  private static final int DEFAULT_READ_STREAMS = 10;
+  private static final int DEFAULT_QUERY_CACHE_HOURS = 24;
+  private static final int DEFAULT_EXPORT_SPLIT_SIZE_MB = 256;
+
   @Macro
   @Description("The dataset the table belongs to. A dataset is contained within a specific project. "
-    + "Datasets are top-level containers that are used to organize and control access to tables and views.")
+    + "Datasets are top-level containers that are used to organize and control access to tables and views. "
+    + "When a query is read, its results are cached in this dataset.")
   private String dataset;
 
   @Macro
-  @Description("The table to read from. A table contains individual records organized in rows. "
+  @Nullable
+  @Description("The table to read from. Required unless a query is given. "
+    + "A table contains individual records organized in rows. "
     + "Each record is composed of columns (also called fields). "
     + "Every table is defined by a schema that describes the column names, data types, and other information.")
   private String table;
@@ -46,7 +53,9 @@ public final class BigQuerySourceConfig extends GCPReferenceSourceConfig {
   @Description("The Google Cloud Storage bucket to store temporary data in. "
     + "It will be automatically created if it does not exist, but will not be automatically deleted. "
     + "Temporary data will be deleted after it has been read. "
-    + "If it is not provided, a unique bucket will be created and then deleted after the run finishes. "
+    + "If it is not provided, the data is stored in a staging bucket shared by all runs of the project, named "
+    + "'bigquery-staging-' followed by a random suffix and labeled 'bigquery-staging', "
+    + "whose objects are deleted after 7 days by a lifecycle rule. "
     + "The service account must have permission to create buckets in the configured project.")
   private String bucket;
 
@@ -61,12 +70,82 @@ public final class BigQuerySourceConfig extends GCPReferenceSourceConfig {
     + "project ID.")
   private String datasetProject;
 
+  @Macro
+  @Nullable
+  @Description("A standard SQL query whose results are read instead of a table. The results are written to a "
+    + "cache table in the dataset, which is reused by later runs as long as the query text and the tables it "
+    + "references are unchanged. Queries calling non-deterministic functions like CURRENT_DATE or RAND, or reading "
+    + "tables with rows in their streaming buffer, are never cached.")
+  private String query;
+
+  @Macro
+  @Nullable
+  @Description("The number of hours after its last use that the cache table of a query is deleted. Defaults to 24.")
+  private Integer queryCacheHours;
+
+  @Macro
+  @Nullable
+  @Description("A standard SQL predicate rows of the table must match to be read, for example "
+    + "'country = \"US\" AND amount > 0'. If it is set, the matching rows are written to a temporary table "
+    + "that is read instead of the table. If it is not set, all rows are read.")
+  private String filter;
+
+  @Macro
+  @Nullable
+  @Description("The dataset the temporary table of filtered or direct reads is written to. It must be in the "
+    + "configured project and in the same location as the table. Set it when the dataset of the table is read-only. "
+    + "Defaults to the dataset of the table.")
+  private String temporaryDataset;
+
+  @Macro
+  @Nullable
+  @Description("An INT64 or TIMESTAMP column used to read the table incrementally. If it is set, every run only "
+    + "reads rows whose value in this column is greater than the highest value read by the last successful run. "
+    + "If it is not set, every run reads all rows.")
+  private String watermarkColumn;
+
+  @Macro
+  @Nullable
+  @Description("How the rows of the table are read. 'export' exports the table to temporary files on Google Cloud "
+    + "Storage and reads them. 'direct' reads the table through parallel read streams without exporting it, so "
+    + "reading starts right away and no temporary files are written. Direct reads read a copy of the table made "
+    + "when the run starts. Tables with rows in their streaming buffer are exported instead. Defaults to 'export'.")
+  private String readMethod;
+
+  @Macro
+  @Nullable
+  @Description("The maximum number of parallel read streams the table is split into when it is read directly. "
+    + "Every stream is read by its own split. Defaults to 10.")
+  private Integer readStreams;
+
+  @Macro
+  @Nullable
+  @Description("Whether the table is exported in shards when it is read by export. Sharded exports are read while "
+    + "BigQuery is still writing the exported files, instead of after the whole export finished. Defaults to false.")
+  private Boolean shardedExport;
+
+  @Macro
+  @Nullable
+  @Description("The target size in megabytes of the data read by a single split when the table is exported in "
+    + "shards. The number of splits is the size of the table divided by this size. Defaults to 256.")
+  private Integer exportSplitSizeMB;
+
   public String getDataset() {
     return dataset;
   }
 
+  @Nullable
   public String getTable() {
-    return table;
+    return table == null || table.isEmpty() ? null : table;
+  }
+
+  @Nullable
+  public String getQuery() {
+    return query == null || query.trim().isEmpty() ? null : query.trim();
+  }
+
+  public int getQueryCacheHours() {
+    return queryCacheHours == null ? DEFAULT_QUERY_CACHE_HOURS : queryCacheHours;
   }
 
   @Nullable
@@ -81,6 +160,65 @@ public final class BigQuerySourceConfig extends GCPReferenceSourceConfig {
     return datasetProject == null ? getProject() : datasetProject;
   }
 
+  @Nullable
+  public String getFilter() {
+    return filter == null || filter.trim().isEmpty() ? null : filter.trim();
+  }
+
+  @Nullable
+  public String getTemporaryDataset() {
+    return temporaryDataset == null || temporaryDataset.trim().isEmpty() ? null : temporaryDataset.trim();
+  }
+
+  @Nullable
+  public String getWatermarkColumn() {
+    return watermarkColumn == null || watermarkColumn.isEmpty() ? null : watermarkColumn;
+  }
+
+  /**
+   * @return the method used to read the table
+   * @throws IllegalArgumentException if the read method is not supported
+   */
+  public ReadMethod getReadMethod() {
+    if (readMethod == null || readMethod.isEmpty()) {
+      return ReadMethod.EXPORT;
+    }
+    return ReadMethod.fromValue(readMethod)
+      .orElseThrow(() -> new IllegalArgumentException("Unsupported read method " + readMethod + "."));
+  }
+
+  public int getReadStreams() {
+    return readStreams == null ? DEFAULT_READ_STREAMS : readStreams;
+  }
+
+  public boolean isShardedExport() {
+    return shardedExport != null && shardedExport;
+  }
+
+  public int getExportSplitSizeMB() {
+    return exportSplitSizeMB == null ? DEFAULT_EXPORT_SPLIT_SIZE_MB : exportSplitSizeMB;
+  }
+
+  @Override
+  public void validate() {
+    super.validate();
+    if (!containsMacro("readMethod")) {
+      getReadMethod();
+    }
+    if (!containsMacro("readStreams") && readStreams != null && readStreams < 1) {
+      throw new IllegalArgumentException("Read streams should be positive.");
+    }
+    if (!containsMacro("exportSplitSizeMB") && exportSplitSizeMB != null && exportSplitSizeMB < 1) {
+      throw new IllegalArgumentException("Export split size should be positive.");
+    }
+    if (!containsMacro("table") && !containsMacro("query") && getTable() == null && getQuery() == null) {
+      throw new IllegalArgumentException("Either a table or a query must be specified.");
+    }
+    if (!containsMacro("queryCacheHours") && queryCacheHours != null && queryCacheHours < 1) {
+      throw new IllegalArgumentException("Query cache hours should be positive.");
+    }
+  }
+
   /**
    * @return the schema of the dataset
    * @throws IllegalArgumentException if the schema is null or invalid
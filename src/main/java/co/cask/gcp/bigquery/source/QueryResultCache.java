@@ -0,0 +1,233 @@
+/*
+ * Copyright © 2018 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.gcp.bigquery.source;
+
+import com.google.cloud.bigquery.BigQuery;
+import com.google.cloud.bigquery.BigQueryException;
+import com.google.cloud.bigquery.Job;
+import com.google.cloud.bigquery.JobInfo;
+import com.google.cloud.bigquery.JobStatistics;
+import com.google.cloud.bigquery.QueryJobConfiguration;
+import com.google.cloud.bigquery.StandardTableDefinition;
+import com.google.cloud.bigquery.Table;
+import com.google.cloud.bigquery.TableId;
+import com.google.common.hash.Hashing;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import javax.annotation.Nullable;
+
+/**
+ * Materializes the results of queries into cache tables, so that the results of a query can be read like a table.
+ *
+ * The name of a cache table is derived from the query text and the last modification time of every table the query
+ * references. As long as neither changes, later runs of the same query reuse the cache table instead of running the
+ * query again. Cache tables expire after a configurable time, which is extended whenever they are reused.
+ *
+ * Results that can change while the query and its tables stay the same are never cached. This is the case for
+ * queries calling non-deterministic functions like CURRENT_DATE or RAND, or persistent user defined functions, which
+ * may call them. It is also the case for queries of tables with rows in their streaming buffer, which do not change
+ * the last modification time, and of views and external tables, whose last modification time does not track changes
+ * to the data they read. These queries run into a temporary table that the caller deletes once it has been read.
+ */
+final class QueryResultCache {
+  private static final Logger LOG = LoggerFactory.getLogger(QueryResultCache.class);
+  private static final String CACHE_TABLE_PREFIX = "_query_";
+  private static final String TEMPORARY_TABLE_PREFIX = "_query_run_";
+  // functions whose results differ between runs of the same query on the same tables
+  private static final Pattern NON_DETERMINISTIC = Pattern.compile(
+    "\\bCURRENT_(DATE|DATETIME|TIME|TIMESTAMP)\\b|\\b(RAND|NOW|SESSION_USER|GENERATE_UUID)\\s*\\(|\\bTABLESAMPLE\\b",
+    Pattern.CASE_INSENSITIVE);
+  // calls of persistent user defined functions, whose names are qualified by their dataset. Built in functions are
+  // only qualified by the SAFE, NET, HLL_COUNT, KEYS and AEAD prefixes.
+  private static final Pattern UDF_CALL = Pattern.compile(
+    "(`[^`]*\\.[^`]*`|\\b(?!(SAFE|NET|HLL_COUNT|KEYS|AEAD)\\.)[A-Za-z_][\\w-]*(\\.[A-Za-z_][\\w-]*)+)\\s*\\(",
+    Pattern.CASE_INSENSITIVE);
+
+  private final BigQuery bigquery;
+  private final String project;
+  private final String dataset;
+  private final long expirationHours;
+
+  /**
+   * @param bigquery BigQuery service the queries run with
+   * @param project project of the dataset the cache tables are stored in
+   * @param dataset dataset the cache tables are stored in
+   * @param expirationHours hours after which unused cache tables are deleted
+   */
+  QueryResultCache(BigQuery bigquery, String project, String dataset, long expirationHours) {
+    this.bigquery = bigquery;
+    this.project = project;
+    this.dataset = dataset;
+    this.expirationHours = expirationHours;
+  }
+
+  /**
+   * Gets the cache table holding the results of a standard SQL query, running the query only if the results are
+   * not cached yet.
+   *
+   * @param query standard SQL query
+   * @return name of the cache table
+   * @throws IOException if the query failed
+   */
+  String getResultTable(String query) throws IOException {
+    String cacheTable;
+    try {
+      Map<TableId, Long> snapshots = isDeterministic(query) ? getSnapshots(query) : null;
+      if (snapshots == null) {
+        cacheTable = TEMPORARY_TABLE_PREFIX + UUID.randomUUID().toString().replace("-", "");
+        LOG.debug("Results of query can change without changes to its tables, not caching them.");
+      } else {
+        cacheTable = getCacheTableName(query, snapshots);
+      }
+      TableId cacheTableId = TableId.of(project, dataset, cacheTable);
+      Table table = bigquery.getTable(cacheTableId);
+      if (table == null) {
+        LOG.debug("Running query into cache table '{}.{}': {}", dataset, cacheTable, query);
+        runQuery(query, cacheTableId);
+        table = bigquery.getTable(cacheTableId);
+        if (table == null) {
+          throw new IOException(String.format("Cache table '%s.%s' of the query does not exist.", dataset,
+                                              cacheTable));
+        }
+      } else {
+        LOG.debug("Reusing cache table '{}.{}' for query: {}", dataset, cacheTable, query);
+      }
+      // expire the table some time after its last use, so unused results do not pile up
+      long expiration = System.currentTimeMillis() + TimeUnit.HOURS.toMillis(expirationHours);
+      bigquery.update(table.toBuilder().setExpirationTime(expiration).build());
+    } catch (BigQueryException e) {
+      throw new IOException("Failed to run query: " + e.getMessage(), e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while running query.", e);
+    }
+    return cacheTable;
+  }
+
+  /**
+   * Gets the schema of the results of a standard SQL query with a dry run, without running the query.
+   *
+   * @param query standard SQL query
+   * @return schema of the results
+   * @throws IOException if the query is invalid
+   */
+  com.google.cloud.bigquery.Schema getResultSchema(String query) throws IOException {
+    try {
+      Job dryRun = bigquery.create(JobInfo.of(QueryJobConfiguration.newBuilder(query)
+                                                .setUseLegacySql(false)
+                                                .setDryRun(true)
+                                                .build()));
+      JobStatistics.QueryStatistics statistics = dryRun.getStatistics();
+      return statistics.getSchema();
+    } catch (BigQueryException e) {
+      throw new IOException("Invalid query: " + e.getMessage(), e);
+    }
+  }
+
+  /**
+   * @param table table returned by {@link #getResultTable(String)}
+   * @return whether the table only holds the results of a single run and should be deleted once it has been read
+   */
+  static boolean isTemporary(String table) {
+    return table.startsWith(TEMPORARY_TABLE_PREFIX);
+  }
+
+  /**
+   * @param query standard SQL query
+   * @return whether the query does not call functions whose results differ between runs, or persistent user
+   *   defined functions that may call them
+   */
+  static boolean isDeterministic(String query) {
+    return !NON_DETERMINISTIC.matcher(query).find() && !UDF_CALL.matcher(query).find();
+  }
+
+  /**
+   * Gets the name of the cache table of a query.
+   *
+   * @param query query text
+   * @param snapshots last modification time of every table the query references
+   * @return name of the cache table
+   */
+  static String getCacheTableName(String query, Map<TableId, Long> snapshots) {
+    StringBuilder key = new StringBuilder(query);
+    // sorted, so that the key does not depend on the order BigQuery lists the tables in
+    Map<String, Long> sorted = new TreeMap<>();
+    for (Map.Entry<TableId, Long> snapshot : snapshots.entrySet()) {
+      TableId tableId = snapshot.getKey();
+      sorted.put(String.format("%s.%s.%s", tableId.getProject(), tableId.getDataset(), tableId.getTable()),
+                 snapshot.getValue());
+    }
+    for (Map.Entry<String, Long> snapshot : sorted.entrySet()) {
+      key.append('\n').append(snapshot.getKey()).append('@').append(snapshot.getValue());
+    }
+    return CACHE_TABLE_PREFIX + Hashing.sha256().hashString(key, StandardCharsets.UTF_8).toString();
+  }
+
+  /**
+   * Gets the last modification time of every table the query references, using a dry run of the query.
+   *
+   * @return the modification times, or null if a referenced table is not a standard table or has rows in its
+   *   streaming buffer
+   */
+  @Nullable
+  private Map<TableId, Long> getSnapshots(String query) {
+    Job dryRun = bigquery.create(JobInfo.of(QueryJobConfiguration.newBuilder(query)
+                                              .setUseLegacySql(false)
+                                              .setDryRun(true)
+                                              .build()));
+    JobStatistics.QueryStatistics statistics = dryRun.getStatistics();
+    Map<TableId, Long> snapshots = new HashMap<>();
+    List<TableId> referencedTables = statistics.getReferencedTables();
+    if (referencedTables == null) {
+      return snapshots;
+    }
+    for (TableId tableId : referencedTables) {
+      Table table = bigquery.getTable(tableId);
+      if (table == null || !(table.getDefinition() instanceof StandardTableDefinition)
+        || ((StandardTableDefinition) table.getDefinition()).getStreamingBuffer() != null) {
+        return null;
+      }
+      Long lastModified = table.getLastModifiedTime();
+      snapshots.put(tableId, lastModified == null ? 0L : lastModified);
+    }
+    return snapshots;
+  }
+
+  private void runQuery(String query, TableId destination) throws IOException, InterruptedException {
+    Job job = bigquery.create(JobInfo.of(QueryJobConfiguration.newBuilder(query)
+                                           .setUseLegacySql(false)
+                                           .setDestinationTable(destination)
+                                           .setCreateDisposition(JobInfo.CreateDisposition.CREATE_IF_NEEDED)
+                                           .setWriteDisposition(JobInfo.WriteDisposition.WRITE_TRUNCATE)
+                                           .build())).waitFor();
+    if (job == null || job.getStatus().getError() != null) {
+      throw new IOException(String.format("Failed to run query into '%s.%s': %s", destination.getDataset(),
+                                          destination.getTable(), job == null ? "job not found" :
+                                            job.getStatus().getError()));
+    }
+  }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright © 2018 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.gcp.bigquery.source;
+
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/**
+ * Indicates how the BigQuery source reads the rows of the table.
+ */
+public enum ReadMethod {
+
+  /**
+   * The table is exported to files on Google Cloud Storage, which are then read.
+   */
+  EXPORT("export"),
+
+  /**
+   * The table is read directly through parallel read streams, without exporting it.
+   */
+  DIRECT("direct");
+
+  private final String value;
+
+  ReadMethod(String value) {
+    this.value = value;
+  }
+
+  public String getValue() {
+    return value;
+  }
+
+  /**
+   * Converts read method string value into {@link ReadMethod} enum.
+   *
+   * @param stringValue read method string value
+   * @return read method in optional container
+   */
+  public static Optional<ReadMethod> fromValue(String stringValue) {
+    return Stream.of(values())
+      .filter(method -> method.value.equalsIgnoreCase(stringValue))
+      .findAny();
+  }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright © 2018 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.gcp.bigquery.source;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.InputSplit;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Input split of a single read stream of a BigQuery table, which covers a contiguous range of rows.
+ */
+public class ReadStreamInputSplit extends InputSplit implements Writable {
+  private long startRow;
+  private long rowCount;
+
+  /**
+   * This constructor is needed for hadoop deserialization
+   */
+  public ReadStreamInputSplit() {
+
+  }
+
+  public ReadStreamInputSplit(long startRow, long rowCount) {
+    this.startRow = startRow;
+    this.rowCount = rowCount;
+  }
+
+  public long getStartRow() {
+    return startRow;
+  }
+
+  public long getRowCount() {
+    return rowCount;
+  }
+
+  @Override
+  public long getLength() {
+    return rowCount;
+  }
+
+  @Override
+  public String[] getLocations() {
+    return new String[0];
+  }
+
+  @Override
+  public void write(DataOutput dataOutput) throws IOException {
+    dataOutput.writeLong(startRow);
+    dataOutput.writeLong(rowCount);
+  }
+
+  @Override
+  public void readFields(DataInput dataInput) throws IOException {
+    startRow = dataInput.readLong();
+    rowCount = dataInput.readLong();
+  }
+}
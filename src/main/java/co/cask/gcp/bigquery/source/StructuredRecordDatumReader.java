@@ -0,0 +1,191 @@
+/*
+ * Copyright © 2018 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.gcp.bigquery.source;
+
+import co.cask.cdap.api.data.format.StructuredRecord;
+import co.cask.cdap.api.data.format.UnexpectedFormatException;
+import co.cask.cdap.api.data.schema.Schema;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.io.DatumReader;
+import org.apache.avro.io.Decoder;
+import org.apache.avro.util.Utf8;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+
+/**
+ * Reads Avro binary data exported by BigQuery directly into StructuredRecords, without materializing Avro records.
+ *
+ * When the schema of the Avro data is set, a reader is compiled for every field of it. Fields of the output schema
+ * are decoded straight into their StructuredRecord representation, all other fields are skipped. RECORD columns are
+ * decoded into nested records and REPEATED columns into lists. Dates and times, which BigQuery exports as text, are
+ * parsed from the UTF-8 bytes of the text.
+ *
+ * Instances are not thread safe.
+ */
+public final class StructuredRecordDatumReader implements DatumReader<StructuredRecord> {
+  private final Schema outputSchema;
+  private FieldReader reader;
+
+  public StructuredRecordDatumReader(Schema outputSchema) {
+    this.outputSchema = outputSchema;
+  }
+
+  @Override
+  public void setSchema(org.apache.avro.Schema schema) {
+    reader = compileRecord(schema, outputSchema);
+  }
+
+  @Override
+  public StructuredRecord read(@Nullable StructuredRecord reuse, Decoder decoder) throws IOException {
+    return (StructuredRecord) reader.read(decoder);
+  }
+
+  /**
+   * Compiles the reader of a record written with the given Avro schema into a record of the given output schema.
+   * Fields that are not part of the output schema are skipped.
+   */
+  private static FieldReader compileRecord(org.apache.avro.Schema schema, Schema outputSchema) {
+    List<org.apache.avro.Schema.Field> fields = schema.getFields();
+    FieldReader[] readers = new FieldReader[fields.size()];
+    // name of the output field of every reader, or null if the field is skipped
+    String[] names = new String[fields.size()];
+    for (int i = 0; i < fields.size(); i++) {
+      org.apache.avro.Schema.Field field = fields.get(i);
+      Schema.Field outputField = outputSchema.getField(field.name());
+      if (outputField == null) {
+        org.apache.avro.Schema fieldSchema = field.schema();
+        readers[i] = decoder -> {
+          GenericDatumReader.skip(fieldSchema, decoder);
+          return null;
+        };
+      } else {
+        names[i] = outputField.getName();
+        readers[i] = compile(field.name(), field.schema(), outputField.getSchema());
+      }
+    }
+    return decoder -> {
+      StructuredRecord.Builder builder = StructuredRecord.builder(outputSchema);
+      for (int i = 0; i < readers.length; i++) {
+        Object value = readers[i].read(decoder);
+        if (names[i] != null) {
+          builder.set(names[i], value);
+        }
+      }
+      return builder.build();
+    };
+  }
+
+  /**
+   * Compiles the reader of a value written with the given Avro schema into a value of the given output schema.
+   */
+  private static FieldReader compile(String name, org.apache.avro.Schema schema, Schema outputSchema) {
+    Schema nonNullable = outputSchema.isNullable() ? outputSchema.getNonNullable() : outputSchema;
+    switch (schema.getType()) {
+      case UNION:
+        List<org.apache.avro.Schema> branches = schema.getTypes();
+        FieldReader[] branchReaders = new FieldReader[branches.size()];
+        for (int i = 0; i < branches.size(); i++) {
+          branchReaders[i] = compile(name, branches.get(i), nonNullable);
+        }
+        return decoder -> branchReaders[decoder.readIndex()].read(decoder);
+      case NULL:
+        return decoder -> {
+          decoder.readNull();
+          return null;
+        };
+      case BOOLEAN:
+        return Decoder::readBoolean;
+      case INT:
+        return Decoder::readInt;
+      case FLOAT:
+        return Decoder::readFloat;
+      case DOUBLE:
+        return Decoder::readDouble;
+      case LONG:
+        if (nonNullable.getLogicalType() == Schema.LogicalType.TIMESTAMP_MILLIS) {
+          // timestamps are exported as microseconds
+          return decoder -> TimeUnit.MICROSECONDS.toMillis(decoder.readLong());
+        }
+        return Decoder::readLong;
+      case STRING:
+        return compileString(nonNullable);
+      case RECORD:
+        return compileRecord(schema, nonNullable);
+      case ARRAY:
+        // REPEATED columns are exported as arrays, which are written in blocks of elements
+        FieldReader elementReader = compile(name, schema.getElementType(), nonNullable.getComponentSchema());
+        return decoder -> {
+          List<Object> values = new ArrayList<>();
+          for (long n = decoder.readArrayStart(); n != 0; n = decoder.arrayNext()) {
+            for (long i = 0; i < n; i++) {
+              values.add(elementReader.read(decoder));
+            }
+          }
+          return values;
+        };
+      case BYTES:
+        return decoder -> {
+          ByteBuffer buffer = decoder.readBytes(null);
+          byte[] bytes = new byte[buffer.remaining()];
+          buffer.get(bytes);
+          return bytes;
+        };
+      default:
+        throw new UnexpectedFormatException(String.format("Field '%s' is of unsupported type '%s'.", name,
+                                                          schema.getType()));
+    }
+  }
+
+  private static FieldReader compileString(Schema outputSchema) {
+    // the text of every value is decoded into the same buffer
+    Utf8 utf8 = new Utf8();
+    Schema.LogicalType logicalType = outputSchema.getLogicalType();
+    if (logicalType == Schema.LogicalType.DATE) {
+      return decoder -> {
+        decoder.readString(utf8);
+        return TemporalParser.parseDate(utf8.getBytes(), 0, utf8.getByteLength());
+      };
+    }
+    if (logicalType == Schema.LogicalType.TIME_MICROS) {
+      return decoder -> {
+        decoder.readString(utf8);
+        return TemporalParser.parseTimeMicros(utf8.getBytes(), 0, utf8.getByteLength());
+      };
+    }
+    if (logicalType == Schema.LogicalType.TIME_MILLIS) {
+      return decoder -> {
+        decoder.readString(utf8);
+        return Math.toIntExact(
+          TimeUnit.MICROSECONDS.toMillis(TemporalParser.parseTimeMicros(utf8.getBytes(), 0, utf8.getByteLength())));
+      };
+    }
+    return decoder -> decoder.readString(utf8).toString();
+  }
+
+  /**
+   * Reads a single value.
+   */
+  private interface FieldReader {
+    @Nullable
+    Object read(Decoder decoder) throws IOException;
+  }
+}
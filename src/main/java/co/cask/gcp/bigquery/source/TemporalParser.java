@@ -0,0 +1,134 @@
+/*
+ * Copyright © 2018 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.gcp.bigquery.source;
+
+import co.cask.cdap.api.data.format.UnexpectedFormatException;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Parses the text BigQuery exports for date and time values directly from its UTF-8 bytes, without creating
+ * strings or java.time objects.
+ *
+ * Dates are parsed from yyyy-MM-dd and times from HH:mm:ss with an optional fraction of up to six digits.
+ */
+public final class TemporalParser {
+  private static final long MICROS_PER_SECOND = 1000000L;
+  // days from 0000-01-01 to 1970-01-01
+  private static final long DAYS_0000_TO_1970 = 719528L;
+
+  private TemporalParser() {
+  }
+
+  /**
+   * Parses a yyyy-MM-dd date into days since epoch.
+   */
+  public static int parseDate(byte[] bytes, int offset, int length) {
+    if (length != 10 || bytes[offset + 4] != '-' || bytes[offset + 7] != '-') {
+      throw invalid("date", bytes, offset, length);
+    }
+    long year = parseDigits(bytes, offset, 4);
+    int month = (int) parseDigits(bytes, offset + 5, 2);
+    int day = (int) parseDigits(bytes, offset + 8, 2);
+    if (year < 0 || month < 1 || month > 12 || day < 1) {
+      throw invalid("date", bytes, offset, length);
+    }
+    boolean leap = (year & 3) == 0 && (year % 100 != 0 || year % 400 == 0);
+    if (day > getDaysInMonth(month, leap)) {
+      throw invalid("date", bytes, offset, length);
+    }
+
+    // same computation as LocalDate.toEpochDay for non negative years
+    long total = 365 * year + (year + 3) / 4 - (year + 99) / 100 + (year + 399) / 400;
+    total += (367 * month - 362) / 12;
+    total += day - 1;
+    if (month > 2) {
+      total--;
+      if (!leap) {
+        total--;
+      }
+    }
+    return Math.toIntExact(total - DAYS_0000_TO_1970);
+  }
+
+  /**
+   * Parses a HH:mm:ss[.SSSSSS] time into microseconds since midnight.
+   */
+  public static long parseTimeMicros(byte[] bytes, int offset, int length) {
+    if (length < 8 || bytes[offset + 2] != ':' || bytes[offset + 5] != ':') {
+      throw invalid("time", bytes, offset, length);
+    }
+    long hours = parseDigits(bytes, offset, 2);
+    long minutes = parseDigits(bytes, offset + 3, 2);
+    long seconds = parseDigits(bytes, offset + 6, 2);
+    if (hours < 0 || hours > 23 || minutes < 0 || minutes > 59 || seconds < 0 || seconds > 59) {
+      throw invalid("time", bytes, offset, length);
+    }
+    long micros = ((hours * 60 + minutes) * 60 + seconds) * MICROS_PER_SECOND;
+
+    if (length > 8) {
+      int digits = length - 9;
+      if (bytes[offset + 8] != '.' || digits < 1 || digits > 6) {
+        throw invalid("time", bytes, offset, length);
+      }
+      long fraction = parseDigits(bytes, offset + 9, digits);
+      if (fraction < 0) {
+        throw invalid("time", bytes, offset, length);
+      }
+      // scale the fraction up to six digits
+      for (int i = digits; i < 6; i++) {
+        fraction *= 10;
+      }
+      micros += fraction;
+    }
+    return micros;
+  }
+
+  private static int getDaysInMonth(int month, boolean leap) {
+    switch (month) {
+      case 2:
+        return leap ? 29 : 28;
+      case 4:
+      case 6:
+      case 9:
+      case 11:
+        return 30;
+      default:
+        return 31;
+    }
+  }
+
+  /**
+   * @return the value of the given decimal digits, or -1 if any of them is not a digit
+   */
+  private static long parseDigits(byte[] bytes, int offset, int count) {
+    long value = 0;
+    for (int i = offset; i < offset + count; i++) {
+      int digit = bytes[i] - '0';
+      if (digit < 0 || digit > 9) {
+        return -1;
+      }
+      value = value * 10 + digit;
+    }
+    return value;
+  }
+
+  private static UnexpectedFormatException invalid(String type, byte[] bytes, int offset, int length) {
+    return new UnexpectedFormatException(String.format("Invalid %s value '%s'.", type,
+                                                       new String(bytes, offset, length, StandardCharsets.UTF_8)));
+  }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright © 2018 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.gcp.bigquery.util;
+
+import com.google.cloud.bigquery.BigQuery;
+import com.google.cloud.bigquery.BigQueryOptions;
+import com.google.cloud.bigquery.Table;
+import com.google.cloud.bigquery.TableId;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.io.IOException;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+
+import static co.cask.gcp.common.GCPUtils.loadServiceAccountCredentials;
+
+/**
+ * Caches BigQuery clients and table metadata, so that the stages of a pipeline do not build a client, load
+ * credentials from disk and fetch the metadata of the same table again and again while they are configured.
+ *
+ * Clients are keyed by project and service account file path and expire a while after they were built, so that
+ * rotated credentials are picked up. Table metadata expires after a short time, and is invalidated when a table
+ * is known to change. Tables that do not exist are not cached.
+ */
+final class BigQueryCache {
+  private static final long CLIENT_TTL_MINUTES = 30;
+  private static final long TABLE_TTL_SECONDS = 60;
+
+  private static final Cache<ClientKey, BigQuery> CLIENTS = CacheBuilder.newBuilder()
+    .expireAfterWrite(CLIENT_TTL_MINUTES, TimeUnit.MINUTES)
+    .build();
+  private static final TableCache TABLES = new TableCache(Ticker.systemTicker());
+
+  private BigQueryCache() {
+    // no-op
+  }
+
+  /**
+   * Gets the client of the given project and credentials, building it if it is not cached.
+   */
+  static BigQuery getBigQuery(@Nullable String serviceAccountFilePath, String project) throws IOException {
+    try {
+      return CLIENTS.get(new ClientKey(serviceAccountFilePath, project), () -> {
+        BigQueryOptions.Builder bigqueryBuilder = BigQueryOptions.newBuilder();
+        if (serviceAccountFilePath != null) {
+          bigqueryBuilder.setCredentials(loadServiceAccountCredentials(serviceAccountFilePath));
+        }
+
+        bigqueryBuilder.setProjectId(project);
+        return bigqueryBuilder.build().getService();
+      });
+    } catch (ExecutionException e) {
+      throw toIOException(e);
+    }
+  }
+
+  /**
+   * Gets the metadata of the given table, fetching it if it is not cached.
+   *
+   * @return the table, or null if it does not exist
+   */
+  @Nullable
+  static Table getTable(@Nullable String serviceAccountFilePath, String project, TableId tableId) throws IOException {
+    return TABLES.get(serviceAccountFilePath, project, tableId,
+                      () -> getBigQuery(serviceAccountFilePath, project).getTable(tableId));
+  }
+
+  /**
+   * Drops the cached metadata of the given table, for all credentials it was fetched with.
+   */
+  static void invalidateTable(TableId tableId) {
+    TABLES.invalidate(tableId);
+  }
+
+  private static IOException toIOException(ExecutionException e) {
+    Throwable cause = e.getCause();
+    if (cause instanceof IOException) {
+      return (IOException) cause;
+    }
+    if (cause instanceof RuntimeException) {
+      throw (RuntimeException) cause;
+    }
+    return new IOException(cause);
+  }
+
+  /**
+   * Fetches the metadata of a table.
+   */
+  interface TableLoader {
+
+    /**
+     * @return the table, or null if it does not exist
+     */
+    @Nullable
+    Table load() throws IOException;
+  }
+
+  /**
+   * Table metadata that expires a fixed time after it was fetched, measured by the given ticker.
+   */
+  static final class TableCache {
+    private final Cache<TableKey, Table> tables;
+
+    TableCache(Ticker ticker) {
+      this.tables = CacheBuilder.newBuilder()
+        .expireAfterWrite(TABLE_TTL_SECONDS, TimeUnit.SECONDS)
+        .maximumSize(1000)
+        .ticker(ticker)
+        .build();
+    }
+
+    /**
+     * Gets the cached metadata of a table, loading it if it is not cached. Tables that do not exist are not cached.
+     *
+     * @return the table, or null if it does not exist
+     */
+    @Nullable
+    Table get(@Nullable String serviceAccountFilePath, String project, TableId tableId,
+              TableLoader loader) throws IOException {
+      TableKey key = new TableKey(new ClientKey(serviceAccountFilePath, project), tableId);
+      Table table = tables.getIfPresent(key);
+      if (table == null) {
+        table = loader.load();
+        if (table != null) {
+          tables.put(key, table);
+        }
+      }
+      return table;
+    }
+
+    /**
+     * Drops the cached metadata of the given table, for all credentials it was fetched with.
+     */
+    void invalidate(TableId tableId) {
+      tables.asMap().keySet().removeIf(key -> key.tableId.equals(tableId));
+    }
+  }
+
+  /**
+   * Key of a client, which is the project it runs jobs in and the credentials it uses.
+   */
+  private static final class ClientKey {
+    private final String serviceAccountFilePath;
+    private final String project;
+
+    private ClientKey(@Nullable String serviceAccountFilePath, String project) {
+      this.serviceAccountFilePath = serviceAccountFilePath;
+      this.project = project;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      ClientKey that = (ClientKey) o;
+      return Objects.equals(serviceAccountFilePath, that.serviceAccountFilePath) && project.equals(that.project);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(serviceAccountFilePath, project);
+    }
+  }
+
+  /**
+   * Key of table metadata. Metadata is cached per client, because other credentials may not have access to it.
+   */
+  private static final class TableKey {
+    private final ClientKey client;
+    private final TableId tableId;
+
+    private TableKey(ClientKey client, TableId tableId) {
+      this.client = client;
+      this.tableId = tableId;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      TableKey that = (TableKey) o;
+      return client.equals(that.client) && tableId.equals(that.tableId);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(client, tableId);
+    }
+  }
+}
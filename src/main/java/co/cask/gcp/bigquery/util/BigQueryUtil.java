@@ -20,14 +20,16 @@ import co.cask.cdap.api.data.schema.Schema;
 import co.cask.gcp.bigquery.sink.BigQuerySink;
 import co.cask.gcp.bigquery.source.BigQuerySource;
 import co.cask.gcp.gcs.GCSPath;
+import co.cask.gcp.gcs.StorageClient;
 import com.google.cloud.bigquery.BigQuery;
-import com.google.cloud.bigquery.BigQueryOptions;
 import com.google.cloud.bigquery.Field;
 import com.google.cloud.bigquery.FieldList;
 import com.google.cloud.bigquery.LegacySQLTypeName;
 import com.google.cloud.bigquery.Table;
 import com.google.cloud.bigquery.TableId;
 import com.google.cloud.hadoop.io.bigquery.BigQueryConfiguration;
+import com.google.cloud.hadoop.io.bigquery.output.BigQueryTableFieldSchema;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import org.apache.hadoop.conf.Configuration;
@@ -40,14 +42,24 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 import javax.annotation.Nullable;
 
-import static co.cask.gcp.common.GCPUtils.loadServiceAccountCredentials;
-
 /**
  * Common Util class for big query plugins such as {@link BigQuerySource} and {@link BigQuerySink}
  */
 public final class BigQueryUtil {
+  // age in days after which objects in the shared staging bucket are deleted, if runs did not delete them
+  private static final int STAGING_BUCKET_RETENTION_DAYS = 7;
+  private static final String STAGING_BUCKET_PREFIX = "bigquery-staging-";
+  // label that marks the shared staging bucket among the buckets of a project
+  private static final String STAGING_BUCKET_LABEL = "bigquery-staging";
+  // letters, digits and underscores, which are allowed in table names and in paths of temporary files
+  private static final Pattern TABLE_NAME = Pattern.compile("[A-Za-z0-9_]{1,1024}");
+  private static final String DUPLICATE_KEY_ERROR =
+    "Several records have the same table key. Set a dedupe column to choose the record that is kept.";
+
   private static final Map<Schema.Type, Set<LegacySQLTypeName>> TYPE_MAP = ImmutableMap.<Schema.Type,
     Set<LegacySQLTypeName>>builder()
     .put(Schema.Type.INT, ImmutableSet.of(LegacySQLTypeName.INTEGER))
@@ -76,6 +88,309 @@ public final class BigQueryUtil {
     return schema.isNullable() ? schema.getNonNullable() : schema;
   }
 
+  /**
+   * Gets the BigQuery column type used to store values of the provided non-nullable schema. Arrays are stored as
+   * REPEATED columns of the type of their components, maps as REPEATED RECORD columns with a key and a value field.
+   *
+   * @param schema non-nullable field schema
+   * @return BigQuery column type
+   * @throws IllegalStateException if the schema type is not supported
+   */
+  public static LegacySQLTypeName getTableDataType(Schema schema) {
+    Schema.LogicalType logicalType = schema.getLogicalType();
+
+    if (logicalType != null) {
+      switch (logicalType) {
+        case DATE:
+          return LegacySQLTypeName.DATE;
+        case TIME_MILLIS:
+        case TIME_MICROS:
+          return LegacySQLTypeName.TIME;
+        case TIMESTAMP_MILLIS:
+        case TIMESTAMP_MICROS:
+          return LegacySQLTypeName.TIMESTAMP;
+        default:
+          throw new IllegalStateException("Unsupported logical type " + logicalType);
+      }
+    }
+
+    Schema.Type type = schema.getType();
+    switch(type) {
+      case INT:
+      case LONG:
+        return LegacySQLTypeName.INTEGER;
+      case STRING:
+        return LegacySQLTypeName.STRING;
+      case FLOAT:
+      case DOUBLE:
+        return LegacySQLTypeName.FLOAT;
+      case BOOLEAN:
+        return LegacySQLTypeName.BOOLEAN;
+      case BYTES:
+        return LegacySQLTypeName.BYTES;
+      case RECORD:
+      case MAP:
+        return LegacySQLTypeName.RECORD;
+      case ARRAY:
+        return getTableDataType(getNonNullableSchema(schema.getComponentSchema()));
+      default:
+        throw new IllegalStateException("Unsupported type " + type);
+    }
+  }
+
+  /**
+   * @return whether values of the provided non-nullable schema are stored in a REPEATED column
+   */
+  public static boolean isRepeated(Schema schema) {
+    return schema.getType() == Schema.Type.ARRAY || schema.getType() == Schema.Type.MAP;
+  }
+
+  /**
+   * Gets the fields of the RECORD column used to store values of the provided non-nullable schema. The elements of
+   * arrays are resolved first, map entries are stored as records with a key and a value field.
+   *
+   * @param schema non-nullable field schema of a RECORD column
+   * @return names and schemas of the fields of the column
+   */
+  public static List<Schema.Field> getRecordFields(Schema schema) {
+    if (schema.getType() == Schema.Type.ARRAY) {
+      return getRecordFields(getNonNullableSchema(schema.getComponentSchema()));
+    }
+    if (schema.getType() == Schema.Type.MAP) {
+      Map.Entry<Schema, Schema> mapSchema = schema.getMapSchema();
+      return ImmutableList.of(Schema.Field.of("key", mapSchema.getKey()),
+                              Schema.Field.of("value", mapSchema.getValue()));
+    }
+    return schema.getFields();
+  }
+
+  /**
+   * Gets the BigQuery field storing values of the provided schema. All fields are nullable, unless they are repeated.
+   *
+   * @param name name of the field
+   * @param schema field schema
+   * @return BigQuery field
+   */
+  public static Field getBigQueryField(String name, Schema schema) {
+    Schema fieldSchema = getNonNullableSchema(schema);
+    LegacySQLTypeName type = getTableDataType(fieldSchema);
+    Field.Builder builder;
+    if (type == LegacySQLTypeName.RECORD) {
+      builder = Field.newBuilder(name, type, getRecordFields(fieldSchema).stream()
+        .map(field -> getBigQueryField(field.getName(), field.getSchema()))
+        .toArray(Field[]::new));
+    } else {
+      builder = Field.newBuilder(name, type);
+    }
+    return builder.setMode(isRepeated(fieldSchema) ? Field.Mode.REPEATED : Field.Mode.NULLABLE).build();
+  }
+
+  /**
+   * Gets the field of the output configuration of the BigQuery connector storing values of the provided schema.
+   *
+   * @param name name of the field
+   * @param schema field schema
+   * @return BigQuery connector field
+   */
+  public static BigQueryTableFieldSchema getTableFieldSchema(String name, Schema schema) {
+    Schema fieldSchema = getNonNullableSchema(schema);
+    LegacySQLTypeName type = getTableDataType(fieldSchema);
+    BigQueryTableFieldSchema tableFieldSchema = new BigQueryTableFieldSchema()
+      .setName(name)
+      .setType(type.name())
+      .setMode(isRepeated(fieldSchema) ? Field.Mode.REPEATED.name() : Field.Mode.NULLABLE.name());
+    if (type == LegacySQLTypeName.RECORD) {
+      tableFieldSchema.setFields(getRecordFields(fieldSchema).stream()
+                                   .map(field -> getTableFieldSchema(field.getName(), field.getSchema()))
+                                   .collect(Collectors.toList()));
+    }
+    return tableFieldSchema;
+  }
+
+  /**
+   * Gets the standard SQL type used to store values of the provided non-nullable schema, such as
+   * ARRAY&lt;STRUCT&lt;`key` STRING, `value` INT64&gt;&gt; for a map of longs.
+   */
+  private static String getStandardTypeName(Schema schema) {
+    LegacySQLTypeName type = getTableDataType(schema);
+    String typeName = type.getStandardType().name();
+    if (type == LegacySQLTypeName.RECORD) {
+      typeName = getRecordFields(schema).stream()
+        .map(field -> String.format("`%s` %s", field.getName(),
+                                    getStandardTypeName(getNonNullableSchema(field.getSchema()))))
+        .collect(Collectors.joining(", ", "STRUCT<", ">"));
+    }
+    return isRepeated(schema) ? String.format("ARRAY<%s>", typeName) : typeName;
+  }
+
+  /**
+   * Gets the standard SQL DDL statement that creates a table with the given schema if it does not exist.
+   * All columns are created as nullable.
+   *
+   * @param tableId table to create
+   * @param schema schema of the table
+   * @param partitionExpression PARTITION BY expression, or null if the table is not partitioned
+   * @param clusteringFields columns to cluster the table on
+   * @return create table statement
+   */
+  public static String getCreateTableStatement(TableId tableId, Schema schema, @Nullable String partitionExpression,
+                                               List<String> clusteringFields) {
+    StringBuilder createStmt = new StringBuilder();
+    createStmt.append(String.format("CREATE TABLE IF NOT EXISTS `%s.%s.%s` (",
+                                    tableId.getProject(), tableId.getDataset(), tableId.getTable()));
+    String columns = schema.getFields().stream()
+      .map(field -> String.format("`%s` %s", field.getName(),
+                                  getStandardTypeName(getNonNullableSchema(field.getSchema()))))
+      .collect(Collectors.joining(", "));
+    createStmt.append(columns).append(")");
+
+    if (partitionExpression != null) {
+      createStmt.append(" PARTITION BY ").append(partitionExpression);
+    }
+    if (!clusteringFields.isEmpty()) {
+      createStmt.append(" CLUSTER BY ")
+        .append(clusteringFields.stream().map(field -> String.format("`%s`", field)).collect(Collectors.joining(", ")));
+    }
+    return createStmt.toString();
+  }
+
+  /**
+   * Gets the standard SQL MERGE statement that upserts the rows of a staging table into a table. Rows of the table
+   * with the same key as a staging row are updated, all other staging rows are inserted. Null key values match
+   * each other. If the staging table contains several rows with the same key, the one with the greatest value of the
+   * dedupe column is merged, or the statement fails if there is no dedupe column.
+   *
+   * @param tableId table to merge into
+   * @param stagingTableId table containing the rows to merge
+   * @param columns columns to write
+   * @param keys columns that identify a row
+   * @param dedupeBy column that decides which of several rows with the same key is merged, or null
+   * @return merge statement
+   */
+  public static String getMergeStatement(TableId tableId, TableId stagingTableId, List<String> columns,
+                                         List<String> keys, @Nullable String dedupeBy) {
+    String keyList = keys.stream().map(key -> String.format("`%s`", key)).collect(Collectors.joining(", "));
+    String condition = keys.stream()
+      .map(key -> String.format("(T.`%s` = S.`%s` OR (T.`%s` IS NULL AND S.`%s` IS NULL))", key, key, key, key))
+      .collect(Collectors.joining(" AND "));
+    String columnList = columns.stream().map(column -> String.format("`%s`", column))
+      .collect(Collectors.joining(", "));
+    String sourceList = columns.stream().map(column -> String.format("S.`%s`", column))
+      .collect(Collectors.joining(", "));
+    String updates = columns.stream()
+      .filter(column -> !keys.contains(column))
+      .map(column -> String.format("`%s` = S.`%s`", column, column))
+      .collect(Collectors.joining(", "));
+
+    // a target row may only match a single source row, so the staging rows are deduplicated on the key first.
+    // Without a dedupe column there is no deterministic choice, so duplicate keys fail the statement.
+    String source = dedupeBy == null ?
+      String.format("SELECT * EXCEPT(_rows) FROM (SELECT *, COUNT(*) OVER (PARTITION BY %s) AS _rows "
+                      + "FROM `%s.%s.%s`) WHERE IF(_rows = 1, TRUE, ERROR('%s'))",
+                    keyList, stagingTableId.getProject(), stagingTableId.getDataset(), stagingTableId.getTable(),
+                    DUPLICATE_KEY_ERROR) :
+      String.format("SELECT * EXCEPT(_row) FROM (SELECT *, ROW_NUMBER() OVER (PARTITION BY %s ORDER BY `%s` DESC) "
+                      + "AS _row FROM `%s.%s.%s`) WHERE _row = 1",
+                    keyList, dedupeBy, stagingTableId.getProject(), stagingTableId.getDataset(),
+                    stagingTableId.getTable());
+    StringBuilder mergeStmt = new StringBuilder();
+    mergeStmt.append(String.format("MERGE `%s.%s.%s` T USING (%s) S ON %s",
+                                   tableId.getProject(), tableId.getDataset(), tableId.getTable(), source,
+                                   condition));
+    if (!updates.isEmpty()) {
+      mergeStmt.append(" WHEN MATCHED THEN UPDATE SET ").append(updates);
+    }
+    mergeStmt.append(String.format(" WHEN NOT MATCHED THEN INSERT (%s) VALUES (%s)", columnList, sourceList));
+    return mergeStmt.toString();
+  }
+
+  /**
+   * Gets the standard SQL statement that selects the given columns of the rows of a table that match a filter.
+   *
+   * @param tableId table to select from
+   * @param columns columns to select
+   * @param filter standard SQL predicate the rows must match, or null to select all rows
+   * @return select statement
+   */
+  public static String getSelectStatement(TableId tableId, List<String> columns, @Nullable String filter) {
+    String columnList = columns.stream().map(column -> String.format("`%s`", column))
+      .collect(Collectors.joining(", "));
+    StringBuilder selectStmt = new StringBuilder();
+    selectStmt.append(String.format("SELECT %s FROM `%s.%s.%s`", columnList, tableId.getProject(),
+                                    tableId.getDataset(), tableId.getTable()));
+    if (filter != null) {
+      selectStmt.append(" WHERE ").append(filter);
+    }
+    return selectStmt.toString();
+  }
+
+  /**
+   * Gets the standard SQL statement that selects the maximum value of an INT64 or TIMESTAMP column of the rows of a
+   * table that match a filter. Timestamps are selected as microseconds since the epoch.
+   *
+   * @param tableId table to select from
+   * @param column INT64 or TIMESTAMP column
+   * @param timestamp whether the column is a TIMESTAMP column
+   * @param filter standard SQL predicate the rows must match, or null to consider all rows
+   * @return select statement
+   */
+  public static String getMaxStatement(TableId tableId, String column, boolean timestamp, @Nullable String filter) {
+    String max = String.format(timestamp ? "UNIX_MICROS(MAX(`%s`))" : "MAX(`%s`)", column);
+    StringBuilder selectStmt = new StringBuilder();
+    selectStmt.append(String.format("SELECT %s FROM `%s.%s.%s`", max, tableId.getProject(), tableId.getDataset(),
+                                    tableId.getTable()));
+    if (filter != null) {
+      selectStmt.append(" WHERE ").append(filter);
+    }
+    return selectStmt.toString();
+  }
+
+  /**
+   * Gets the standard SQL predicate that matches rows whose INT64 or TIMESTAMP column lies in a range. Timestamp
+   * bounds are given as microseconds since the epoch.
+   *
+   * @param column INT64 or TIMESTAMP column
+   * @param timestamp whether the column is a TIMESTAMP column
+   * @param after exclusive lower bound, or null if the range has no lower bound
+   * @param until inclusive upper bound, or null if the range has no upper bound
+   * @return predicate, or null if the range has no bounds
+   */
+  @Nullable
+  public static String getRangeCondition(String column, boolean timestamp, @Nullable Long after,
+                                         @Nullable Long until) {
+    String format = timestamp ? "`%s` %s TIMESTAMP_MICROS(%d)" : "`%s` %s %d";
+    List<String> conditions = new ArrayList<>();
+    if (after != null) {
+      conditions.add(String.format(format, column, ">", after));
+    }
+    if (until != null) {
+      conditions.add(String.format(format, column, "<=", until));
+    }
+    return conditions.isEmpty() ? null : String.join(" AND ", conditions);
+  }
+
+  /**
+   * @return whether the name is a valid BigQuery table name
+   */
+  public static boolean isValidTableName(String name) {
+    return TABLE_NAME.matcher(name).matches();
+  }
+
+  /**
+   * Gets the name of the staging bucket shared by all BigQuery plugins of a project that do not have a bucket
+   * configured, creating the bucket if the project does not have one yet. Every run stages its files under its own
+   * prefix in this bucket.
+   *
+   * @param project BigQuery project ID
+   * @param serviceAccountPath service account file path, or null to use the default credentials
+   * @return name of the staging bucket
+   * @throws IOException if the service account file can not be read
+   */
+  public static String getStagingBucket(String project, @Nullable String serviceAccountPath) throws IOException {
+    return StorageClient.create(project, serviceAccountPath)
+      .getOrCreateStagingBucket(STAGING_BUCKET_PREFIX, STAGING_BUCKET_LABEL, STAGING_BUCKET_RETENTION_DAYS);
+  }
+
   /**
    * Get Bigquery {@link Configuration}.
    *
@@ -111,7 +426,8 @@ public final class BigQueryUtil {
   }
 
   /**
-   * Get BigQuery Table.
+   * Get BigQuery Table. The metadata of tables is cached for a short time, so it is only fetched once when it is
+   * needed by several stages or steps of a pipeline.
    *
    * @param serviceAccountFilePath service account file path
    * @param project BigQuery project ID
@@ -123,29 +439,36 @@ public final class BigQueryUtil {
   @Nullable
   public static Table getBigQueryTable(@Nullable String serviceAccountFilePath, String project,
                                 String dataset, String table) throws IOException {
-    BigQuery bigquery = getBigQuery(serviceAccountFilePath, project);
+    return BigQueryCache.getTable(serviceAccountFilePath, project, TableId.of(project, dataset, table));
+  }
 
-    TableId id = TableId.of(project, dataset, table);
-    return bigquery.getTable(id);
+  /**
+   * Drops the cached metadata of a table, so that it is fetched again by the next
+   * {@link #getBigQueryTable(String, String, String, String)}. Must be called after the schema or contents of the
+   * table were changed.
+   *
+   * @param project BigQuery project ID
+   * @param dataset dataset for the BigQuery table
+   * @param table BigQuery table
+   */
+  public static void invalidateBigQueryTable(String project, String dataset, String table) {
+    BigQueryCache.invalidateTable(TableId.of(project, dataset, table));
   }
 
   /**
-   * Get BigQuery service
+   * Get BigQuery service. Services are cached by project and service account file path, so credentials are only
+   * loaded once for all stages using them.
+   *
    * @param serviceAccountFilePath service account file path
    * @param project BigQuery project ID
    */
   public static BigQuery getBigQuery(@Nullable String serviceAccountFilePath, String project) throws IOException {
-    BigQueryOptions.Builder bigqueryBuilder = BigQueryOptions.newBuilder();
-    if (serviceAccountFilePath != null) {
-      bigqueryBuilder.setCredentials(loadServiceAccountCredentials(serviceAccountFilePath));
-    }
-
-    bigqueryBuilder.setProjectId(project);
-    return bigqueryBuilder.build().getService();
+    return BigQueryCache.getBigQuery(serviceAccountFilePath, project);
   }
 
   /**
-   * Validates if provided field schema matches with BigQuery table column type.
+   * Validates if provided field schema matches with BigQuery table column type. Arrays and maps must match
+   * REPEATED columns, the fields of records and maps are validated against the fields of RECORD columns.
    *
    * @param bqField bigquery table field
    * @param field schema field
@@ -156,8 +479,38 @@ public final class BigQueryUtil {
   public static void validateFieldSchemaMatches(Field bqField, Schema.Field field, String dataset, String table) {
     // validate type of fields against BigQuery column type
     Schema fieldSchema = getNonNullableSchema(field.getSchema());
+    boolean repeated = bqField.getMode() == Field.Mode.REPEATED;
+    if (isRepeated(fieldSchema) != repeated) {
+      throw new IllegalArgumentException(
+        String.format("Field '%s' of type '%s' is not compatible with %s column '%s' in BigQuery table '%s.%s'.",
+                      field.getName(), fieldSchema.getType(), repeated ? "REPEATED" : "non REPEATED",
+                      bqField.getName(), dataset, table));
+    }
+    if (fieldSchema.getType() == Schema.Type.ARRAY) {
+      fieldSchema = getNonNullableSchema(fieldSchema.getComponentSchema());
+    }
     Schema.Type type = fieldSchema.getType();
 
+    if (type == Schema.Type.RECORD || type == Schema.Type.MAP) {
+      if (bqField.getType() != LegacySQLTypeName.RECORD) {
+        throw new IllegalArgumentException(
+          String.format("Field '%s' of type '%s' is not compatible with column '%s' in BigQuery table" +
+                          " '%s.%s' of type '%s'. It must be of type '%s'.",
+                        field.getName(), type, bqField.getName(), dataset, table, bqField.getType(),
+                        LegacySQLTypeName.RECORD));
+      }
+      for (Schema.Field recordField : getRecordFields(fieldSchema)) {
+        Field subField = bqField.getSubFields().stream()
+          .filter(candidate -> candidate.getName().equals(recordField.getName()))
+          .findFirst()
+          .orElseThrow(() -> new IllegalArgumentException(
+            String.format("Field '%s' does not match column '%s' in BigQuery table '%s.%s', which has no '%s' field.",
+                          field.getName(), bqField.getName(), dataset, table, recordField.getName())));
+        validateFieldSchemaMatches(subField, recordField, dataset, table);
+      }
+      return;
+    }
+
     Schema.LogicalType logicalType = fieldSchema.getLogicalType();
 
     // validate logical types
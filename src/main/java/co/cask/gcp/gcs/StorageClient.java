@@ -21,27 +21,43 @@ import com.google.api.gax.paging.Page;
 import com.google.cloud.storage.Blob;
 import com.google.cloud.storage.BlobId;
 import com.google.cloud.storage.Bucket;
+import com.google.cloud.storage.BucketInfo;
 import com.google.cloud.storage.CopyWriter;
 import com.google.cloud.storage.Storage;
 import com.google.cloud.storage.StorageOptions;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.Consumer;
 import javax.annotation.Nullable;
 
 /**
- * A wrapper around the GCS storage client that has extended logic around recursively copying a "directory" on GCS.
+ * A wrapper around the GCS storage client that has extended logic around recursively copying a "directory" on GCS,
+ * deleting all objects under a prefix and getting a staging bucket with a lifecycle rule.
  */
 public class StorageClient {
   private static final Logger LOG = LoggerFactory.getLogger(StorageClient.class);
+  // maximum number of calls in a single batch request
+  private static final int DELETE_BATCH_SIZE = 100;
+  // maximum number of batch requests sent concurrently
+  private static final int DELETE_THREADS = 8;
   private final Storage storage;
 
-  private StorageClient(Storage storage) {
+  @VisibleForTesting
+  StorageClient(Storage storage) {
     this.storage = storage;
   }
 
@@ -75,6 +91,124 @@ public class StorageClient {
     pairTraverse(sourcePath, destPath, recursive, overwrite, BlobPair::move);
   }
 
+  /**
+   * Gets the staging bucket of the project, which is the bucket that carries the given label, creating it if there
+   * is none. Only buckets of the project of this client are considered, so a bucket of another project is never
+   * used. A new bucket gets the given prefix and a random suffix, so that its name can not be taken in advance by
+   * anyone else. Objects in the bucket are deleted by a lifecycle rule once they are older than the given number of
+   * days, so that objects which were not cleaned up do not pile up. The rule is added to an existing bucket that
+   * does not have it. If several buckets carry the label, because they were created concurrently, the first one by
+   * name is used.
+   *
+   * @param prefix prefix of the name of a new bucket
+   * @param label label that marks the staging bucket
+   * @param retentionDays age in days after which objects of the bucket are deleted
+   * @return name of the staging bucket
+   */
+  public String getOrCreateStagingBucket(String prefix, String label, int retentionDays) {
+    Bucket staging = null;
+    for (Bucket bucket : storage.list(Storage.BucketListOption.prefix(prefix)).iterateAll()) {
+      Map<String, String> labels = bucket.getLabels();
+      if (labels != null && labels.containsKey(label)
+        && (staging == null || bucket.getName().compareTo(staging.getName()) < 0)) {
+        staging = bucket;
+      }
+    }
+    if (staging != null) {
+      if (!hasDeleteRule(staging, retentionDays)) {
+        List<BucketInfo.DeleteRule> rules = new ArrayList<>();
+        if (staging.getDeleteRules() != null) {
+          rules.addAll(staging.getDeleteRules());
+        }
+        rules.add(new BucketInfo.AgeDeleteRule(retentionDays));
+        staging.toBuilder().setDeleteRules(rules).build().update();
+        LOG.debug("Added a rule to bucket '{}' to delete objects after {} days.", staging.getName(), retentionDays);
+      }
+      return staging.getName();
+    }
+
+    String name = prefix + UUID.randomUUID().toString().replace("-", "");
+    BucketInfo bucketInfo = BucketInfo.newBuilder(name)
+      .setLabels(Collections.singletonMap(label, "true"))
+      .setDeleteRules(Collections.singletonList(new BucketInfo.AgeDeleteRule(retentionDays)))
+      .build();
+    storage.create(bucketInfo);
+    LOG.debug("Created bucket '{}' with objects expiring after {} days.", name, retentionDays);
+    return name;
+  }
+
+  private static boolean hasDeleteRule(Bucket bucket, int retentionDays) {
+    if (bucket.getDeleteRules() == null) {
+      return false;
+    }
+    for (BucketInfo.DeleteRule rule : bucket.getDeleteRules()) {
+      if (rule instanceof BucketInfo.AgeDeleteRule
+        && ((BucketInfo.AgeDeleteRule) rule).getDaysToLive() <= retentionDays) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Deletes all objects whose name starts with the given prefix. Objects are deleted by batch requests of up to
+   * {@link #DELETE_BATCH_SIZE} objects each, of which up to {@link #DELETE_THREADS} are sent concurrently.
+   *
+   * @param bucket the bucket to delete objects from
+   * @param prefix prefix of the names of the objects to delete
+   * @return number of deleted objects
+   */
+  public int deletePrefix(String bucket, String prefix) {
+    ExecutorService executor = Executors.newFixedThreadPool(DELETE_THREADS, new ThreadFactoryBuilder()
+      .setNameFormat("gcs-delete-%d")
+      .setDaemon(true)
+      .build());
+    try {
+      List<Future<Integer>> results = new ArrayList<>();
+      List<BlobId> batch = new ArrayList<>(DELETE_BATCH_SIZE);
+      for (Blob blob : storage.list(bucket, Storage.BlobListOption.prefix(prefix)).iterateAll()) {
+        batch.add(blob.getBlobId());
+        if (batch.size() == DELETE_BATCH_SIZE) {
+          List<BlobId> blobIds = batch;
+          results.add(executor.submit(() -> deleteBatch(blobIds)));
+          batch = new ArrayList<>(DELETE_BATCH_SIZE);
+        }
+      }
+      if (!batch.isEmpty()) {
+        List<BlobId> blobIds = batch;
+        results.add(executor.submit(() -> deleteBatch(blobIds)));
+      }
+
+      int deleted = 0;
+      for (Future<Integer> result : results) {
+        try {
+          deleted += result.get();
+        } catch (ExecutionException e) {
+          Throwables.throwIfUnchecked(e.getCause());
+          throw new RuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          LOG.debug("Interrupted while deleting objects with prefix '{}' from bucket '{}'.", prefix, bucket);
+          return deleted;
+        }
+      }
+      LOG.debug("Deleted {} objects with prefix '{}' from bucket '{}'.", deleted, prefix, bucket);
+      return deleted;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private int deleteBatch(List<BlobId> blobIds) {
+    int deleted = 0;
+    for (Boolean result : storage.delete(blobIds)) {
+      if (result) {
+        deleted++;
+      }
+    }
+    return deleted;
+  }
+
   /**
    * Gets source and destination pairs by traversing the source path. Consumes each pair after the directory structure
    * is completely traversed.
@@ -29,5 +29,15 @@ public final class SpannerConstants {
   public static final String SPANNER_BATCH_TRANSACTION_ID = "spanner.batch.transaction.id";
   public static final String TABLE_NAME = "table";
   public static final String SPANNER_WRITE_BATCH_SIZE = "spanner.write.batch.size";
+  public static final String SPANNER_WRITE_MAX_IN_FLIGHT = "spanner.write.max.inflight";
+  public static final String SPANNER_WRITE_MIN_SESSIONS = "spanner.write.min.sessions";
+  public static final String SPANNER_WRITE_MAX_SESSIONS = "spanner.write.max.sessions";
+  public static final String SPANNER_WRITE_NUM_CHANNELS = "spanner.write.num.channels";
+  public static final String SPANNER_WRITE_WARM_UP = "spanner.write.warmup";
+  public static final String SPANNER_WRITE_CHECKPOINT_TABLE = "spanner.write.checkpoint.table";
+  public static final String SPANNER_WRITE_RUN_ID = "spanner.write.run.id";
+  public static final String SPANNER_WRITE_OPERATION = "spanner.write.operation";
+  public static final String SPANNER_WRITE_KEYS = "spanner.write.keys";
+  public static final String SPANNER_WRITE_SORT_WINDOW = "spanner.write.sort.window";
   public static final String SCHEMA = "schema";
 }
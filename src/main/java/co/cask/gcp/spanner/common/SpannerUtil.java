@@ -18,12 +18,14 @@ package co.cask.gcp.spanner.common;
 
 import co.cask.cdap.api.data.schema.Schema;
 import co.cask.gcp.common.GCPUtils;
+import com.google.cloud.spanner.SessionPoolOptions;
 import com.google.cloud.spanner.Spanner;
 import com.google.cloud.spanner.SpannerOptions;
 import com.google.common.collect.ImmutableSet;
 
 import java.io.IOException;
 import java.util.Set;
+import javax.annotation.Nullable;
 
 /**
  * Spanner utility class to get spanner service
@@ -34,19 +36,47 @@ public class SpannerUtil {
     ImmutableSet.of(Schema.Type.BOOLEAN, Schema.Type.STRING, Schema.Type.LONG, Schema.Type.DOUBLE,
                     Schema.Type.BYTES);
 
+  // ints and floats are widened to INT64 and FLOAT64 when they are written
+  private static final Set<Schema.Type> SUPPORTED_SINK_TYPES =
+    ImmutableSet.of(Schema.Type.BOOLEAN, Schema.Type.STRING, Schema.Type.INT, Schema.Type.LONG, Schema.Type.FLOAT,
+                    Schema.Type.DOUBLE, Schema.Type.BYTES);
+
   private static final Set<Schema.LogicalType> SUPPORTED_LOGICAL_TYPES =
     ImmutableSet.of(Schema.LogicalType.DATE, Schema.LogicalType.TIMESTAMP_MICROS);
 
+  private static final Set<Schema.LogicalType> SUPPORTED_SINK_LOGICAL_TYPES =
+    ImmutableSet.of(Schema.LogicalType.DATE, Schema.LogicalType.TIMESTAMP_MILLIS, Schema.LogicalType.TIMESTAMP_MICROS);
+
   /**
    * Construct and return the {@link Spanner} service for the provided credentials and projectId
    */
   public static Spanner getSpannerService(String serviceAccountFilePath, String projectId) throws IOException {
+    return getSpannerOptionsBuilder(serviceAccountFilePath, projectId).build().getService();
+  }
+
+  /**
+   * Construct and return the {@link Spanner} service for the provided credentials and projectId, with the provided
+   * session pool options and number of gRPC channels. The client default is used if the number of channels is null.
+   */
+  public static Spanner getSpannerService(String serviceAccountFilePath, String projectId,
+                                          SessionPoolOptions sessionPoolOptions,
+                                          @Nullable Integer numChannels) throws IOException {
+    SpannerOptions.Builder optionsBuilder = getSpannerOptionsBuilder(serviceAccountFilePath, projectId);
+    optionsBuilder.setSessionPoolOption(sessionPoolOptions);
+    if (numChannels != null) {
+      optionsBuilder.setNumChannels(numChannels);
+    }
+    return optionsBuilder.build().getService();
+  }
+
+  private static SpannerOptions.Builder getSpannerOptionsBuilder(String serviceAccountFilePath,
+                                                                 String projectId) throws IOException {
     SpannerOptions.Builder optionsBuilder = SpannerOptions.newBuilder();
     if (serviceAccountFilePath != null) {
       optionsBuilder.setCredentials(GCPUtils.loadServiceAccountCredentials(serviceAccountFilePath));
     }
     optionsBuilder.setProjectId(projectId);
-    return optionsBuilder.build().getService();
+    return optionsBuilder;
   }
 
   /**
@@ -72,6 +102,38 @@ public class SpannerUtil {
     }
   }
 
+  /**
+   * Validate that the schema can be written to Spanner. Besides the types supported by
+   * {@link #validateSchema(Schema)}, ints and floats are written to INT64 and FLOAT64 columns and arrays of them to
+   * ARRAY columns.
+   */
+  public static void validateSinkSchema(Schema schema) {
+    for (Schema.Field field : schema.getFields()) {
+      Schema fieldSchema = field.getSchema();
+      fieldSchema = fieldSchema.isNullable() ? fieldSchema.getNonNullable() : fieldSchema;
+      if (fieldSchema.getType() == Schema.Type.ARRAY) {
+        Schema componentSchema = fieldSchema.getComponentSchema();
+        componentSchema = componentSchema.isNullable() ? componentSchema.getNonNullable() : componentSchema;
+        if (componentSchema.getType() == Schema.Type.ARRAY) {
+          throw new IllegalArgumentException(
+            String.format("Field '%s' is an array of arrays, which is not supported by Spanner", field.getName()));
+        }
+        fieldSchema = componentSchema;
+      }
+
+      Schema.LogicalType logicalType = fieldSchema.getLogicalType();
+      if (logicalType != null && !SUPPORTED_SINK_LOGICAL_TYPES.contains(logicalType)) {
+        throw new IllegalArgumentException(String.format("Schema logical type %s not supported by Spanner sink",
+                                                         logicalType));
+      }
+
+      if (logicalType == null && !SUPPORTED_SINK_TYPES.contains(fieldSchema.getType())) {
+        throw new IllegalArgumentException(String.format("Schema type %s not supported by Spanner sink",
+                                                         fieldSchema.getType()));
+      }
+    }
+  }
+
   /**
    * Converts schema to Spanner create statement
    *
@@ -85,50 +147,9 @@ public class SpannerUtil {
     createStmt.append("CREATE TABLE ").append(tableName).append(" (");
 
     for (Schema.Field field : schema.getFields()) {
-      String name = field.getName();
       Schema fieldSchema = field.getSchema();
       fieldSchema = fieldSchema.isNullable() ? fieldSchema.getNonNullable() : fieldSchema;
-      Schema.LogicalType logicalType = fieldSchema.getLogicalType();
-      String spannerType;
-
-      if (logicalType != null) {
-        switch (logicalType) {
-          case DATE:
-            spannerType = "DATE";
-            break;
-          case TIMESTAMP_MILLIS:
-          case TIMESTAMP_MICROS:
-            spannerType = "TIMESTAMP";
-            break;
-          default:
-            // this should not happen
-            throw new IllegalStateException("Logical type " + logicalType + " is not supported.");
-        }
-        addColumn(createStmt, name, field.getSchema().isNullable(), spannerType);
-        continue;
-      }
-
-      Schema.Type type = fieldSchema.getType();
-      switch (type) {
-        case BOOLEAN:
-          spannerType = "BOOLEAN";
-          break;
-        case STRING:
-          spannerType = "STRING(MAX)";
-          break;
-        case LONG:
-          spannerType = "INT64";
-          break;
-        case DOUBLE:
-          spannerType = "FLOAT64";
-          break;
-        case BYTES:
-          spannerType = "BYTES(MAX)";
-          break;
-        default:
-          throw new IllegalStateException(type.name() + " : Type currently not supported.");
-      }
-      addColumn(createStmt, name, field.getSchema().isNullable(), spannerType);
+      addColumn(createStmt, field.getName(), field.getSchema().isNullable(), getSpannerType(fieldSchema));
     }
 
     // remove trailing ", "
@@ -141,6 +162,50 @@ public class SpannerUtil {
     return createStmt.toString();
   }
 
+  /**
+   * Gets the type of the Spanner column storing values of the given non-nullable schema.
+   */
+  private static String getSpannerType(Schema schema) {
+    Schema.LogicalType logicalType = schema.getLogicalType();
+    if (logicalType != null) {
+      switch (logicalType) {
+        case DATE:
+          return "DATE";
+        case TIMESTAMP_MILLIS:
+        case TIMESTAMP_MICROS:
+          return "TIMESTAMP";
+        default:
+          // this should not happen
+          throw new IllegalStateException("Logical type " + logicalType + " is not supported.");
+      }
+    }
+
+    Schema.Type type = schema.getType();
+    switch (type) {
+      case BOOLEAN:
+        return "BOOL";
+      case STRING:
+        return "STRING(MAX)";
+      case INT:
+      case LONG:
+        return "INT64";
+      case FLOAT:
+      case DOUBLE:
+        return "FLOAT64";
+      case BYTES:
+        return "BYTES(MAX)";
+      case ARRAY:
+        Schema componentSchema = schema.getComponentSchema();
+        componentSchema = componentSchema.isNullable() ? componentSchema.getNonNullable() : componentSchema;
+        if (componentSchema.getType() == Schema.Type.ARRAY) {
+          throw new IllegalStateException("Arrays of arrays are not supported.");
+        }
+        return "ARRAY<" + getSpannerType(componentSchema) + ">";
+      default:
+        throw new IllegalStateException(type.name() + " : Type currently not supported.");
+    }
+  }
+
   /**
    * Add column to create statement with appropriate type.
    */
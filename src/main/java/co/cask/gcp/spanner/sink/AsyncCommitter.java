@@ -0,0 +1,121 @@
+/*
+ * Copyright © 2018 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.gcp.spanner.sink;
+
+import com.google.cloud.spanner.DatabaseClient;
+import com.google.cloud.spanner.Mutation;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Commits batches of mutations to Spanner in the background, so that the record writer can fill the next batch
+ * while earlier batches are being committed. At most a fixed number of batches are in flight at the same time. Once
+ * that limit is reached, submitting another batch blocks until one of the commits completes.
+ *
+ * A failed commit fails the next submission, and all failures are reported when the committer is closed.
+ * Instances are meant to be used by a single writer thread.
+ */
+final class AsyncCommitter {
+  private static final Logger LOG = LoggerFactory.getLogger(AsyncCommitter.class);
+
+  private final DatabaseClient databaseClient;
+  private final ExecutorService executor;
+  private final Semaphore inFlight;
+  private final Queue<Throwable> failures;
+
+  /**
+   * @param databaseClient client of the database to commit to
+   * @param maxInFlight maximum number of batches committed at the same time
+   */
+  AsyncCommitter(DatabaseClient databaseClient, int maxInFlight) {
+    this.databaseClient = databaseClient;
+    this.executor = Executors.newFixedThreadPool(maxInFlight, new ThreadFactoryBuilder()
+      .setNameFormat("spanner-commit-%d")
+      .setDaemon(true)
+      .build());
+    this.inFlight = new Semaphore(maxInFlight);
+    this.failures = new ConcurrentLinkedQueue<>();
+  }
+
+  /**
+   * Commits the mutations in the background. Blocks while the maximum number of batches is in flight. The list of
+   * mutations must not be modified afterwards.
+   *
+   * @throws IOException if an earlier commit failed or if interrupted while waiting
+   */
+  void submit(List<Mutation> mutations) throws IOException {
+    checkFailures();
+    try {
+      inFlight.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting to commit mutations to Spanner.");
+    }
+    executor.execute(() -> {
+      try {
+        databaseClient.write(mutations);
+      } catch (Throwable t) {
+        LOG.debug("Failed to commit {} mutations to Spanner.", mutations.size(), t);
+        failures.add(t);
+      } finally {
+        inFlight.release();
+      }
+    });
+  }
+
+  /**
+   * Waits for all batches in flight to be committed.
+   *
+   * @throws IOException if any commit failed, with the first failure as cause and the others suppressed
+   */
+  void close() throws IOException {
+    executor.shutdown();
+    try {
+      while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+        LOG.debug("Waiting for Spanner commits to complete.");
+      }
+    } catch (InterruptedException e) {
+      executor.shutdownNow();
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for Spanner commits to complete.");
+    }
+    checkFailures();
+  }
+
+  private void checkFailures() throws IOException {
+    Throwable failure = failures.poll();
+    if (failure == null) {
+      return;
+    }
+    IOException e = new IOException("Failed to commit mutations to Spanner: " + failure.getMessage(), failure);
+    for (Throwable other = failures.poll(); other != null; other = failures.poll()) {
+      e.addSuppressed(other);
+    }
+    throw e;
+  }
+}
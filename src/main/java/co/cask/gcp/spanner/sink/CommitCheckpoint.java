@@ -0,0 +1,133 @@
+/*
+ * Copyright © 2018 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.gcp.spanner.sink;
+
+import com.google.cloud.spanner.DatabaseClient;
+import com.google.cloud.spanner.Key;
+import com.google.cloud.spanner.KeyRange;
+import com.google.cloud.spanner.KeySet;
+import com.google.cloud.spanner.Mutation;
+import com.google.cloud.spanner.ResultSet;
+import com.google.cloud.spanner.Statement;
+import com.google.cloud.spanner.Value;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Batches of a task committed to Spanner by earlier attempts of the task in the same run, so that a retried task
+ * skips the batches that were already committed instead of committing them again.
+ *
+ * Every batch is recorded in a checkpoint table in the same transaction as its mutations, so a batch is recorded if
+ * and only if it was committed. Batches are identified by their position in the task, together with the 128 bit
+ * murmur3 digest of their mutations that {@link MutationBatch} keeps, truncated to 64 bits. A batch is only skipped
+ * if the batch at the same position of an earlier attempt had the same digest, so records that reach a retried task
+ * in another order are committed again instead of being lost.
+ */
+final class CommitCheckpoint {
+  static final String RUN_ID = "run_id";
+  static final String TASK_ID = "task_id";
+  static final String BATCH = "batch";
+  static final String BATCH_HASH = "batch_hash";
+
+  private final String table;
+  private final String runId;
+  private final String taskId;
+  // hashes of the committed batches, keyed by their position in the task
+  private final Map<Long, Long> committed;
+
+  CommitCheckpoint(String table, String runId, String taskId, Map<Long, Long> committed) {
+    this.table = table;
+    this.runId = runId;
+    this.taskId = taskId;
+    this.committed = committed;
+  }
+
+  /**
+   * Reads the batches of the task committed by earlier attempts of the task in the run.
+   *
+   * @param databaseClient client of the database the checkpoint table belongs to
+   * @param table checkpoint table
+   * @param runId id of the run
+   * @param taskId id of the task, which is the same for all attempts of the task
+   */
+  static CommitCheckpoint load(DatabaseClient databaseClient, String table, String runId, String taskId) {
+    Statement statement = Statement.newBuilder(String.format("SELECT %s, %s FROM %s WHERE %s = @%s AND %s = @%s",
+                                                             BATCH, BATCH_HASH, table, RUN_ID, RUN_ID,
+                                                             TASK_ID, TASK_ID))
+      .bind(RUN_ID).to(runId)
+      .bind(TASK_ID).to(taskId)
+      .build();
+    Map<Long, Long> committed = new HashMap<>();
+    try (ResultSet resultSet = databaseClient.singleUse().executeQuery(statement)) {
+      while (resultSet.next()) {
+        committed.put(resultSet.getLong(0), resultSet.getLong(1));
+      }
+    }
+    return new CommitCheckpoint(table, runId, taskId, committed);
+  }
+
+  /**
+   * @return the statement creating the checkpoint table
+   */
+  static String getCreateStatement(String table) {
+    return String.format("CREATE TABLE %s (%s STRING(MAX) NOT NULL, %s STRING(MAX) NOT NULL, %s INT64 NOT NULL, " +
+                           "%s INT64 NOT NULL) PRIMARY KEY (%s, %s, %s)", table, RUN_ID, TASK_ID, BATCH, BATCH_HASH,
+                         RUN_ID, TASK_ID, BATCH);
+  }
+
+  /**
+   * @return the mutation deleting the checkpoints of all tasks of the run
+   */
+  static Mutation deleteRun(String table, String runId) {
+    return Mutation.delete(table, KeySet.range(KeyRange.prefix(Key.of(runId))));
+  }
+
+  /**
+   * @return an empty batch that keeps the digest of its mutations, with room left in the limits of a commit for the
+   *   mutation recording the batch
+   */
+  MutationBatch newBatch() {
+    int cells = 0;
+    long bytes = 0;
+    for (Value value : record(0, 0).getValues()) {
+      cells++;
+      bytes += MutationBatch.estimateBytes(value);
+    }
+    return new MutationBatch(MutationBatch.MAX_CELLS - cells, MutationBatch.MAX_BYTES - bytes, true);
+  }
+
+  /**
+   * @return whether the batch at the given position was committed by an earlier attempt with the same mutations
+   */
+  boolean isCommitted(long batch, long batchHash) {
+    Long committedHash = committed.get(batch);
+    return committedHash != null && committedHash == batchHash;
+  }
+
+  /**
+   * @return the mutation recording the batch at the given position, to be committed with the mutations of the batch
+   */
+  Mutation record(long batch, long batchHash) {
+    return Mutation.newInsertOrUpdateBuilder(table)
+      .set(RUN_ID).to(runId)
+      .set(TASK_ID).to(taskId)
+      .set(BATCH).to(batch)
+      .set(BATCH_HASH).to(batchHash)
+      .build();
+  }
+}
@@ -0,0 +1,342 @@
+/*
+ * Copyright © 2018 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.gcp.spanner.sink;
+
+import com.google.cloud.ByteArray;
+import com.google.cloud.Date;
+import com.google.cloud.Timestamp;
+import com.google.cloud.spanner.Key;
+import com.google.cloud.spanner.Mutation;
+import com.google.cloud.spanner.Value;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+/**
+ * Mutations buffered for a single commit. Besides the number of mutations, the batch keeps track of the estimated
+ * size of the mutations and of the number of cells they write, which Spanner limits per commit.
+ *
+ * The limits used are below Spanner's own limits of 20,000 cells and 100 MB per commit. Cells of secondary indexes
+ * also count towards the limit of a commit but are not known to the writer, and sizes are only estimated.
+ *
+ * Batches can also keep a 64 bit digest of the tables, keys and values of their mutations, which identifies a batch
+ * across task attempts. The digest is updated as mutations are added, from the values themselves rather than their
+ * string forms, so it is the same in every JVM.
+ */
+final class MutationBatch {
+  // maximum number of cells written by one commit, leaving room for the cells of secondary indexes
+  static final int MAX_CELLS = 15000;
+  // maximum estimated size of one commit in bytes
+  static final long MAX_BYTES = 50L * 1024 * 1024;
+  // estimated overhead of a value, besides its data
+  private static final int VALUE_OVERHEAD_BYTES = 8;
+  private static final HashFunction DIGEST = Hashing.murmur3_128();
+
+  private final List<Mutation> mutations = new ArrayList<>();
+  private final int maxCells;
+  private final long maxBytes;
+  // whether the digest of the mutations is kept
+  private final boolean digested;
+  private int cells;
+  private long bytes;
+  // digest of the mutations added so far, null once it has been hashed
+  private Hasher digest;
+  private Long hashed;
+
+  MutationBatch() {
+    this(MAX_CELLS, MAX_BYTES);
+  }
+
+  MutationBatch(int maxCells, long maxBytes) {
+    this(maxCells, maxBytes, false);
+  }
+
+  /**
+   * @param maxCells maximum number of cells of the batch
+   * @param maxBytes maximum estimated size of the batch
+   * @param digested whether the batch keeps the digest of its mutations
+   */
+  MutationBatch(int maxCells, long maxBytes, boolean digested) {
+    this.maxCells = maxCells;
+    this.maxBytes = maxBytes;
+    this.digested = digested;
+    this.digest = digested ? DIGEST.newHasher() : null;
+  }
+
+  /**
+   * Adds the mutation to the batch, unless the batch would exceed the cell or byte limit of a commit with it. A
+   * mutation is always added to an empty batch, so mutations exceeding the limits on their own are still written
+   * and rejected by Spanner.
+   *
+   * @return whether the mutation was added
+   */
+  boolean addIfFits(Mutation mutation) {
+    int mutationCells = 0;
+    long mutationBytes = 0;
+    if (mutation.getOperation() == Mutation.Op.DELETE) {
+      // deletes carry no values, Spanner counts them as a single mutation of the table
+      mutationCells = 1;
+      mutationBytes = VALUE_OVERHEAD_BYTES;
+    } else {
+      for (Value value : mutation.getValues()) {
+        mutationCells++;
+        mutationBytes += estimateBytes(value);
+      }
+    }
+    if (!mutations.isEmpty() && (cells + mutationCells > maxCells || bytes + mutationBytes > maxBytes)) {
+      return false;
+    }
+    mutations.add(mutation);
+    cells += mutationCells;
+    bytes += mutationBytes;
+    if (digested) {
+      if (digest == null) {
+        // the digest was taken already and a hasher can only be hashed once, start over from the batch
+        digest = DIGEST.newHasher();
+        for (int i = 0; i < mutations.size() - 1; i++) {
+          putMutation(digest, mutations.get(i));
+        }
+        hashed = null;
+      }
+      putMutation(digest, mutation);
+    }
+    return true;
+  }
+
+  /**
+   * @return the digest of the mutations of the batch, in the order they were added
+   * @throws IllegalStateException if the batch does not keep a digest
+   */
+  long getDigest() {
+    if (!digested) {
+      throw new IllegalStateException("The batch does not keep a digest of its mutations.");
+    }
+    if (hashed == null) {
+      hashed = digest.hash().asLong();
+      digest = null;
+    }
+    return hashed;
+  }
+
+  List<Mutation> getMutations() {
+    return mutations;
+  }
+
+  int size() {
+    return mutations.size();
+  }
+
+  boolean isEmpty() {
+    return mutations.isEmpty();
+  }
+
+  int getCells() {
+    return cells;
+  }
+
+  long getBytes() {
+    return bytes;
+  }
+
+  void clear() {
+    mutations.clear();
+    cells = 0;
+    bytes = 0;
+    if (digested) {
+      digest = DIGEST.newHasher();
+      hashed = null;
+    }
+  }
+
+  /**
+   * Adds the table, operation, keys and values of a mutation to a digest.
+   */
+  private static void putMutation(Hasher hasher, Mutation mutation) {
+    hasher.putUnencodedChars(mutation.getTable()).putInt(mutation.getOperation().ordinal());
+    if (mutation.getOperation() == Mutation.Op.DELETE) {
+      putElements(hasher, mutation.getKeySet().getKeys(), MutationBatch::putKey);
+      putElements(hasher, mutation.getKeySet().getRanges(), (h, range) -> {
+        putKey(h, range.getStart());
+        putKey(h, range.getEnd());
+        h.putInt(range.getStartType().ordinal()).putInt(range.getEndType().ordinal());
+      });
+      hasher.putBoolean(mutation.getKeySet().isAll());
+      return;
+    }
+    putElements(hasher, mutation.getColumns(), Hasher::putUnencodedChars);
+    putElements(hasher, mutation.getValues(), MutationBatch::putValue);
+  }
+
+  private static void putKey(Hasher hasher, Key key) {
+    // key parts are booleans, numbers, strings, bytes, timestamps and dates, which all have stable string forms
+    putElements(hasher, key.getParts(), (h, part) -> h.putUnencodedChars(String.valueOf(part)));
+  }
+
+  private static void putValue(Hasher hasher, Value value) {
+    hasher.putBoolean(value.isNull());
+    if (value.isNull()) {
+      return;
+    }
+    switch (value.getType().getCode()) {
+      case BOOL:
+        hasher.putBoolean(value.getBool());
+        break;
+      case INT64:
+        hasher.putLong(value.getInt64());
+        break;
+      case FLOAT64:
+        hasher.putDouble(value.getFloat64());
+        break;
+      case STRING:
+        hasher.putUnencodedChars(value.getString());
+        break;
+      case BYTES:
+        hasher.putBytes(value.getBytes().toByteArray());
+        break;
+      case TIMESTAMP:
+        putTimestamp(hasher, value.getTimestamp());
+        break;
+      case DATE:
+        putDate(hasher, value.getDate());
+        break;
+      case ARRAY:
+        putArray(hasher, value);
+        break;
+      default:
+        hasher.putUnencodedChars(value.toString());
+    }
+  }
+
+  /**
+   * Adds the elements of a non-null array value to a digest.
+   */
+  private static void putArray(Hasher hasher, Value value) {
+    switch (value.getType().getArrayElementType().getCode()) {
+      case BOOL:
+        putElements(hasher, value.getBoolArray(), Hasher::putBoolean);
+        break;
+      case INT64:
+        putElements(hasher, value.getInt64Array(), Hasher::putLong);
+        break;
+      case FLOAT64:
+        putElements(hasher, value.getFloat64Array(), Hasher::putDouble);
+        break;
+      case STRING:
+        putElements(hasher, value.getStringArray(), Hasher::putUnencodedChars);
+        break;
+      case BYTES:
+        putElements(hasher, value.getBytesArray(), (h, element) -> h.putBytes(element.toByteArray()));
+        break;
+      case TIMESTAMP:
+        putElements(hasher, value.getTimestampArray(), MutationBatch::putTimestamp);
+        break;
+      case DATE:
+        putElements(hasher, value.getDateArray(), MutationBatch::putDate);
+        break;
+      default:
+        hasher.putUnencodedChars(value.toString());
+    }
+  }
+
+  private static void putTimestamp(Hasher hasher, Timestamp timestamp) {
+    hasher.putLong(timestamp.getSeconds()).putInt(timestamp.getNanos());
+  }
+
+  private static void putDate(Hasher hasher, Date date) {
+    hasher.putInt(date.getYear()).putInt(date.getMonth()).putInt(date.getDayOfMonth());
+  }
+
+  /**
+   * Adds the size of a collection and its elements to a digest, so that elements are not mistaken for the ones of
+   * neighbouring collections.
+   */
+  private static <T> void putElements(Hasher hasher, Iterable<T> elements, BiConsumer<Hasher, T> put) {
+    int size = 0;
+    for (T element : elements) {
+      hasher.putBoolean(element == null);
+      if (element != null) {
+        put.accept(hasher, element);
+      }
+      size++;
+    }
+    hasher.putInt(size);
+  }
+
+  /**
+   * Estimates the number of bytes a value adds to a commit.
+   */
+  static long estimateBytes(Value value) {
+    if (value.isNull()) {
+      return VALUE_OVERHEAD_BYTES;
+    }
+    switch (value.getType().getCode()) {
+      case BOOL:
+        return VALUE_OVERHEAD_BYTES + 1;
+      case DATE:
+        return VALUE_OVERHEAD_BYTES + 4;
+      case INT64:
+      case FLOAT64:
+        return VALUE_OVERHEAD_BYTES + 8;
+      case TIMESTAMP:
+        return VALUE_OVERHEAD_BYTES + 12;
+      case STRING:
+        // characters outside of ASCII take more than one byte, which is close enough for an estimate
+        return VALUE_OVERHEAD_BYTES + value.getString().length();
+      case BYTES:
+        return VALUE_OVERHEAD_BYTES + value.getBytes().length();
+      case ARRAY:
+        return VALUE_OVERHEAD_BYTES + estimateArrayBytes(value);
+      default:
+        return VALUE_OVERHEAD_BYTES;
+    }
+  }
+
+  /**
+   * Estimates the number of bytes of the elements of a non-null array value.
+   */
+  private static long estimateArrayBytes(Value value) {
+    long bytes = 0;
+    switch (value.getType().getArrayElementType().getCode()) {
+      case BOOL:
+        return value.getBoolArray().size();
+      case DATE:
+        return 4L * value.getDateArray().size();
+      case INT64:
+        return 8L * value.getInt64Array().size();
+      case FLOAT64:
+        return 8L * value.getFloat64Array().size();
+      case TIMESTAMP:
+        return 12L * value.getTimestampArray().size();
+      case STRING:
+        for (String element : value.getStringArray()) {
+          bytes += element == null ? 0 : element.length();
+        }
+        return bytes;
+      case BYTES:
+        for (ByteArray element : value.getBytesArray()) {
+          bytes += element == null ? 0 : element.length();
+        }
+        return bytes;
+      default:
+        return bytes;
+    }
+  }
+}
@@ -0,0 +1,343 @@
+/*
+ * Copyright © 2018 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.gcp.spanner.sink;
+
+import co.cask.cdap.api.data.format.StructuredRecord;
+import co.cask.cdap.api.data.schema.Schema;
+import com.google.cloud.ByteArray;
+import com.google.cloud.Date;
+import com.google.cloud.Timestamp;
+import com.google.cloud.spanner.Key;
+import com.google.cloud.spanner.KeyRange;
+import com.google.cloud.spanner.KeySet;
+import com.google.cloud.spanner.Mutation;
+
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import javax.annotation.Nullable;
+
+/**
+ * Converts StructuredRecords of a schema into Spanner insert or update mutations, or into delete mutations of the
+ * rows with the primary keys of the records.
+ *
+ * The conversion of every field is compiled once for the schema, so that converting a record does not walk the
+ * schema, unwrap nullable schemas or switch on types again. Values are converted from their raw StructuredRecord
+ * representation, without going through the java.time conversions of {@link StructuredRecord}. Ints and floats are
+ * widened to INT64 and FLOAT64, and arrays are written to ARRAY columns of the type of their elements.
+ */
+final class MutationBinder {
+  private final String tableName;
+  private final FieldBinder[] binders;
+  // binders of the primary key parts of deletes, or null if records are inserted or updated
+  private final KeyPartBinder[] keyBinders;
+  private final boolean prefixDelete;
+
+  private MutationBinder(String tableName, FieldBinder[] binders, @Nullable KeyPartBinder[] keyBinders,
+                         boolean prefixDelete) {
+    this.tableName = tableName;
+    this.binders = binders;
+    this.keyBinders = keyBinders;
+    this.prefixDelete = prefixDelete;
+  }
+
+  /**
+   * Compiles the binder of records of the given schema.
+   *
+   * @param tableName table the mutations write to
+   * @param schema schema of the records
+   * @throws IOException if a field is of a type that is not supported
+   */
+  static MutationBinder compile(String tableName, Schema schema) throws IOException {
+    List<Schema.Field> fields = schema.getFields();
+    FieldBinder[] binders = new FieldBinder[fields.size()];
+    for (int i = 0; i < fields.size(); i++) {
+      binders[i] = compile(fields.get(i));
+    }
+    return new MutationBinder(tableName, binders, null, false);
+  }
+
+  /**
+   * Compiles the binder of deletes of the rows with the primary keys of records of the given schema.
+   *
+   * @param tableName table the mutations delete from
+   * @param schema schema of the records
+   * @param keyFields primary key columns contained in the records, in key order
+   * @param prefixDelete whether all rows whose primary key starts with the key of a record are deleted, instead of
+   *                     the row with exactly that key
+   * @throws IOException if a key column is missing from the schema or of a type that is not supported
+   */
+  static MutationBinder compileDelete(String tableName, Schema schema, List<String> keyFields,
+                                      boolean prefixDelete) throws IOException {
+    KeyPartBinder[] keyBinders = new KeyPartBinder[keyFields.size()];
+    for (int i = 0; i < keyFields.size(); i++) {
+      Schema.Field field = schema.getField(keyFields.get(i));
+      if (field == null) {
+        throw new IOException("Primary key column " + keyFields.get(i) + " is not present in the schema.");
+      }
+      keyBinders[i] = compileKeyPart(field);
+    }
+    return new MutationBinder(tableName, new FieldBinder[0], keyBinders, prefixDelete);
+  }
+
+  /**
+   * @return the mutation writing the record to the table, or deleting the rows with its key
+   */
+  Mutation bind(StructuredRecord record) {
+    if (keyBinders != null) {
+      Key.Builder key = Key.newBuilder();
+      for (KeyPartBinder binder : keyBinders) {
+        binder.bind(record, key);
+      }
+      // a prefix range is deleted by Spanner without reading the keys of the rows in it
+      return prefixDelete ? Mutation.delete(tableName, KeySet.range(KeyRange.prefix(key.build())))
+        : Mutation.delete(tableName, key.build());
+    }
+
+    Mutation.WriteBuilder builder = Mutation.newInsertOrUpdateBuilder(tableName);
+    for (FieldBinder binder : binders) {
+      binder.bind(record, builder);
+    }
+    return builder.build();
+  }
+
+  private static FieldBinder compile(Schema.Field field) throws IOException {
+    String name = field.getName();
+    Schema fieldSchema = field.getSchema();
+    fieldSchema = fieldSchema.isNullable() ? fieldSchema.getNonNullable() : fieldSchema;
+    Schema.LogicalType logicalType = fieldSchema.getLogicalType();
+
+    if (logicalType != null) {
+      // null dates and timestamps are not written, so the column keeps its value
+      switch (logicalType) {
+        case DATE:
+          return (record, builder) -> {
+            Integer days = record.get(name);
+            if (days != null) {
+              builder.set(name).to(toDate(days));
+            }
+          };
+        case TIMESTAMP_MILLIS:
+          return (record, builder) -> {
+            Long millis = record.get(name);
+            if (millis != null) {
+              builder.set(name).to(Timestamp.ofTimeMicroseconds(TimeUnit.MILLISECONDS.toMicros(millis)));
+            }
+          };
+        case TIMESTAMP_MICROS:
+          return (record, builder) -> {
+            Long micros = record.get(name);
+            if (micros != null) {
+              builder.set(name).to(Timestamp.ofTimeMicroseconds(micros));
+            }
+          };
+        default:
+          throw new IOException("Logical type" + logicalType + " is not supported.");
+      }
+    }
+
+    Schema.Type type = fieldSchema.getType();
+    switch (type) {
+      case BOOLEAN:
+        return (record, builder) -> builder.set(name).to(record.<Boolean>get(name));
+      case STRING:
+        return (record, builder) -> builder.set(name).to(record.<String>get(name));
+      case INT:
+        return (record, builder) -> {
+          Integer value = record.get(name);
+          builder.set(name).to(value == null ? null : value.longValue());
+        };
+      case LONG:
+        return (record, builder) -> builder.set(name).to(record.<Long>get(name));
+      case FLOAT:
+        return (record, builder) -> {
+          Float value = record.get(name);
+          builder.set(name).to(value == null ? null : value.doubleValue());
+        };
+      case DOUBLE:
+        return (record, builder) -> builder.set(name).to(record.<Double>get(name));
+      case BYTES:
+        return (record, builder) -> builder.set(name).to(toByteArray(record.get(name)));
+      case ARRAY:
+        return compileArray(name, fieldSchema.getComponentSchema());
+      default:
+        throw new IOException(type.name() + " : Type currently not supported.");
+    }
+  }
+
+  private static KeyPartBinder compileKeyPart(Schema.Field field) throws IOException {
+    String name = field.getName();
+    Schema fieldSchema = field.getSchema();
+    fieldSchema = fieldSchema.isNullable() ? fieldSchema.getNonNullable() : fieldSchema;
+    Schema.LogicalType logicalType = fieldSchema.getLogicalType();
+
+    if (logicalType != null) {
+      switch (logicalType) {
+        case DATE:
+          return (record, key) -> {
+            Integer days = record.get(name);
+            key.append(days == null ? null : toDate(days));
+          };
+        case TIMESTAMP_MILLIS:
+          return (record, key) -> {
+            Long millis = record.get(name);
+            key.append(millis == null ? null : Timestamp.ofTimeMicroseconds(TimeUnit.MILLISECONDS.toMicros(millis)));
+          };
+        case TIMESTAMP_MICROS:
+          return (record, key) -> {
+            Long micros = record.get(name);
+            key.append(micros == null ? null : Timestamp.ofTimeMicroseconds(micros));
+          };
+        default:
+          throw new IOException("Logical type" + logicalType + " is not supported in primary keys.");
+      }
+    }
+
+    Schema.Type type = fieldSchema.getType();
+    switch (type) {
+      case BOOLEAN:
+        return (record, key) -> key.append(record.<Boolean>get(name));
+      case STRING:
+        return (record, key) -> key.append(record.<String>get(name));
+      case INT:
+        return (record, key) -> {
+          Integer value = record.get(name);
+          key.append(value == null ? null : value.longValue());
+        };
+      case LONG:
+        return (record, key) -> key.append(record.<Long>get(name));
+      case FLOAT:
+        return (record, key) -> {
+          Float value = record.get(name);
+          key.append(value == null ? null : value.doubleValue());
+        };
+      case DOUBLE:
+        return (record, key) -> key.append(record.<Double>get(name));
+      case BYTES:
+        return (record, key) -> key.append(toByteArray(record.get(name)));
+      default:
+        throw new IOException(type.name() + " : Type currently not supported in primary keys.");
+    }
+  }
+
+  /**
+   * Compiles the binder of an array field. Null arrays and null elements are written as nulls.
+   */
+  private static FieldBinder compileArray(String name, Schema componentSchema) throws IOException {
+    componentSchema = componentSchema.isNullable() ? componentSchema.getNonNullable() : componentSchema;
+    Schema.LogicalType logicalType = componentSchema.getLogicalType();
+
+    if (logicalType != null) {
+      switch (logicalType) {
+        case DATE:
+          return (record, builder) ->
+            builder.set(name).toDateArray(toList(record.get(name), days -> toDate((Integer) days)));
+        case TIMESTAMP_MILLIS:
+          return (record, builder) -> builder.set(name).toTimestampArray(toList(
+            record.get(name), millis -> Timestamp.ofTimeMicroseconds(TimeUnit.MILLISECONDS.toMicros((Long) millis))));
+        case TIMESTAMP_MICROS:
+          return (record, builder) -> builder.set(name).toTimestampArray(toList(
+            record.get(name), micros -> Timestamp.ofTimeMicroseconds((Long) micros)));
+        default:
+          throw new IOException("Logical type" + logicalType + " is not supported in arrays.");
+      }
+    }
+
+    Schema.Type type = componentSchema.getType();
+    switch (type) {
+      case BOOLEAN:
+        return (record, builder) -> builder.set(name).toBoolArray(toList(record.get(name), value -> (Boolean) value));
+      case STRING:
+        return (record, builder) -> builder.set(name).toStringArray(toList(record.get(name), value -> (String) value));
+      case INT:
+      case LONG:
+        return (record, builder) ->
+          builder.set(name).toInt64Array(toList(record.get(name), value -> ((Number) value).longValue()));
+      case FLOAT:
+      case DOUBLE:
+        return (record, builder) ->
+          builder.set(name).toFloat64Array(toList(record.get(name), value -> ((Number) value).doubleValue()));
+      case BYTES:
+        return (record, builder) ->
+          builder.set(name).toBytesArray(toList(record.get(name), MutationBinder::toByteArray));
+      default:
+        throw new IOException(type.name() + " : Type currently not supported in arrays.");
+    }
+  }
+
+  /**
+   * Converts the elements of an array field, which is either a collection or a java array, possibly of a
+   * primitive type.
+   */
+  @Nullable
+  private static <T> List<T> toList(@Nullable Object array, Function<Object, T> converter) {
+    if (array == null) {
+      return null;
+    }
+    if (array instanceof Collection) {
+      Collection<?> elements = (Collection<?>) array;
+      List<T> list = new ArrayList<>(elements.size());
+      for (Object element : elements) {
+        list.add(element == null ? null : converter.apply(element));
+      }
+      return list;
+    }
+    int length = Array.getLength(array);
+    List<T> list = new ArrayList<>(length);
+    for (int i = 0; i < length; i++) {
+      Object element = Array.get(array, i);
+      list.add(element == null ? null : converter.apply(element));
+    }
+    return list;
+  }
+
+  private static Date toDate(int days) {
+    LocalDate date = LocalDate.ofEpochDay(days);
+    return Date.fromYearMonthDay(date.getYear(), date.getMonthValue(), date.getDayOfMonth());
+  }
+
+  private static ByteArray toByteArray(Object value) {
+    if (value == null) {
+      return null;
+    }
+    if (value instanceof ByteBuffer) {
+      // copying moves the position of the buffer, which belongs to the record
+      return ByteArray.copyFrom(((ByteBuffer) value).duplicate());
+    }
+    return ByteArray.copyFrom((byte[]) value);
+  }
+
+  /**
+   * Sets the value of a single field of a record in a mutation.
+   */
+  private interface FieldBinder {
+    void bind(StructuredRecord record, Mutation.WriteBuilder builder);
+  }
+
+  /**
+   * Appends the value of a single primary key column of a record to a key.
+   */
+  private interface KeyPartBinder {
+    void bind(StructuredRecord record, Key.Builder key);
+  }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright © 2018 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.gcp.spanner.sink;
+
+import co.cask.cdap.api.data.format.StructuredRecord;
+import com.google.cloud.spanner.Mutation;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Window of mutations that are sorted by their primary key before they are committed. Committing key-contiguous
+ * mutations together keeps every commit within few Spanner splits, instead of a commit of mutations with random
+ * keys spanning many splits and becoming an expensive multi-participant transaction.
+ *
+ * Keys are ordered like Spanner orders them, with nulls first. Strings are compared by UTF-16 code units, which only
+ * differs from Spanner's UTF-8 byte order for characters outside of the basic multilingual plane.
+ */
+final class SortedMutationWindow {
+  private static final Comparator<Entry> ENTRY_ORDER = (e1, e2) -> compareKeys(e1.key, e2.key);
+
+  private final List<String> keyFields;
+  private final int size;
+  private final List<Entry> entries;
+
+  /**
+   * @param keyFields fields of the primary key, in key order
+   * @param size number of mutations the window holds
+   */
+  SortedMutationWindow(List<String> keyFields, int size) {
+    this.keyFields = keyFields;
+    this.size = size;
+    this.entries = new ArrayList<>(size);
+  }
+
+  /**
+   * Adds the mutation of the record to the window.
+   */
+  void add(StructuredRecord record, Mutation mutation) {
+    Object[] key = new Object[keyFields.size()];
+    for (int i = 0; i < key.length; i++) {
+      key[i] = record.get(keyFields.get(i));
+    }
+    entries.add(new Entry(key, mutation));
+  }
+
+  boolean isFull() {
+    return entries.size() >= size;
+  }
+
+  boolean isEmpty() {
+    return entries.isEmpty();
+  }
+
+  /**
+   * Removes all mutations from the window.
+   *
+   * @return the mutations, sorted by key
+   */
+  List<Mutation> drainSorted() {
+    entries.sort(ENTRY_ORDER);
+    List<Mutation> mutations = entries.stream().map(entry -> entry.mutation).collect(Collectors.toList());
+    entries.clear();
+    return mutations;
+  }
+
+  static int compareKeys(Object[] key1, Object[] key2) {
+    for (int i = 0; i < key1.length; i++) {
+      int result = compareValues(key1[i], key2[i]);
+      if (result != 0) {
+        return result;
+      }
+    }
+    return 0;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static int compareValues(Object value1, Object value2) {
+    if (value1 == null || value2 == null) {
+      return value1 == null ? (value2 == null ? 0 : -1) : 1;
+    }
+    if (value1 instanceof byte[] || value1 instanceof ByteBuffer) {
+      return compareBytes(toByteBuffer(value1), toByteBuffer(value2));
+    }
+    // booleans, numbers, strings, dates as days and timestamps as microseconds
+    return ((Comparable<Object>) value1).compareTo(value2);
+  }
+
+  private static ByteBuffer toByteBuffer(Object value) {
+    return value instanceof byte[] ? ByteBuffer.wrap((byte[]) value) : ((ByteBuffer) value).duplicate();
+  }
+
+  /**
+   * Compares bytes as unsigned values, like Spanner orders BYTES keys.
+   */
+  private static int compareBytes(ByteBuffer bytes1, ByteBuffer bytes2) {
+    int length = Math.min(bytes1.remaining(), bytes2.remaining());
+    for (int i = 0; i < length; i++) {
+      int result = Integer.compare(bytes1.get(bytes1.position() + i) & 0xff, bytes2.get(bytes2.position() + i) & 0xff);
+      if (result != 0) {
+        return result;
+      }
+    }
+    return Integer.compare(bytes1.remaining(), bytes2.remaining());
+  }
+
+  /**
+   * Mutation with the primary key of its row.
+   */
+  private static final class Entry {
+    private final Object[] key;
+    private final Mutation mutation;
+
+    private Entry(Object[] key, Mutation mutation) {
+      this.key = key;
+      this.mutation = mutation;
+    }
+  }
+}
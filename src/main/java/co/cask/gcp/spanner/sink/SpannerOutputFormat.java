@@ -20,13 +20,14 @@ import co.cask.cdap.api.data.format.StructuredRecord;
 import co.cask.cdap.api.data.schema.Schema;
 import co.cask.gcp.spanner.SpannerConstants;
 import co.cask.gcp.spanner.common.SpannerUtil;
-import com.google.cloud.ByteArray;
-import com.google.cloud.Date;
-import com.google.cloud.Timestamp;
 import com.google.cloud.spanner.DatabaseClient;
 import com.google.cloud.spanner.DatabaseId;
 import com.google.cloud.spanner.Mutation;
+import com.google.cloud.spanner.ResultSet;
+import com.google.cloud.spanner.SessionPoolOptions;
 import com.google.cloud.spanner.Spanner;
+import com.google.cloud.spanner.SpannerException;
+import com.google.cloud.spanner.Statement;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.mapreduce.JobContext;
@@ -36,10 +37,10 @@ import org.apache.hadoop.mapreduce.RecordWriter;
 import org.apache.hadoop.mapreduce.TaskAttemptContext;
 
 import java.io.IOException;
-import java.time.LocalDate;
-import java.time.ZonedDateTime;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import javax.annotation.Nullable;
 
 /**
  * Spanner output format
@@ -51,8 +52,10 @@ public class SpannerOutputFormat extends OutputFormat<NullWritable, StructuredRe
    *
    * @param configuration the Hadoop configuration to set the properties in
    * @param config the spanner configuration
+   * @param keys primary key columns of the records, used to sort windows of mutations and to build the keys of
+   *             deletes, or null if they are not needed
    */
-  public static void configure(Configuration configuration, SpannerSinkConfig config) {
+  public static void configure(Configuration configuration, SpannerSinkConfig config, @Nullable List<String> keys) {
     String projectId = config.getProject();
     configuration.set(SpannerConstants.PROJECT_ID, projectId);
     String serviceAccountFilePath = config.getServiceAccountFilePath();
@@ -63,7 +66,24 @@ public class SpannerOutputFormat extends OutputFormat<NullWritable, StructuredRe
     configuration.set(SpannerConstants.DATABASE, config.getDatabase());
     configuration.set(SpannerConstants.TABLE_NAME, config.getTable());
     configuration.set(SpannerConstants.SPANNER_WRITE_BATCH_SIZE, String.valueOf(config.getBatchSize()));
+    configuration.set(SpannerConstants.SPANNER_WRITE_MAX_IN_FLIGHT, String.valueOf(config.getMaxInFlightCommits()));
+    configuration.setInt(SpannerConstants.SPANNER_WRITE_MIN_SESSIONS, config.getMinSessions());
+    configuration.setInt(SpannerConstants.SPANNER_WRITE_MAX_SESSIONS, config.getMaxSessions());
+    if (config.getNumChannels() != null) {
+      configuration.setInt(SpannerConstants.SPANNER_WRITE_NUM_CHANNELS, config.getNumChannels());
+    }
+    configuration.setBoolean(SpannerConstants.SPANNER_WRITE_WARM_UP, config.isWarmUpSessions());
     configuration.set(SpannerConstants.SCHEMA, config.getSchema().toString());
+    configuration.set(SpannerConstants.SPANNER_WRITE_OPERATION, config.getOperation().name());
+    if (config.getCheckpointTable() != null) {
+      configuration.set(SpannerConstants.SPANNER_WRITE_CHECKPOINT_TABLE, config.getCheckpointTable());
+    }
+    if (keys != null) {
+      configuration.set(SpannerConstants.SPANNER_WRITE_KEYS, String.join(",", keys));
+      if (config.getSortWindowSize() != null) {
+        configuration.set(SpannerConstants.SPANNER_WRITE_SORT_WINDOW, String.valueOf(config.getSortWindowSize()));
+      }
+    }
   }
 
   @Override
@@ -76,102 +96,189 @@ public class SpannerOutputFormat extends OutputFormat<NullWritable, StructuredRe
     String serviceFilePath = configuration.get(SpannerConstants.SERVICE_ACCOUNT_FILE_PATH);
     String tableName = configuration.get(SpannerConstants.TABLE_NAME);
     Schema schema = Schema.parseJson(configuration.get(SpannerConstants.SCHEMA));
-    Spanner spanner = SpannerUtil.getSpannerService(serviceFilePath, projectId);
+    WriteOperation operation = WriteOperation.valueOf(configuration.get(SpannerConstants.SPANNER_WRITE_OPERATION));
+    String keys = configuration.get(SpannerConstants.SPANNER_WRITE_KEYS);
+    List<String> keyFields = keys == null ? null : Arrays.asList(keys.split(","));
+    // compiled before the service is created, so that unsupported schemas fail without leaking it
+    MutationBinder binder;
+    if (operation == WriteOperation.UPSERT) {
+      binder = MutationBinder.compile(tableName, schema);
+    } else if (keyFields == null) {
+      throw new IOException("Primary key columns of table " + tableName + " are required to delete from it.");
+    } else {
+      binder = MutationBinder.compileDelete(tableName, schema, keyFields, operation == WriteOperation.DELETE_PREFIX);
+    }
     int batchSize = Integer.parseInt(configuration.get(SpannerConstants.SPANNER_WRITE_BATCH_SIZE));
+    int maxInFlight = Integer.parseInt(configuration.get(SpannerConstants.SPANNER_WRITE_MAX_IN_FLIGHT));
+    // the pool creates the minimum number of sessions as soon as the client is created, and prepares them for the
+    // read-write transactions that commit the batches
+    SessionPoolOptions sessionPoolOptions = SessionPoolOptions.newBuilder()
+      .setMinSessions(configuration.getInt(SpannerConstants.SPANNER_WRITE_MIN_SESSIONS, maxInFlight))
+      .setMaxSessions(configuration.getInt(SpannerConstants.SPANNER_WRITE_MAX_SESSIONS, maxInFlight))
+      .setWriteSessionsFraction(1.0f)
+      .build();
+    String numChannels = configuration.get(SpannerConstants.SPANNER_WRITE_NUM_CHANNELS);
+    Spanner spanner = SpannerUtil.getSpannerService(serviceFilePath, projectId, sessionPoolOptions,
+                                                    numChannels == null ? null : Integer.parseInt(numChannels));
     DatabaseId db = DatabaseId.of(projectId, instanceId, database);
     DatabaseClient client = spanner.getDatabaseClient(db);
-    return new SpannerRecordWriter(spanner, tableName, client, batchSize, schema);
+    if (configuration.getBoolean(SpannerConstants.SPANNER_WRITE_WARM_UP, false)) {
+      warmUp(spanner, client);
+    }
+    CommitCheckpoint checkpoint = null;
+    String checkpointTable = configuration.get(SpannerConstants.SPANNER_WRITE_CHECKPOINT_TABLE);
+    if (checkpointTable != null) {
+      // all attempts of a task share the task id
+      checkpoint = loadCheckpoint(spanner, client, checkpointTable,
+                                  configuration.get(SpannerConstants.SPANNER_WRITE_RUN_ID),
+                                  context.getTaskAttemptID().getTaskID().toString());
+    }
+    SortedMutationWindow window = null;
+    String sortWindow = configuration.get(SpannerConstants.SPANNER_WRITE_SORT_WINDOW);
+    if (sortWindow != null && keyFields != null) {
+      window = new SortedMutationWindow(keyFields, Integer.parseInt(sortWindow));
+    }
+    return new SpannerRecordWriter(spanner, binder, new AsyncCommitter(client, maxInFlight), batchSize, window,
+                                   checkpoint);
   }
 
   /**
-   * Spanner record writer that buffers mutations and writes to spanner
+   * Reads the batches committed by earlier attempts of the task. The service is closed if that fails.
+   */
+  private static CommitCheckpoint loadCheckpoint(Spanner spanner, DatabaseClient client, String table, String runId,
+                                                 String taskId) throws IOException {
+    try {
+      return CommitCheckpoint.load(client, table, runId, taskId);
+    } catch (SpannerException e) {
+      spanner.close();
+      throw new IOException("Failed to read Spanner commit checkpoints from table " + table + ".", e);
+    }
+  }
+
+  /**
+   * Waits for a session of the client to be ready, so that connecting to Spanner and creating sessions does not
+   * delay the first write. The service is closed if that fails.
+   */
+  private static void warmUp(Spanner spanner, DatabaseClient client) throws IOException {
+    try (ResultSet resultSet = client.singleUse().executeQuery(Statement.of("SELECT 1"))) {
+      resultSet.next();
+    } catch (SpannerException e) {
+      spanner.close();
+      throw new IOException("Failed to create a Spanner session.", e);
+    }
+  }
+
+  /**
+   * Spanner record writer that buffers mutations and writes to spanner. Buffered mutations are committed once there
+   * are more than the batch size of them, or before they would exceed the cell or size limits of a single commit.
+   * Batches are committed in the background while the next batch is filled. If a sort window is set, mutations are
+   * collected in the window and committed in key order, in batches of key-contiguous mutations, once it is full. If
+   * a checkpoint is set, batches committed by earlier attempts of the task are skipped.
    */
   protected static class SpannerRecordWriter extends RecordWriter<NullWritable, StructuredRecord> {
     private final Spanner spanner;
-    private final String tableName;
-    private final DatabaseClient databaseClient;
-    private final List<Mutation> mutations;
+    private final MutationBinder binder;
+    private final AsyncCommitter committer;
+    private final MutationBatch batch;
     private final int batchSize;
-    private final Schema schema;
+    private final SortedMutationWindow window;
+    private final CommitCheckpoint checkpoint;
+    // position of the next batch in the task
+    private long nextBatch;
 
-    public SpannerRecordWriter(Spanner spanner, String tableName, DatabaseClient client, int batchSize,
-                               Schema schema) {
+    public SpannerRecordWriter(Spanner spanner, MutationBinder binder, AsyncCommitter committer, int batchSize,
+                               @Nullable SortedMutationWindow window, @Nullable CommitCheckpoint checkpoint) {
       this.spanner = spanner;
-      this.tableName = tableName;
-      this.databaseClient = client;
-      this.mutations = new ArrayList<>();
+      this.binder = binder;
+      this.committer = committer;
+      // batches recorded in the checkpoint leave room for the mutation recording them
+      this.batch = checkpoint == null ? new MutationBatch() : checkpoint.newBatch();
       this.batchSize = batchSize;
-      this.schema = schema;
+      this.window = window;
+      this.checkpoint = checkpoint;
     }
 
     @Override
     public void write(NullWritable nullWritable, StructuredRecord record) throws IOException {
-      Mutation.WriteBuilder builder = Mutation.newInsertOrUpdateBuilder(tableName);
-      List<Schema.Field> fields = schema.getFields();
-      for (Schema.Field field : fields) {
-        String name = field.getName();
-        Schema fieldSchema = field.getSchema();
-        fieldSchema = fieldSchema.isNullable() ? fieldSchema.getNonNullable() : fieldSchema;
-        Schema.LogicalType logicalType = fieldSchema.getLogicalType();
-
-        if (logicalType != null) {
-          if (record.get(name) != null) {
-            switch (logicalType) {
-              case DATE:
-                LocalDate date = record.getDate(name);
-                Date spannerDate = Date.fromYearMonthDay(date.getYear(), date.getMonthValue(), date.getDayOfMonth());
-                builder.set(name).to(spannerDate);
-                break;
-              case TIMESTAMP_MILLIS:
-              case TIMESTAMP_MICROS:
-                ZonedDateTime ts = record.getTimestamp(name);
-                Timestamp spannerTs = Timestamp.ofTimeSecondsAndNanos(ts.toEpochSecond(), ts.getNano());
-                builder.set(name).to(spannerTs);
-                break;
-              default:
-                throw new IOException("Logical type" + logicalType + " is not supported.");
-            }
+      Mutation mutation = binder.bind(record);
+      if (window == null) {
+        add(mutation);
+        return;
+      }
+      window.add(record, mutation);
+      if (window.isFull()) {
+        flushWindow();
+      }
+    }
+
+    @Override
+    public void close(TaskAttemptContext taskAttemptContext) throws IOException {
+      Throwable failure = null;
+      try {
+        if (window != null && !window.isEmpty()) {
+          flushWindow();
+        }
+        if (!batch.isEmpty()) {
+          commit();
+        }
+      } catch (Throwable t) {
+        failure = t;
+        throw t;
+      } finally {
+        try {
+          // waits for the batches in flight and surfaces their failures
+          committer.close();
+        } catch (IOException | RuntimeException e) {
+          // the failure of the last batches is kept, failures of the batches in flight are reported with it
+          if (failure == null) {
+            throw e;
           }
-          continue;
+          failure.addSuppressed(e);
+        } finally {
+          spanner.close();
         }
+      }
+    }
 
-        Schema.Type type = fieldSchema.getType();
-        switch(type) {
-          case BOOLEAN:
-            builder.set(name).to(record.<Boolean>get(name));
-            break;
-          case STRING:
-            builder.set(name).to(record.<String>get(name));
-            break;
-          case LONG:
-            builder.set(name).to(record.<Long>get(name));
-            break;
-          case DOUBLE:
-            builder.set(name).to(record.<Double>get(name));
-            break;
-          case BYTES:
-            byte[] byteArray = record.get(name);
-            builder.set(name).to(ByteArray.copyFrom(byteArray));
-            break;
-          // todo CDAP-14233 - add support for array
-          default:
-            throw new IOException(type.name() + " : Type currently not supported.");
-        }
+    private void add(Mutation mutation) throws IOException {
+      if (!batch.addIfFits(mutation)) {
+        // wide rows reach the limits of a commit before the batch size
+        commit();
+        batch.addIfFits(mutation);
       }
-      mutations.add(builder.build());
-      if (mutations.size() > batchSize) {
-        databaseClient.write(mutations);
-        mutations.clear();
+      if (batch.size() > batchSize) {
+        commit();
       }
     }
 
-    @Override
-    public void close(TaskAttemptContext taskAttemptContext) {
-      if (mutations.size() > 0) {
-        databaseClient.write(mutations);
-        mutations.clear();
+    /**
+     * Commits the mutations of the window in key order. The last batch of the window is committed on its own, since
+     * the keys of the next window are not contiguous with it.
+     */
+    private void flushWindow() throws IOException {
+      for (Mutation mutation : window.drainSorted()) {
+        add(mutation);
       }
-      spanner.close();
+      if (!batch.isEmpty()) {
+        commit();
+      }
+    }
+
+    private void commit() throws IOException {
+      // the batch is reused for the next mutations while its copy is committed
+      List<Mutation> mutations = new ArrayList<>(batch.getMutations());
+      long hash = checkpoint == null ? 0 : batch.getDigest();
+      batch.clear();
+      long position = nextBatch++;
+      if (checkpoint != null) {
+        if (checkpoint.isCommitted(position, hash)) {
+          // committed by an earlier attempt of the task
+          return;
+        }
+        // recorded in the same transaction as the batch, so it is recorded if and only if the batch is committed
+        mutations.add(checkpoint.record(position, hash));
+      }
+      committer.submit(mutations);
     }
   }
 
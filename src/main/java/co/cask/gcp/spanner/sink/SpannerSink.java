@@ -28,6 +28,7 @@ import co.cask.cdap.etl.api.PipelineConfigurer;
 import co.cask.cdap.etl.api.batch.BatchRuntimeContext;
 import co.cask.cdap.etl.api.batch.BatchSink;
 import co.cask.cdap.etl.api.batch.BatchSinkContext;
+import co.cask.gcp.spanner.SpannerConstants;
 import co.cask.gcp.spanner.common.SpannerUtil;
 import co.cask.hydrator.common.LineageRecorder;
 import co.cask.hydrator.common.ReferenceBatchSink;
@@ -51,8 +52,11 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.UUID;
 import java.util.stream.Collectors;
 import javax.annotation.Nullable;
 
@@ -75,6 +79,8 @@ public final class SpannerSink extends BatchSink<StructuredRecord, NullWritable,
   public static final String NAME = "Spanner";
   private static final String TABLE_NAME = "tablename";
   private final SpannerSinkConfig config;
+  // id of the run, which identifies the commit checkpoints of its tasks
+  private String runId;
 
   public SpannerSink(SpannerSinkConfig config) {
     this.config = config;
@@ -90,6 +96,13 @@ public final class SpannerSink extends BatchSink<StructuredRecord, NullWritable,
   public void prepareRun(BatchSinkContext context) {
     config.validate();
 
+    WriteOperation operation = config.getOperation();
+    // primary key columns are needed to sort records by key and to build the keys of deletes
+    boolean needsKeys = config.getSortWindowSize() != null || operation != WriteOperation.UPSERT;
+    List<String> keys = null;
+    if (needsKeys && !Strings.isNullOrEmpty(config.getKeys())) {
+      keys = Arrays.stream(config.getKeys().split(",")).map(String::trim).collect(Collectors.toList());
+    }
     if (!context.isPreviewEnabled()) {
       Spanner spanner = null;
       try {
@@ -97,10 +110,21 @@ public final class SpannerSink extends BatchSink<StructuredRecord, NullWritable,
         DatabaseId db = DatabaseId.of(config.getProject(), config.getInstance(), config.getDatabase());
         DatabaseClient dbClient = spanner.getDatabaseClient(db);
         DatabaseAdminClient dbAdminClient = spanner.getDatabaseAdminClient();
-        // create database
-        Database database = getOrCreateDatabase(dbAdminClient);
-        // create table
-        createTableIfNotPresent(dbClient, database);
+        if (operation == WriteOperation.UPSERT) {
+          // create database
+          Database database = getOrCreateDatabase(dbAdminClient);
+          // create table
+          createTableIfNotPresent(dbClient, database);
+        } else if (!isTablePresent(dbClient)) {
+          throw new IllegalArgumentException(String.format("Spanner table %s to delete from does not exist.",
+                                                           config.getTable()));
+        }
+        if (needsKeys && keys == null) {
+          keys = getPrimaryKeys(dbClient);
+        }
+        if (config.getCheckpointTable() != null) {
+          createCheckpointTableIfNotPresent(dbClient, dbAdminClient);
+        }
       } catch (IOException e) {
         throw new RuntimeException("Exception while trying to get Spanner service. ", e);
       } finally {
@@ -116,15 +140,21 @@ public final class SpannerSink extends BatchSink<StructuredRecord, NullWritable,
     LineageRecorder lineageRecorder = new LineageRecorder(context, config.getReferenceName());
     lineageRecorder.createExternalDataset(config.getSchema());
 
-    SpannerOutputFormat.configure(configuration, config);
+    SpannerOutputFormat.configure(configuration, config, keys == null ? null : getRecordKeys(keys, operation));
+    runId = UUID.randomUUID().toString();
+    configuration.set(SpannerConstants.SPANNER_WRITE_RUN_ID, runId);
     context.addOutput(Output.of(config.getReferenceName(),
                                 new SinkOutputFormatProvider(SpannerOutputFormat.class, configuration)));
 
     List<Schema.Field> fields = config.getSchema().getFields();
     if (fields != null && !fields.isEmpty()) {
       // Record the field level WriteOperation
-      lineageRecorder.recordWrite("Write", "Wrote to Spanner table.",
-                                  fields.stream().map(Schema.Field::getName).collect(Collectors.toList()));
+      List<String> fieldNames = fields.stream().map(Schema.Field::getName).collect(Collectors.toList());
+      if (operation == WriteOperation.UPSERT) {
+        lineageRecorder.recordWrite("Write", "Wrote to Spanner table.", fieldNames);
+      } else {
+        lineageRecorder.recordWrite("Delete", "Deleted from Spanner table.", fieldNames);
+      }
     }
   }
 
@@ -147,7 +177,24 @@ public final class SpannerSink extends BatchSink<StructuredRecord, NullWritable,
     }
   }
 
+  private void createCheckpointTableIfNotPresent(DatabaseClient dbClient, DatabaseAdminClient dbAdminClient) {
+    String checkpointTable = config.getCheckpointTable();
+    if (!isTablePresent(dbClient, checkpointTable)) {
+      String createStmt = CommitCheckpoint.getCreateStatement(checkpointTable);
+      LOG.debug("Creating checkpoint table with create statement: {} in database {} of instance {}", createStmt,
+                config.getDatabase(), config.getInstance());
+      Operation<Void, UpdateDatabaseDdlMetadata> op =
+        dbAdminClient.updateDatabaseDdl(config.getInstance(), config.getDatabase(),
+                                        Collections.singletonList(createStmt), null);
+      op.waitFor().getResult();
+    }
+  }
+
   private boolean isTablePresent(DatabaseClient dbClient) {
+    return isTablePresent(dbClient, config.getTable());
+  }
+
+  private boolean isTablePresent(DatabaseClient dbClient, String tableName) {
     // Spanner does not have apis to get table or check if a given table exists. So select the table name from
     // information schema (metadata) of spanner database.
     Statement statement = Statement.newBuilder(String.format("SELECT\n" +
@@ -157,7 +204,7 @@ public final class SpannerSink extends BatchSink<StructuredRecord, NullWritable,
                                                                "WHERE\n" +
                                                                "    t.table_catalog = '' AND t.table_schema = '' AND\n"
                                                                + "    t.table_name = @%s", TABLE_NAME))
-      .bind(TABLE_NAME).to(config.getTable()).build();
+      .bind(TABLE_NAME).to(tableName).build();
 
     ResultSet resultSet = dbClient.singleUse().executeQuery(statement);
 
@@ -171,6 +218,63 @@ public final class SpannerSink extends BatchSink<StructuredRecord, NullWritable,
     return tableExists;
   }
 
+  /**
+   * Gets the primary key columns of the table, in key order, from the information schema of the database.
+   */
+  private List<String> getPrimaryKeys(DatabaseClient dbClient) {
+    Statement statement = Statement.newBuilder(String.format("SELECT\n" +
+                                                               "    c.column_name\n" +
+                                                               "FROM\n" +
+                                                               "    information_schema.index_columns AS c\n" +
+                                                               "WHERE\n" +
+                                                               "    c.table_catalog = '' AND c.table_schema = '' AND\n"
+                                                               + "    c.index_name = 'PRIMARY_KEY' AND\n"
+                                                               + "    c.table_name = @%s\n"
+                                                               + "ORDER BY\n"
+                                                               + "    c.ordinal_position", TABLE_NAME))
+      .bind(TABLE_NAME).to(config.getTable()).build();
+
+    List<String> keys = new ArrayList<>();
+    try (ResultSet resultSet = dbClient.singleUse().executeQuery(statement)) {
+      while (resultSet.next()) {
+        keys.add(resultSet.getString(0));
+      }
+    }
+    return keys;
+  }
+
+  /**
+   * Gets the primary key columns records are sorted by and deleted with. Records of prefix deletes contain the
+   * leading primary key columns, all other records contain every primary key column.
+   */
+  private List<String> getRecordKeys(List<String> keys, WriteOperation operation) {
+    Schema schema = config.getSchema();
+    if (operation == WriteOperation.DELETE_PREFIX) {
+      List<String> prefix = new ArrayList<>();
+      for (String key : keys) {
+        if (schema.getField(key) == null) {
+          break;
+        }
+        prefix.add(key);
+      }
+      if (prefix.isEmpty()) {
+        throw new IllegalArgumentException(
+          String.format("The first Spanner primary key of table '%s' must be present in output schema to delete " +
+                          "rows by key prefix", config.getTable()));
+      }
+      return prefix;
+    }
+
+    for (String key : keys) {
+      if (schema.getField(key) == null) {
+        throw new IllegalArgumentException(
+          String.format("Spanner primary key '%s' of table '%s' must be present in output schema to sort or " +
+                          "delete records by key", key, config.getTable()));
+      }
+    }
+    return keys;
+  }
+
   private Database getOrCreateDatabase(DatabaseAdminClient dbAdminClient) {
     Database database = getDatabaseIfPresent(dbAdminClient);
 
@@ -211,6 +315,29 @@ public final class SpannerSink extends BatchSink<StructuredRecord, NullWritable,
     emitter.emit(new KeyValue<>(null, input));
   }
 
+  @Override
+  public void onRunFinish(boolean succeeded, BatchSinkContext context) {
+    super.onRunFinish(succeeded, context);
+    if (config.getCheckpointTable() == null || runId == null || context.isPreviewEnabled()) {
+      return;
+    }
+    // the checkpoints of a run are only read by retried tasks of the same run
+    Spanner spanner = null;
+    try {
+      spanner = SpannerUtil.getSpannerService(config.getServiceAccountFilePath(), config.getProject());
+      DatabaseClient dbClient = spanner.getDatabaseClient(
+        DatabaseId.of(config.getProject(), config.getInstance(), config.getDatabase()));
+      dbClient.write(Collections.singletonList(CommitCheckpoint.deleteRun(config.getCheckpointTable(), runId)));
+    } catch (IOException | SpannerException e) {
+      LOG.warn("Failed to delete the commit checkpoints of run {} from Spanner table {}, {}", runId,
+               config.getCheckpointTable(), e.getMessage());
+    } finally {
+      if (spanner != null) {
+        spanner.close();
+      }
+    }
+  }
+
   @Override
   public void destroy() {
     super.destroy();
@@ -31,6 +31,7 @@ import javax.annotation.Nullable;
  */
 public class SpannerSinkConfig extends GCPReferenceSinkConfig {
   private static final int DEFAULT_SPANNER_WRITE_BATCH_SIZE = 100;
+  private static final int DEFAULT_MAX_IN_FLIGHT_COMMITS = 4;
 
   @Name("table")
   @Description("Cloud Spanner table id. Uniquely identifies your table within the Cloud Spanner database")
@@ -40,11 +41,77 @@ public class SpannerSinkConfig extends GCPReferenceSinkConfig {
   @Name("batchSize")
   @Description("Size of the batched writes to the Spanner table. " +
     "When the number of buffered mutations is greater than this batchSize, " +
-    "the mutations are written to Spanner table, Default value is 100")
+    "the mutations are written to Spanner table, Default value is 100. " +
+    "Mutations are written earlier if they would exceed the cell or size limits of a single Spanner commit.")
   @Macro
   @Nullable
   private Integer batchSize;
 
+  @Name("maxInFlightCommits")
+  @Description("Maximum number of batches every task commits to Spanner at the same time. " +
+    "Batches are committed in the background while the next batch is filled. " +
+    "Once this many commits are in flight, writing waits for one of them to complete. Default value is 4")
+  @Macro
+  @Nullable
+  private Integer maxInFlightCommits;
+
+  @Name("sortWindowSize")
+  @Description("Number of records every task collects and sorts by primary key before writing them. " +
+    "The sorted records are written in batches of records with contiguous keys, so that each commit touches " +
+    "few Spanner splits. The primary key is taken from the primary keys property, or from the table if it is " +
+    "not set. If no window size is set, records are written in the order they arrive.")
+  @Macro
+  @Nullable
+  private Integer sortWindowSize;
+
+  @Name("operation")
+  @Description("Operation applied to the Spanner table for every record. 'upsert' inserts the row of the record, " +
+    "or updates it if it exists. 'delete' deletes the row with the primary key of the record. 'delete-prefix' " +
+    "deletes all rows whose primary key starts with the leading primary key columns of the record, with a single " +
+    "key range delete per record. The primary key is taken from the primary keys property, or from the table if " +
+    "it is not set. Default is upsert.")
+  @Macro
+  @Nullable
+  private String operation;
+
+  @Name("minSessions")
+  @Description("Number of Spanner sessions every task creates when it starts, before it writes the first record. " +
+    "Sessions are prepared for writes. Default value is the maximum number of commits in flight, which is the " +
+    "number of sessions a task commits with at the same time.")
+  @Macro
+  @Nullable
+  private Integer minSessions;
+
+  @Name("maxSessions")
+  @Description("Maximum number of Spanner sessions of every task. " +
+    "Default value is the larger of the minimum number of sessions and the maximum number of commits in flight.")
+  @Macro
+  @Nullable
+  private Integer maxSessions;
+
+  @Name("numChannels")
+  @Description("Number of gRPC channels every task connects to Spanner with. Fewer channels make short tasks " +
+    "start faster, more channels spread many concurrent commits. If not set, the client default is used.")
+  @Macro
+  @Nullable
+  private Integer numChannels;
+
+  @Name("warmUpSessions")
+  @Description("Whether every task waits for a Spanner session to be ready before it writes the first record, " +
+    "so that connection and authentication problems fail the task early. Default is false.")
+  @Macro
+  @Nullable
+  private Boolean warmUpSessions;
+
+  @Name("checkpointTable")
+  @Description("Table in the same database that records the batches committed by every task, in the same " +
+    "transaction as the batches. A retried task skips the batches committed by its earlier attempts, as long as " +
+    "it receives the same records in the same order. The table is created if it does not exist, and the records " +
+    "of a run are deleted when the run finishes. If not set, retried tasks commit all their batches again.")
+  @Macro
+  @Nullable
+  private String checkpointTable;
+
   @Description("Cloud Spanner instance id. " +
     "Uniquely identifies Cloud Spanner instance within your Google Cloud Platform project.")
   @Macro
@@ -94,12 +161,41 @@ public class SpannerSinkConfig extends GCPReferenceSinkConfig {
   public void validate() {
     super.validate();
     if (!containsMacro("schema")) {
-      SpannerUtil.validateSchema(getSchema());
+      SpannerUtil.validateSinkSchema(getSchema());
     }
     if (!containsMacro("batchSize") && batchSize != null && batchSize < 1) {
       throw new IllegalArgumentException("Spanner batch size for writes should be positive");
     }
-    if (!containsMacro("keys") && keys != null && !containsMacro("schema")) {
+    if (!containsMacro("maxInFlightCommits") && maxInFlightCommits != null && maxInFlightCommits < 1) {
+      throw new IllegalArgumentException("Spanner maximum number of commits in flight should be positive");
+    }
+    if (!containsMacro("sortWindowSize") && sortWindowSize != null && sortWindowSize < 1) {
+      throw new IllegalArgumentException("Spanner sort window size should be positive");
+    }
+    if (!containsMacro("minSessions") && minSessions != null && minSessions < 0) {
+      throw new IllegalArgumentException("Spanner minimum number of sessions should not be negative");
+    }
+    if (!containsMacro("maxSessions") && maxSessions != null && maxSessions < 1) {
+      throw new IllegalArgumentException("Spanner maximum number of sessions should be positive");
+    }
+    if (!containsMacro("minSessions") && !containsMacro("maxSessions") && !containsMacro("maxInFlightCommits")
+      && getMinSessions() > getMaxSessions()) {
+      throw new IllegalArgumentException(
+        "Spanner minimum number of sessions should not be larger than the maximum number of sessions");
+    }
+    if (!containsMacro("numChannels") && numChannels != null && numChannels < 1) {
+      throw new IllegalArgumentException("Spanner number of channels should be positive");
+    }
+    if (!containsMacro("operation")) {
+      getOperation();
+    }
+    if (!containsMacro("checkpointTable") && !containsMacro("table") && checkpointTable != null
+      && checkpointTable.equals(table)) {
+      throw new IllegalArgumentException("Spanner checkpoint table must be different from the table written to");
+    }
+    // records of prefix deletes only contain the leading key columns
+    boolean prefixDelete = containsMacro("operation") || getOperation() == WriteOperation.DELETE_PREFIX;
+    if (!containsMacro("keys") && keys != null && !containsMacro("schema") && !prefixDelete) {
       Schema schema = getSchema();
       String[] splitted = keys.split(",");
 
@@ -123,4 +219,59 @@ public class SpannerSinkConfig extends GCPReferenceSinkConfig {
   public int getBatchSize() {
     return batchSize == null ? DEFAULT_SPANNER_WRITE_BATCH_SIZE : batchSize;
   }
+
+  /**
+   * @return number of records sorted by key before they are written, or null if records are not sorted
+   */
+  @Nullable
+  public Integer getSortWindowSize() {
+    return sortWindowSize;
+  }
+
+  /**
+   * @return number of sessions every task creates before writing, one per commit in flight by default
+   */
+  public int getMinSessions() {
+    return minSessions == null ? getMaxInFlightCommits() : minSessions;
+  }
+
+  public int getMaxSessions() {
+    return maxSessions == null ? Math.max(getMinSessions(), getMaxInFlightCommits()) : maxSessions;
+  }
+
+  /**
+   * @return number of gRPC channels of every task, or null if the client default is used
+   */
+  @Nullable
+  public Integer getNumChannels() {
+    return numChannels;
+  }
+
+  public boolean isWarmUpSessions() {
+    return warmUpSessions != null && warmUpSessions;
+  }
+
+  /**
+   * @return table recording the batches committed by every task, or null if committed batches are not recorded
+   */
+  @Nullable
+  public String getCheckpointTable() {
+    return checkpointTable == null || checkpointTable.isEmpty() ? null : checkpointTable;
+  }
+
+  /**
+   * @return the operation applied to the table for every record
+   * @throws IllegalArgumentException if the operation is not supported
+   */
+  public WriteOperation getOperation() {
+    if (operation == null || operation.isEmpty()) {
+      return WriteOperation.UPSERT;
+    }
+    return WriteOperation.fromValue(operation)
+      .orElseThrow(() -> new IllegalArgumentException("Unsupported operation " + operation + "."));
+  }
+
+  public int getMaxInFlightCommits() {
+    return maxInFlightCommits == null ? DEFAULT_MAX_IN_FLIGHT_COMMITS : maxInFlightCommits;
+  }
 }
@@ -0,0 +1,64 @@
+/*
+ * Copyright © 2018 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.gcp.spanner.sink;
+
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/**
+ * Indicates how the records written by the Spanner sink are applied to the table.
+ */
+public enum WriteOperation {
+
+  /**
+   * The row of every record is inserted, or updated if it exists.
+   */
+  UPSERT("upsert"),
+
+  /**
+   * The row with the primary key of every record is deleted. Records only need to contain the primary key columns.
+   */
+  DELETE("delete"),
+
+  /**
+   * All rows whose primary key starts with the leading primary key columns of a record are deleted, with a single
+   * key range delete per record.
+   */
+  DELETE_PREFIX("delete-prefix");
+
+  private final String value;
+
+  WriteOperation(String value) {
+    this.value = value;
+  }
+
+  public String getValue() {
+    return value;
+  }
+
+  /**
+   * Converts operation string value into {@link WriteOperation} enum.
+   *
+   * @param stringValue operation string value
+   * @return operation in optional container
+   */
+  public static Optional<WriteOperation> fromValue(String stringValue) {
+    return Stream.of(values())
+      .filter(operation -> operation.value.equalsIgnoreCase(stringValue))
+      .findAny();
+  }
+}
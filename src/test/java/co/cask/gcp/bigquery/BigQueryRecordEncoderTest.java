@@ -0,0 +1,148 @@
+/*
+ * Copyright © 2018 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.gcp.bigquery;
+
+import co.cask.cdap.api.data.format.StructuredRecord;
+import co.cask.cdap.api.data.schema.Schema;
+import co.cask.gcp.bigquery.sink.BigQueryRecordEncoder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.apache.avro.generic.GenericRecord;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Tests for {@link BigQueryRecordEncoder}.
+ */
+public class BigQueryRecordEncoderTest {
+  private static final Schema OUTPUT_SCHEMA =
+    Schema.recordOf("record",
+                    Schema.Field.of("id", Schema.of(Schema.Type.LONG)),
+                    Schema.Field.of("name", Schema.nullableOf(Schema.of(Schema.Type.STRING))),
+                    Schema.Field.of("dt", Schema.nullableOf(Schema.of(Schema.LogicalType.DATE))),
+                    Schema.Field.of("time", Schema.of(Schema.LogicalType.TIME_MICROS)),
+                    Schema.Field.of("bytedata", Schema.of(Schema.Type.BYTES)),
+                    Schema.Field.of("timestamp", Schema.nullableOf(Schema.of(Schema.LogicalType.TIMESTAMP_MICROS))),
+                    Schema.Field.of("missing", Schema.nullableOf(Schema.of(Schema.Type.STRING))));
+
+  private static final Schema INPUT_SCHEMA =
+    Schema.recordOf("input",
+                    Schema.Field.of("id", Schema.of(Schema.Type.LONG)),
+                    Schema.Field.of("name", Schema.nullableOf(Schema.of(Schema.Type.STRING))),
+                    Schema.Field.of("dt", Schema.nullableOf(Schema.of(Schema.LogicalType.DATE))),
+                    Schema.Field.of("time", Schema.of(Schema.LogicalType.TIME_MICROS)),
+                    Schema.Field.of("bytedata", Schema.of(Schema.Type.BYTES)),
+                    Schema.Field.of("timestamp", Schema.nullableOf(Schema.of(Schema.LogicalType.TIMESTAMP_MICROS))),
+                    Schema.Field.of("ignored", Schema.of(Schema.Type.STRING)));
+
+  @Test
+  public void testToJson() {
+    StructuredRecord input = StructuredRecord.builder(INPUT_SCHEMA)
+      .set("id", 1L)
+      .setDate("dt", LocalDate.of(2018, 11, 11))
+      .setTime("time", LocalTime.of(11, 11, 11, 123456000))
+      .set("bytedata", new byte[] { 1, 2, 3 })
+      .setTimestamp("timestamp", ZonedDateTime.of(2016, 5, 25, 13, 7, 15, 1000, ZoneOffset.UTC))
+      .set("ignored", "value")
+      .build();
+
+    BigQueryRecordEncoder encoder = BigQueryRecordEncoder.compile(INPUT_SCHEMA, OUTPUT_SCHEMA, true);
+    Assert.assertTrue(encoder.isCompiledFor(input.getSchema()));
+
+    JsonObject json = parse(encoder.toJson(input));
+    Assert.assertEquals(1L, json.get("id").getAsLong());
+    Assert.assertTrue(json.get("name").isJsonNull());
+    Assert.assertEquals("2018-11-11", json.get("dt").getAsString());
+    Assert.assertEquals("11:11:11.123456", json.get("time").getAsString());
+    Assert.assertEquals("AQID", json.get("bytedata").getAsString());
+    Assert.assertEquals("2016-05-25 13:07:15.000001", json.get("timestamp").getAsString());
+    Assert.assertFalse(json.has("missing"));
+    Assert.assertFalse(json.has("ignored"));
+  }
+
+  @Test
+  public void testTimestampBeforeEpoch() {
+    StructuredRecord input = StructuredRecord.builder(INPUT_SCHEMA)
+      .set("id", 1L)
+      .setTime("time", LocalTime.MIDNIGHT)
+      .set("bytedata", new byte[0])
+      .setTimestamp("timestamp", ZonedDateTime.of(1969, 12, 31, 23, 59, 59, 999999000, ZoneOffset.UTC))
+      .set("ignored", "value")
+      .build();
+
+    JsonObject json = parse(BigQueryRecordEncoder.compile(INPUT_SCHEMA, OUTPUT_SCHEMA, true).toJson(input));
+    Assert.assertEquals("1969-12-31 23:59:59.999999", json.get("timestamp").getAsString());
+    Assert.assertEquals("00:00:00.000000", json.get("time").getAsString());
+  }
+
+  @Test
+  public void testNestedFields() {
+    Schema addressSchema = Schema.recordOf("address",
+                                           Schema.Field.of("city", Schema.of(Schema.Type.STRING)),
+                                           Schema.Field.of("since", Schema.of(Schema.LogicalType.DATE)));
+    Schema schema = Schema.recordOf("nested",
+                                    Schema.Field.of("id", Schema.of(Schema.Type.LONG)),
+                                    Schema.Field.of("tags", Schema.arrayOf(Schema.nullableOf(
+                                      Schema.of(Schema.Type.STRING)))),
+                                    Schema.Field.of("scores", Schema.nullableOf(Schema.arrayOf(
+                                      Schema.of(Schema.Type.INT)))),
+                                    Schema.Field.of("address", Schema.nullableOf(addressSchema)),
+                                    Schema.Field.of("attributes", Schema.mapOf(Schema.of(Schema.Type.STRING),
+                                                                               Schema.of(Schema.Type.LONG))));
+    StructuredRecord address = StructuredRecord.builder(addressSchema)
+      .set("city", "Palo Alto")
+      .setDate("since", LocalDate.of(2018, 11, 11))
+      .build();
+    StructuredRecord input = StructuredRecord.builder(schema)
+      .set("id", 1L)
+      .set("tags", Arrays.asList("a", null, "b"))
+      .set("scores", new int[] { 1, 2 })
+      .set("address", address)
+      .set("attributes", Collections.singletonMap("k", 5L))
+      .build();
+
+    JsonObject json = parse(BigQueryRecordEncoder.compile(schema, schema, true).toJson(input));
+    JsonArray tags = json.getAsJsonArray("tags");
+    Assert.assertEquals(2, tags.size());
+    Assert.assertEquals("b", tags.get(1).getAsString());
+    Assert.assertEquals(2, json.getAsJsonArray("scores").get(1).getAsInt());
+    Assert.assertEquals("Palo Alto", json.getAsJsonObject("address").get("city").getAsString());
+    Assert.assertEquals("2018-11-11", json.getAsJsonObject("address").get("since").getAsString());
+    JsonObject entry = json.getAsJsonArray("attributes").get(0).getAsJsonObject();
+    Assert.assertEquals("k", entry.get("key").getAsString());
+    Assert.assertEquals(5L, entry.get("value").getAsLong());
+
+    GenericRecord avro = BigQueryRecordEncoder.compile(schema, schema, false).toAvro(input);
+    Assert.assertEquals(Arrays.asList(1, 2), avro.get("scores"));
+    Assert.assertEquals((int) LocalDate.of(2018, 11, 11).toEpochDay(),
+                        ((GenericRecord) avro.get("address")).get("since"));
+    Assert.assertEquals(5L, ((Map<?, ?>) avro.get("attributes")).get("k"));
+  }
+
+  private static JsonObject parse(String json) {
+    return new JsonParser().parse(json).getAsJsonObject();
+  }
+}
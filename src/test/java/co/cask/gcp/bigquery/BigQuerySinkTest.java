@@ -17,10 +17,17 @@
 package co.cask.gcp.bigquery;
 
 import co.cask.cdap.api.data.schema.Schema;
+import co.cask.gcp.bigquery.sink.BigQueryMultiSinkConfig;
 import co.cask.gcp.bigquery.sink.BigQuerySink;
 import co.cask.gcp.bigquery.sink.BigQuerySinkConfig;
+import co.cask.gcp.bigquery.util.BigQueryUtil;
+import com.google.cloud.bigquery.TableId;
+import org.junit.Assert;
 import org.junit.Test;
 
+import java.util.Arrays;
+import java.util.Collections;
+
 /**
  * Tests for {@link BigQuerySink}.
  */
@@ -50,4 +57,67 @@ public class BigQuerySinkTest {
     BigQuerySinkConfig config = new BigQuerySinkConfig("r", "ds", "tb", "bucket", invalidSchema.toString());
     config.validate();
   }
+
+  @Test
+  public void testCreateTableStatement() {
+    Schema schema = Schema.recordOf("record",
+                                    Schema.Field.of("id", Schema.of(Schema.Type.LONG)),
+                                    Schema.Field.of("name", Schema.nullableOf(Schema.of(Schema.Type.STRING))),
+                                    Schema.Field.of("ts", Schema.of(Schema.LogicalType.TIMESTAMP_MICROS)));
+    TableId tableId = TableId.of("p", "ds", "tb");
+
+    Assert.assertEquals("CREATE TABLE IF NOT EXISTS `p.ds.tb` (`id` INT64, `name` STRING, `ts` TIMESTAMP)",
+                        BigQueryUtil.getCreateTableStatement(tableId, schema, null, Collections.emptyList()));
+    Assert.assertEquals("CREATE TABLE IF NOT EXISTS `p.ds.tb` (`id` INT64, `name` STRING, `ts` TIMESTAMP) "
+                          + "PARTITION BY DATE(`ts`) CLUSTER BY `name`, `id`",
+                        BigQueryUtil.getCreateTableStatement(tableId, schema, "DATE(`ts`)",
+                                                             Arrays.asList("name", "id")));
+  }
+
+  @Test
+  public void testMergeStatement() {
+    Assert.assertEquals("MERGE `p.ds.tb` T USING (SELECT * EXCEPT(_row) FROM (SELECT *, ROW_NUMBER() OVER "
+                          + "(PARTITION BY `id` ORDER BY `updated` DESC) AS _row FROM `p.ds.stg`) WHERE _row = 1) S "
+                          + "ON (T.`id` = S.`id` OR (T.`id` IS NULL AND S.`id` IS NULL)) "
+                          + "WHEN MATCHED THEN UPDATE SET `name` = S.`name`, `updated` = S.`updated` "
+                          + "WHEN NOT MATCHED THEN INSERT (`id`, `name`, `updated`) "
+                          + "VALUES (S.`id`, S.`name`, S.`updated`)",
+                        BigQueryUtil.getMergeStatement(TableId.of("p", "ds", "tb"), TableId.of("p", "ds", "stg"),
+                                                       Arrays.asList("id", "name", "updated"),
+                                                       Collections.singletonList("id"), "updated"));
+  }
+
+  @Test
+  public void testMergeStatementFailsOnDuplicateKeys() {
+    String mergeStmt = BigQueryUtil.getMergeStatement(TableId.of("p", "ds", "tb"), TableId.of("p", "ds", "stg"),
+                                                      Arrays.asList("id", "name"), Collections.singletonList("id"),
+                                                      null);
+    Assert.assertTrue(mergeStmt.startsWith(
+      "MERGE `p.ds.tb` T USING (SELECT * EXCEPT(_rows) FROM (SELECT *, COUNT(*) OVER (PARTITION BY `id`) AS _rows "
+        + "FROM `p.ds.stg`) WHERE IF(_rows = 1, TRUE, ERROR("));
+    Assert.assertFalse(mergeStmt.contains("ROW_NUMBER()"));
+  }
+
+  @Test
+  public void testBigQueryMultiSinkConfig() {
+    BigQueryMultiSinkConfig config = new BigQueryMultiSinkConfig("r", "ds", null, null, null);
+    config.validate();
+    Assert.assertEquals("tablename", config.getSplitField());
+    Assert.assertEquals(10, config.getMaxConcurrentLoads());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testBigQueryMultiSinkInvalidConcurrency() {
+    new BigQueryMultiSinkConfig("r", "ds", null, "tenant", 0).validate();
+  }
+
+  @Test
+  public void testValidTableName() {
+    Assert.assertTrue(BigQueryUtil.isValidTableName("orders_2019"));
+    Assert.assertFalse(BigQueryUtil.isValidTableName(""));
+    Assert.assertFalse(BigQueryUtil.isValidTableName(".."));
+    Assert.assertFalse(BigQueryUtil.isValidTableName("a/b"));
+    Assert.assertFalse(BigQueryUtil.isValidTableName("orders-2019"));
+    Assert.assertFalse(BigQueryUtil.isValidTableName("gs://bucket"));
+  }
 }
@@ -0,0 +1,54 @@
+/*
+ * Copyright © 2018 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.gcp.bigquery;
+
+import co.cask.gcp.bigquery.source.BigQuerySource;
+import co.cask.gcp.bigquery.util.BigQueryUtil;
+import com.google.cloud.bigquery.TableId;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+/**
+ * Tests for {@link BigQuerySource}.
+ */
+public class BigQuerySourceTest {
+
+  @Test
+  public void testSelectStatement() {
+    TableId tableId = TableId.of("p", "ds", "tb");
+
+    Assert.assertEquals("SELECT `id`, `name` FROM `p.ds.tb`",
+                        BigQueryUtil.getSelectStatement(tableId, Arrays.asList("id", "name"), null));
+    Assert.assertEquals("SELECT `id` FROM `p.ds.tb` WHERE id > 5 AND name = 'x'",
+                        BigQueryUtil.getSelectStatement(tableId, Arrays.asList("id"), "id > 5 AND name = 'x'"));
+  }
+
+  @Test
+  public void testWatermarkStatements() {
+    TableId tableId = TableId.of("p", "ds", "tb");
+
+    Assert.assertEquals("SELECT UNIX_MICROS(MAX(`ts`)) FROM `p.ds.tb` WHERE `ts` > TIMESTAMP_MICROS(10)",
+                        BigQueryUtil.getMaxStatement(tableId, "ts", true,
+                                                     BigQueryUtil.getRangeCondition("ts", true, 10L, null)));
+    Assert.assertEquals("SELECT MAX(`id`) FROM `p.ds.tb`", BigQueryUtil.getMaxStatement(tableId, "id", false, null));
+    Assert.assertEquals("`id` > 10 AND `id` <= 20", BigQueryUtil.getRangeCondition("id", false, 10L, 20L));
+    Assert.assertEquals("`id` <= 20", BigQueryUtil.getRangeCondition("id", false, null, 20L));
+    Assert.assertNull(BigQueryUtil.getRangeCondition("id", false, null, null));
+  }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright © 2018 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.gcp.bigquery;
+
+import co.cask.cdap.api.data.format.StructuredRecord;
+import co.cask.cdap.api.data.schema.Schema;
+import co.cask.gcp.bigquery.source.BigQueryFieldValueToStructuredTransformer;
+import com.google.cloud.bigquery.Field;
+import com.google.cloud.bigquery.FieldList;
+import com.google.cloud.bigquery.FieldValue;
+import com.google.cloud.bigquery.FieldValueList;
+import com.google.cloud.bigquery.LegacySQLTypeName;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for {@link BigQueryFieldValueToStructuredTransformer}
+ */
+public class FieldValueToStructuredRecordTest {
+
+  @Test
+  public void testFieldValueToStructuredRecord() {
+    Schema schema = Schema.recordOf("record",
+                                    Schema.Field.of("id", Schema.of(Schema.Type.LONG)),
+                                    Schema.Field.of("name", Schema.nullableOf(Schema.of(Schema.Type.STRING))),
+                                    Schema.Field.of("price", Schema.of(Schema.Type.DOUBLE)),
+                                    Schema.Field.of("flag", Schema.of(Schema.Type.BOOLEAN)),
+                                    Schema.Field.of("dt", Schema.of(Schema.LogicalType.DATE)),
+                                    Schema.Field.of("time", Schema.of(Schema.LogicalType.TIME_MICROS)),
+                                    Schema.Field.of("ts", Schema.of(Schema.LogicalType.TIMESTAMP_MICROS)));
+    FieldList fields = FieldList.of(Field.of("id", LegacySQLTypeName.INTEGER),
+                                    Field.of("name", LegacySQLTypeName.STRING),
+                                    Field.of("price", LegacySQLTypeName.FLOAT),
+                                    Field.of("flag", LegacySQLTypeName.BOOLEAN),
+                                    Field.of("dt", LegacySQLTypeName.DATE),
+                                    Field.of("time", LegacySQLTypeName.TIME),
+                                    Field.of("ts", LegacySQLTypeName.TIMESTAMP));
+    FieldValueList row = FieldValueList.of(Arrays.asList(FieldValue.of(FieldValue.Attribute.PRIMITIVE, "12"),
+                                                         FieldValue.of(FieldValue.Attribute.PRIMITIVE, null),
+                                                         FieldValue.of(FieldValue.Attribute.PRIMITIVE, "1.5"),
+                                                         FieldValue.of(FieldValue.Attribute.PRIMITIVE, "true"),
+                                                         FieldValue.of(FieldValue.Attribute.PRIMITIVE, "2018-11-11"),
+                                                         FieldValue.of(FieldValue.Attribute.PRIMITIVE, "11:11:11"),
+                                                         FieldValue.of(FieldValue.Attribute.PRIMITIVE,
+                                                                       "1541934671.5")),
+                                           fields);
+
+    StructuredRecord result = new BigQueryFieldValueToStructuredTransformer().transform(row, schema);
+
+    Assert.assertEquals(12L, (long) result.get("id"));
+    Assert.assertNull(result.get("name"));
+    Assert.assertEquals(1.5d, result.<Double>get("price"), 0.00001d);
+    Assert.assertTrue(result.get("flag"));
+    Assert.assertEquals(LocalDate.of(2018, 11, 11), result.getDate("dt"));
+    Assert.assertEquals(LocalTime.of(11, 11, 11), result.getTime("time"));
+    Assert.assertEquals(TimeUnit.SECONDS.toMicros(1541934671L) + 500000L, (long) result.get("ts"));
+  }
+}
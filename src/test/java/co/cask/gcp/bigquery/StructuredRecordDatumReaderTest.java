@@ -0,0 +1,181 @@
+/*
+ * Copyright © 2018 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.gcp.bigquery;
+
+import co.cask.cdap.api.data.format.StructuredRecord;
+import co.cask.cdap.api.data.schema.Schema;
+import co.cask.gcp.bigquery.source.StructuredRecordDatumReader;
+import co.cask.gcp.bigquery.source.TemporalParser;
+import org.apache.avro.SchemaBuilder;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.generic.GenericRecordBuilder;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.io.EncoderFactory;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for {@link StructuredRecordDatumReader} and {@link TemporalParser}.
+ */
+public class StructuredRecordDatumReaderTest {
+
+  @Test
+  public void testReadExportedRecord() throws Exception {
+    // schema of the Avro files BigQuery exports, with nullable columns as unions
+    org.apache.avro.Schema avroSchema = SchemaBuilder.record("Root").fields()
+      .requiredLong("id")
+      .optionalString("name")
+      .optionalString("skipped")
+      .optionalDouble("price")
+      .optionalBoolean("flag")
+      .optionalString("dt")
+      .optionalString("time")
+      .optionalLong("ts")
+      .optionalBytes("data")
+      .endRecord();
+    GenericRecord exported = new GenericRecordBuilder(avroSchema)
+      .set("id", 1L)
+      .set("name", "alice")
+      .set("skipped", "not read")
+      .set("price", 2.5d)
+      .set("flag", null)
+      .set("dt", "2018-11-11")
+      .set("time", "11:11:11.5")
+      .set("ts", 1541934671500000L)
+      .set("data", ByteBuffer.wrap(new byte[] {1, 2}))
+      .build();
+
+    Schema schema = Schema.recordOf("output",
+                                    Schema.Field.of("id", Schema.of(Schema.Type.LONG)),
+                                    Schema.Field.of("name", Schema.nullableOf(Schema.of(Schema.Type.STRING))),
+                                    Schema.Field.of("price", Schema.nullableOf(Schema.of(Schema.Type.DOUBLE))),
+                                    Schema.Field.of("flag", Schema.nullableOf(Schema.of(Schema.Type.BOOLEAN))),
+                                    Schema.Field.of("dt", Schema.nullableOf(Schema.of(Schema.LogicalType.DATE))),
+                                    Schema.Field.of("time",
+                                                    Schema.nullableOf(Schema.of(Schema.LogicalType.TIME_MICROS))),
+                                    Schema.Field.of("ts",
+                                                    Schema.nullableOf(Schema.of(Schema.LogicalType.TIMESTAMP_MILLIS))),
+                                    Schema.Field.of("data", Schema.nullableOf(Schema.of(Schema.Type.BYTES))));
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    BinaryEncoder encoder = EncoderFactory.get().binaryEncoder(out, null);
+    new GenericDatumWriter<GenericRecord>(avroSchema).write(exported, encoder);
+    encoder.flush();
+
+    StructuredRecordDatumReader reader = new StructuredRecordDatumReader(schema);
+    reader.setSchema(avroSchema);
+    StructuredRecord record = reader.read(null, DecoderFactory.get().binaryDecoder(out.toByteArray(), null));
+
+    Assert.assertEquals(1L, (long) record.get("id"));
+    Assert.assertEquals("alice", record.get("name"));
+    Assert.assertEquals(2.5d, record.<Double>get("price"), 0.00001d);
+    Assert.assertNull(record.get("flag"));
+    Assert.assertEquals(LocalDate.of(2018, 11, 11), record.getDate("dt"));
+    Assert.assertEquals(LocalTime.of(11, 11, 11, 500000000), record.getTime("time"));
+    Assert.assertEquals(1541934671500L, (long) record.get("ts"));
+    Assert.assertArrayEquals(new byte[] {1, 2}, record.<byte[]>get("data"));
+  }
+
+  @Test
+  public void testReadNestedAndRepeated() throws Exception {
+    // RECORD columns are exported as records and REPEATED columns as arrays
+    org.apache.avro.Schema addressSchema = SchemaBuilder.record("address").fields()
+      .optionalString("city")
+      .optionalString("zip")
+      .endRecord();
+    org.apache.avro.Schema avroSchema = SchemaBuilder.record("Root").fields()
+      .requiredLong("id")
+      .name("tags").type().array().items().stringType().noDefault()
+      .name("address").type().optional().type(addressSchema)
+      .name("addresses").type().array().items(addressSchema).noDefault()
+      .endRecord();
+    GenericRecord home = new GenericRecordBuilder(addressSchema).set("city", "Palo Alto").set("zip", "94301").build();
+    GenericRecord work = new GenericRecordBuilder(addressSchema).set("city", null).set("zip", "94105").build();
+    GenericRecord exported = new GenericRecordBuilder(avroSchema)
+      .set("id", 1L)
+      .set("tags", Arrays.asList("a", "b", "c"))
+      .set("address", home)
+      .set("addresses", Arrays.asList(home, work))
+      .build();
+
+    // the nested output records only contain the city
+    Schema outputAddress = Schema.recordOf("address",
+                                           Schema.Field.of("city", Schema.nullableOf(Schema.of(Schema.Type.STRING))));
+    Schema schema = Schema.recordOf("output",
+                                    Schema.Field.of("id", Schema.of(Schema.Type.LONG)),
+                                    Schema.Field.of("tags", Schema.arrayOf(Schema.of(Schema.Type.STRING))),
+                                    Schema.Field.of("address", Schema.nullableOf(outputAddress)),
+                                    Schema.Field.of("addresses", Schema.arrayOf(outputAddress)));
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    BinaryEncoder encoder = EncoderFactory.get().binaryEncoder(out, null);
+    new GenericDatumWriter<GenericRecord>(avroSchema).write(exported, encoder);
+    encoder.flush();
+
+    StructuredRecordDatumReader reader = new StructuredRecordDatumReader(schema);
+    reader.setSchema(avroSchema);
+    StructuredRecord record = reader.read(null, DecoderFactory.get().binaryDecoder(out.toByteArray(), null));
+
+    Assert.assertEquals(1L, (long) record.get("id"));
+    Assert.assertEquals(Arrays.asList("a", "b", "c"), record.get("tags"));
+    StructuredRecord address = record.get("address");
+    Assert.assertEquals(outputAddress, address.getSchema());
+    Assert.assertEquals("Palo Alto", address.get("city"));
+    List<StructuredRecord> addresses = record.get("addresses");
+    Assert.assertEquals(2, addresses.size());
+    Assert.assertEquals("Palo Alto", addresses.get(0).get("city"));
+    Assert.assertNull(addresses.get(1).get("city"));
+  }
+
+  @Test
+  public void testParseDate() {
+    Random random = new Random(0);
+    // 0001-01-01 to 9999-12-31, the range of BigQuery dates
+    long min = LocalDate.of(1, 1, 1).toEpochDay();
+    long max = LocalDate.of(9999, 12, 31).toEpochDay();
+    for (int i = 0; i < 10000; i++) {
+      LocalDate date = LocalDate.ofEpochDay(min + (long) (random.nextDouble() * (max - min)));
+      byte[] text = date.toString().getBytes(StandardCharsets.UTF_8);
+      Assert.assertEquals(date.toEpochDay(), TemporalParser.parseDate(text, 0, text.length));
+    }
+  }
+
+  @Test
+  public void testParseTime() {
+    byte[] text = "23:59:59".getBytes(StandardCharsets.UTF_8);
+    Assert.assertEquals(TimeUnit.NANOSECONDS.toMicros(LocalTime.of(23, 59, 59).toNanoOfDay()),
+                        TemporalParser.parseTimeMicros(text, 0, text.length));
+    text = "01:02:03.000456".getBytes(StandardCharsets.UTF_8);
+    Assert.assertEquals(TimeUnit.NANOSECONDS.toMicros(LocalTime.of(1, 2, 3, 456000).toNanoOfDay()),
+                        TemporalParser.parseTimeMicros(text, 0, text.length));
+    text = "01:02:03.12".getBytes(StandardCharsets.UTF_8);
+    Assert.assertEquals(TimeUnit.NANOSECONDS.toMicros(LocalTime.of(1, 2, 3, 120000000).toNanoOfDay()),
+                        TemporalParser.parseTimeMicros(text, 0, text.length));
+  }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright © 2018 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.gcp.bigquery;
+
+import co.cask.cdap.api.data.format.StructuredRecord;
+import co.cask.cdap.api.data.schema.Schema;
+import co.cask.gcp.bigquery.sink.StructuredToAvroEncoder;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.LocalDate;
+
+/**
+ * Tests for {@link StructuredToAvroEncoder}.
+ */
+public class StructuredToAvroEncoderTest {
+
+  @Test
+  public void testEncode() {
+    Schema outputSchema = Schema.recordOf("record",
+                                          Schema.Field.of("id", Schema.of(Schema.Type.LONG)),
+                                          Schema.Field.of("name", Schema.nullableOf(Schema.of(Schema.Type.STRING))),
+                                          Schema.Field.of("dt", Schema.nullableOf(Schema.of(Schema.LogicalType.DATE))),
+                                          Schema.Field.of("bytedata", Schema.of(Schema.Type.BYTES)),
+                                          Schema.Field.of("timestamp",
+                                                          Schema.of(Schema.LogicalType.TIMESTAMP_MICROS)));
+    Schema inputSchema = Schema.recordOf("input",
+                                         Schema.Field.of("id", Schema.of(Schema.Type.LONG)),
+                                         Schema.Field.of("dt", Schema.nullableOf(Schema.of(Schema.LogicalType.DATE))),
+                                         Schema.Field.of("bytedata", Schema.of(Schema.Type.BYTES)),
+                                         Schema.Field.of("timestamp",
+                                                         Schema.of(Schema.LogicalType.TIMESTAMP_MICROS)),
+                                         Schema.Field.of("ignored", Schema.of(Schema.Type.STRING)));
+
+    StructuredRecord input = StructuredRecord.builder(inputSchema)
+      .set("id", 1L)
+      .setDate("dt", LocalDate.of(2018, 11, 11))
+      .set("bytedata", new byte[] { 1, 2, 3 })
+      .set("timestamp", 1464181635000000L)
+      .set("ignored", "value")
+      .build();
+
+    StructuredToAvroEncoder encoder = new StructuredToAvroEncoder(outputSchema);
+    GenericRecord actual = encoder.encode(input);
+
+    Assert.assertEquals(outputSchema.getFields().size(), actual.getSchema().getFields().size());
+    Assert.assertEquals(1L, actual.get("id"));
+    Assert.assertNull(actual.get("name"));
+    Assert.assertEquals((int) LocalDate.of(2018, 11, 11).toEpochDay(), actual.get("dt"));
+    Assert.assertEquals(ByteBuffer.wrap(new byte[] { 1, 2, 3 }), actual.get("bytedata"));
+    Assert.assertEquals(1464181635000000L, actual.get("timestamp"));
+    Assert.assertEquals("timestamp-micros", actual.getSchema().getField("timestamp").schema().getProp("logicalType"));
+  }
+
+  @Test
+  public void testEncodeWidensValues() throws IOException {
+    Schema outputSchema = Schema.recordOf("record",
+                                          Schema.Field.of("id", Schema.of(Schema.Type.LONG)),
+                                          Schema.Field.of("score", Schema.of(Schema.Type.DOUBLE)),
+                                          Schema.Field.of("timestamp",
+                                                          Schema.of(Schema.LogicalType.TIMESTAMP_MICROS)),
+                                          Schema.Field.of("time", Schema.of(Schema.LogicalType.TIME_MICROS)));
+    Schema inputSchema = Schema.recordOf("input",
+                                         Schema.Field.of("id", Schema.of(Schema.Type.INT)),
+                                         Schema.Field.of("score", Schema.of(Schema.Type.FLOAT)),
+                                         Schema.Field.of("timestamp",
+                                                         Schema.of(Schema.LogicalType.TIMESTAMP_MILLIS)),
+                                         Schema.Field.of("time", Schema.of(Schema.LogicalType.TIME_MILLIS)));
+
+    StructuredRecord input = StructuredRecord.builder(inputSchema)
+      .set("id", 1)
+      .set("score", 0.5f)
+      .set("timestamp", 1464181635000L)
+      .set("time", 1000)
+      .build();
+
+    StructuredToAvroEncoder encoder = new StructuredToAvroEncoder(outputSchema);
+    GenericRecord actual = encoder.encode(input);
+
+    Assert.assertEquals(1L, actual.get("id"));
+    Assert.assertEquals(0.5d, actual.get("score"));
+    Assert.assertEquals(1464181635000000L, actual.get("timestamp"));
+    Assert.assertEquals(1000000L, actual.get("time"));
+
+    // Avro only writes values of the exact type of the schema
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (DataFileWriter<GenericRecord> writer =
+           new DataFileWriter<>(new GenericDatumWriter<GenericRecord>(encoder.getAvroSchema()))) {
+      writer.create(encoder.getAvroSchema(), out);
+      writer.append(actual);
+    }
+    Assert.assertTrue(out.size() > 0);
+  }
+}
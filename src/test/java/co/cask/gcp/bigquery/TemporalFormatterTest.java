@@ -0,0 +1,73 @@
+/*
+ * Copyright © 2018 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.gcp.bigquery;
+
+import co.cask.gcp.bigquery.sink.TemporalFormatter;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for {@link TemporalFormatter}.
+ */
+public class TemporalFormatterTest {
+  private static final DateTimeFormatter dtf = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSSSSS");
+  private static final DateTimeFormatter timeFormatter = DateTimeFormatter.ofPattern("HH:mm:ss.SSSSSS");
+  // 0001-01-01 00:00:00 and 9999-12-31 23:59:59.999999, the range of BigQuery timestamps
+  private static final long MIN_MICROS = -62135596800000000L;
+  private static final long MAX_MICROS = 253402300799999999L;
+
+  @Test
+  public void testBoundaries() {
+    TemporalFormatter formatter = new TemporalFormatter();
+    Assert.assertEquals("1970-01-01 00:00:00.000000", formatter.formatTimestampMicros(0L));
+    Assert.assertEquals("1969-12-31 23:59:59.999999", formatter.formatTimestampMicros(-1L));
+    Assert.assertEquals("0001-01-01 00:00:00.000000", formatter.formatTimestampMicros(MIN_MICROS));
+    Assert.assertEquals("9999-12-31 23:59:59.999999", formatter.formatTimestampMicros(MAX_MICROS));
+    Assert.assertEquals("2016-05-25 13:07:15.123000", formatter.formatTimestampMillis(1464181635123L));
+    Assert.assertEquals("2000-02-29", formatter.formatDate((int) LocalDate.of(2000, 2, 29).toEpochDay()));
+    Assert.assertEquals("23:59:59.999000", formatter.formatTimeMillis(86399999));
+    // years BigQuery can not represent are formatted by java.time
+    Assert.assertEquals(LocalDate.ofEpochDay(3000000).toString(), formatter.formatDate(3000000));
+  }
+
+  @Test
+  public void testMatchesJavaTime() {
+    TemporalFormatter formatter = new TemporalFormatter();
+    Random random = new Random(0);
+    for (int i = 0; i < 100000; i++) {
+      long micros = MIN_MICROS + (long) (random.nextDouble() * (MAX_MICROS - MIN_MICROS));
+      Instant instant = Instant.ofEpochSecond(Math.floorDiv(micros, 1000000L),
+                                              TimeUnit.MICROSECONDS.toNanos(Math.floorMod(micros, 1000000L)));
+      Assert.assertEquals(dtf.format(instant.atZone(ZoneOffset.UTC)), formatter.formatTimestampMicros(micros));
+
+      int epochDay = (int) Math.floorDiv(micros, TimeUnit.DAYS.toMicros(1));
+      Assert.assertEquals(LocalDate.ofEpochDay(epochDay).toString(), formatter.formatDate(epochDay));
+
+      long microsOfDay = Math.floorMod(micros, TimeUnit.DAYS.toMicros(1));
+      Assert.assertEquals(timeFormatter.format(LocalTime.ofNanoOfDay(TimeUnit.MICROSECONDS.toNanos(microsOfDay))),
+                          formatter.formatTimeMicros(microsOfDay));
+    }
+  }
+}
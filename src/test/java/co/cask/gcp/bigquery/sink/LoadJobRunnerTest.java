@@ -0,0 +1,121 @@
+/*
+ * Copyright © 2018 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.gcp.bigquery.sink;
+
+import co.cask.cdap.api.data.format.StructuredRecord;
+import co.cask.cdap.api.data.schema.Schema;
+import co.cask.gcp.bigquery.util.BigQueryUtil;
+import co.cask.gcp.common.GCPUtils;
+import com.google.api.services.bigquery.model.JobConfigurationLoad;
+import com.google.api.services.bigquery.model.TableReference;
+import com.google.cloud.bigquery.BigQuery;
+import com.google.cloud.bigquery.DatasetInfo;
+import com.google.cloud.bigquery.FieldList;
+import com.google.cloud.bigquery.LegacySQLTypeName;
+import com.google.cloud.bigquery.Table;
+import com.google.cloud.bigquery.TableId;
+import com.google.cloud.hadoop.io.bigquery.BigQueryFactory;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.StorageOptions;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.UUID;
+
+/**
+ * Tests for {@link LoadJobRunner}.
+ */
+public class LoadJobRunnerTest {
+  // the Avro load runs against BigQuery, and is skipped unless these properties are set
+  private static final String PROJECT_PROPERTY = "bigquery.test.project";
+  private static final String BUCKET_PROPERTY = "bigquery.test.bucket";
+  private static final String SERVICE_ACCOUNT_PROPERTY = "bigquery.test.service.account";
+
+  @Test
+  public void testAvroLoad() {
+    TableReference table = new TableReference().setProjectId("p").setDatasetId("ds").setTableId("tb");
+    JobConfigurationLoad load = LoadJobRunner.getAvroLoad(table, "gs://bucket/path/*");
+
+    Assert.assertEquals(table, load.getDestinationTable());
+    Assert.assertEquals(Collections.singletonList("gs://bucket/path/*"), load.getSourceUris());
+    Assert.assertEquals("AVRO", load.getSourceFormat());
+    Assert.assertEquals("CREATE_IF_NEEDED", load.getCreateDisposition());
+    Assert.assertEquals("WRITE_APPEND", load.getWriteDisposition());
+    Assert.assertEquals(true, load.get(LoadJobRunner.USE_AVRO_LOGICAL_TYPES));
+  }
+
+  @Test
+  public void testLoadAvroLogicalTypes() throws Exception {
+    String project = System.getProperty(PROJECT_PROPERTY);
+    String bucket = System.getProperty(BUCKET_PROPERTY);
+    String serviceAccountPath = System.getProperty(SERVICE_ACCOUNT_PROPERTY);
+    Assume.assumeNotNull(project, bucket, serviceAccountPath);
+
+    Schema schema = Schema.recordOf("record",
+                                    Schema.Field.of("id", Schema.of(Schema.Type.LONG)),
+                                    Schema.Field.of("dt", Schema.of(Schema.LogicalType.DATE)),
+                                    Schema.Field.of("ts", Schema.of(Schema.LogicalType.TIMESTAMP_MICROS)),
+                                    Schema.Field.of("t", Schema.of(Schema.LogicalType.TIME_MICROS)));
+    StructuredRecord record = StructuredRecord.builder(schema)
+      .set("id", 1L)
+      .setDate("dt", LocalDate.of(2018, 11, 11))
+      .set("ts", 1464181635000000L)
+      .set("t", 1000000L)
+      .build();
+    StructuredToAvroEncoder encoder = new StructuredToAvroEncoder(schema);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (DataFileWriter<GenericRecord> writer =
+           new DataFileWriter<>(new GenericDatumWriter<GenericRecord>(encoder.getAvroSchema()))) {
+      writer.create(encoder.getAvroSchema(), out);
+      writer.append(encoder.encode(record));
+    }
+
+    String name = "load_test_" + UUID.randomUUID().toString().replace("-", "");
+    Storage storage = StorageOptions.newBuilder().setProjectId(project)
+      .setCredentials(GCPUtils.loadServiceAccountCredentials(serviceAccountPath)).build().getService();
+    BlobId blob = BlobId.of(bucket, name + "/part.avro");
+    BigQuery bigquery = BigQueryUtil.getBigQuery(serviceAccountPath, project);
+    storage.create(BlobInfo.newBuilder(blob).build(), out.toByteArray());
+    bigquery.create(DatasetInfo.newBuilder(name).build());
+    try {
+      TableReference table = new TableReference().setProjectId(project).setDatasetId(name).setTableId("tb");
+      LoadJobRunner.runAvro(new BigQueryFactory().getBigQuery(BigQueryUtil.getBigQueryConfig(serviceAccountPath,
+                                                                                            project)),
+                            project, Collections.singletonList(
+                              LoadJobRunner.getAvroLoad(table, String.format("gs://%s/%s/*", bucket, name))), 1);
+
+      Table loaded = bigquery.getTable(TableId.of(project, name, "tb"));
+      FieldList fields = loaded.getDefinition().getSchema().getFields();
+      Assert.assertEquals(LegacySQLTypeName.INTEGER, fields.get("id").getType());
+      Assert.assertEquals(LegacySQLTypeName.DATE, fields.get("dt").getType());
+      Assert.assertEquals(LegacySQLTypeName.TIMESTAMP, fields.get("ts").getType());
+      Assert.assertEquals(LegacySQLTypeName.TIME, fields.get("t").getType());
+    } finally {
+      bigquery.delete(name, BigQuery.DatasetDeleteOption.deleteContents());
+      storage.delete(blob);
+    }
+  }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright © 2018 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package co.cask.gcp.bigquery.sink;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.OutputCommitter;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.TaskType;
+import org.apache.hadoop.mapreduce.task.TaskAttemptContextImpl;
+import org.junit.Assert;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests for {@link PartitionedLoadOutputFormat}.
+ */
+public class PartitionedLoadOutputFormatTest {
+
+  @ClassRule
+  public static final TemporaryFolder TMP_FOLDER = new TemporaryFolder();
+
+  @Test
+  public void testMaxOpenFiles() throws Exception {
+    Path outputPath = new Path(TMP_FOLDER.newFolder().toURI());
+    TaskAttemptContext context = createContext(outputPath, 2);
+    PartitionedLoadOutputFormat outputFormat = new PartitionedLoadOutputFormat();
+    RecordWriter<Object, String> writer = outputFormat.getRecordWriter(context);
+    // the third group closes the file of the least recently written group, which is 'b'
+    for (String group : Arrays.asList("a", "b", "a", "c", "a", "b")) {
+      writer.write("{}", group);
+    }
+    writer.close(context);
+    OutputCommitter committer = outputFormat.getOutputCommitter(context);
+    committer.commitTask(context);
+
+    FileSystem fs = outputPath.getFileSystem(context.getConfiguration());
+    Map<String, Integer> files = new HashMap<>();
+    List<Path> groups = PartitionedLoadOutputFormat.getGroupDirectories(fs, outputPath);
+    for (Path group : groups) {
+      files.put(group.getName(), fs.listStatus(group).length);
+    }
+    Map<String, Integer> expected = new HashMap<>();
+    expected.put("a", 1);
+    expected.put("b", 2);
+    expected.put("c", 1);
+    Assert.assertEquals(expected, files);
+  }
+
+  @Test(expected = IOException.class)
+  public void testInvalidGroup() throws Exception {
+    TaskAttemptContext context = createContext(new Path(TMP_FOLDER.newFolder().toURI()), 2);
+    new PartitionedLoadOutputFormat().getRecordWriter(context).write("{}", "..");
+  }
+
+  private static TaskAttemptContext createContext(Path outputPath, int maxOpenFiles) {
+    Configuration conf = new Configuration();
+    for (Map.Entry<String, String> entry :
+      PartitionedLoadOutputFormat.configure(outputPath.toString(), LoadFileFormat.JSON, null).entrySet()) {
+      conf.set(entry.getKey(), entry.getValue());
+    }
+    conf.setInt(PartitionedLoadOutputFormat.MAX_OPEN_FILES, maxOpenFiles);
+    return new TaskAttemptContextImpl(conf, new TaskAttemptID("test", 1, TaskType.MAP, 0, 0));
+  }
+}
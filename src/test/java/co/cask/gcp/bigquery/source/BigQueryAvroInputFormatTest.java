@@ -0,0 +1,52 @@
+/*
+ * Copyright © 2018 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.gcp.bigquery.source;
+
+import co.cask.cdap.api.data.schema.Schema;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Map;
+
+/**
+ * Tests for {@link BigQueryAvroInputFormat}.
+ */
+public class BigQueryAvroInputFormatTest {
+
+  @Test
+  public void testSplitCount() {
+    long mb = 1024L * 1024L;
+    // empty and small tables are still read by one split
+    Assert.assertEquals(1, BigQueryAvroInputFormat.getSplitCount(0L, 256 * mb));
+    Assert.assertEquals(1, BigQueryAvroInputFormat.getSplitCount(mb, 256 * mb));
+    Assert.assertEquals(1, BigQueryAvroInputFormat.getSplitCount(256 * mb, 256 * mb));
+    // partial splits are rounded up
+    Assert.assertEquals(2, BigQueryAvroInputFormat.getSplitCount(256 * mb + 1, 256 * mb));
+    Assert.assertEquals(40, BigQueryAvroInputFormat.getSplitCount(10 * 1024 * mb, 256 * mb));
+    Assert.assertEquals(Integer.MAX_VALUE, BigQueryAvroInputFormat.getSplitCount(Long.MAX_VALUE, 1L));
+  }
+
+  @Test
+  public void testConfigureSharded() {
+    Schema schema = Schema.recordOf("output", Schema.Field.of("id", Schema.of(Schema.Type.LONG)));
+    Map<String, String> config = BigQueryAvroInputFormat.configureSharded(schema, 1024L * 1024L * 1024L,
+                                                                          128L * 1024L * 1024L);
+    Assert.assertEquals(schema.toString(), config.get(BigQueryAvroInputFormat.OUTPUT_SCHEMA));
+    Assert.assertEquals("8", config.get("mapreduce.job.maps"));
+    Assert.assertEquals("8", config.get("mapred.map.tasks"));
+  }
+}
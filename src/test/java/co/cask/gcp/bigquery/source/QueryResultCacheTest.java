@@ -0,0 +1,181 @@
+/*
+ * Copyright © 2018 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.gcp.bigquery.source;
+
+import com.google.cloud.bigquery.BigQuery;
+import com.google.cloud.bigquery.ExternalTableDefinition;
+import com.google.cloud.bigquery.Job;
+import com.google.cloud.bigquery.JobInfo;
+import com.google.cloud.bigquery.JobStatistics;
+import com.google.cloud.bigquery.JobStatus;
+import com.google.cloud.bigquery.QueryJobConfiguration;
+import com.google.cloud.bigquery.StandardTableDefinition;
+import com.google.cloud.bigquery.Table;
+import com.google.cloud.bigquery.TableDefinition;
+import com.google.cloud.bigquery.TableId;
+import com.google.cloud.bigquery.ViewDefinition;
+import com.google.common.collect.ImmutableMap;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tests for {@link QueryResultCache}.
+ */
+public class QueryResultCacheTest {
+
+  @Test
+  public void testCacheTableName() {
+    String query = "SELECT tenant, COUNT(*) FROM `p.ds.events` GROUP BY tenant";
+    Map<TableId, Long> snapshots = ImmutableMap.of(TableId.of("p", "ds", "events"), 100L,
+                                                   TableId.of("p", "ds", "tenants"), 200L);
+    String name = QueryResultCache.getCacheTableName(query, snapshots);
+
+    Assert.assertTrue(name.startsWith("_query_"));
+    // the order the referenced tables are listed in does not matter
+    Assert.assertEquals(name, QueryResultCache.getCacheTableName(
+      query, ImmutableMap.of(TableId.of("p", "ds", "tenants"), 200L, TableId.of("p", "ds", "events"), 100L)));
+    // modified tables and other queries get another table
+    Assert.assertNotEquals(name, QueryResultCache.getCacheTableName(
+      query, ImmutableMap.of(TableId.of("p", "ds", "events"), 101L, TableId.of("p", "ds", "tenants"), 200L)));
+    Assert.assertNotEquals(name, QueryResultCache.getCacheTableName(query + " ORDER BY tenant", snapshots));
+  }
+
+  @Test
+  public void testDeterministic() {
+    Assert.assertTrue(QueryResultCache.isDeterministic("SELECT current_total FROM `p.ds.t` WHERE brand = 'NOW'"));
+    Assert.assertFalse(QueryResultCache.isDeterministic("SELECT * FROM `p.ds.t` WHERE dt = CURRENT_DATE"));
+    Assert.assertFalse(QueryResultCache.isDeterministic("SELECT * FROM `p.ds.t` WHERE ts < current_timestamp()"));
+    Assert.assertFalse(QueryResultCache.isDeterministic("SELECT * FROM `p.ds.t` WHERE RAND () < 0.1"));
+    Assert.assertFalse(QueryResultCache.isDeterministic("SELECT * FROM `p.ds.t` WHERE owner = SESSION_USER()"));
+    // persistent user defined functions may call non-deterministic functions, built in functions with prefixes do not
+    Assert.assertFalse(QueryResultCache.isDeterministic("SELECT ds.score(x) FROM `p.ds.t`"));
+    Assert.assertFalse(QueryResultCache.isDeterministic("SELECT `p.ds.score` (x) FROM `p.ds.t`"));
+    Assert.assertTrue(QueryResultCache.isDeterministic(
+      "SELECT SAFE.DIVIDE(t.x, t.y), NET.HOST(t.url) FROM `p.ds.t` t"));
+  }
+
+  @Test
+  public void testCacheInvalidatedWhenTableChanges() throws Exception {
+    FakeBigQuery fake = new FakeBigQuery();
+    QueryResultCache cache = new QueryResultCache(fake.bigquery, "p", "ds", 24);
+    String query = "SELECT tenant, COUNT(*) FROM `p.ds.events` GROUP BY tenant";
+
+    String first = cache.getResultTable(query);
+    Assert.assertEquals(1, fake.queries.size());
+    Assert.assertFalse(QueryResultCache.isTemporary(first));
+
+    // unchanged tables reuse the cache table
+    Assert.assertEquals(first, cache.getResultTable(query));
+    Assert.assertEquals(1, fake.queries.size());
+
+    // changes to the table run the query again, into another cache table
+    fake.lastModified.set(200L);
+    String second = cache.getResultTable(query);
+    Assert.assertNotEquals(first, second);
+    Assert.assertEquals(2, fake.queries.size());
+  }
+
+  @Test
+  public void testUncachedQueries() throws Exception {
+    FakeBigQuery fake = new FakeBigQuery();
+    QueryResultCache cache = new QueryResultCache(fake.bigquery, "p", "ds", 24);
+
+    // non-deterministic queries run every time, into their own temporary table
+    String query = "SELECT * FROM `p.ds.events` WHERE dt = CURRENT_DATE()";
+    String first = cache.getResultTable(query);
+    String second = cache.getResultTable(query);
+    Assert.assertNotEquals(first, second);
+    Assert.assertTrue(QueryResultCache.isTemporary(first));
+    Assert.assertEquals(2, fake.queries.size());
+
+    // rows in the streaming buffer do not change the modification time of the table
+    fake.streaming = true;
+    query = "SELECT * FROM `p.ds.events`";
+    Assert.assertTrue(QueryResultCache.isTemporary(cache.getResultTable(query)));
+    Assert.assertTrue(QueryResultCache.isTemporary(cache.getResultTable(query)));
+    Assert.assertEquals(4, fake.queries.size());
+
+    // the modification times of views and external tables do not change with the data they read
+    fake.streaming = false;
+    fake.definition = ViewDefinition.class;
+    Assert.assertTrue(QueryResultCache.isTemporary(cache.getResultTable(query)));
+    fake.definition = ExternalTableDefinition.class;
+    Assert.assertTrue(QueryResultCache.isTemporary(cache.getResultTable(query)));
+    fake.definition = StandardTableDefinition.class;
+    Assert.assertFalse(QueryResultCache.isTemporary(cache.getResultTable(query)));
+  }
+
+  /**
+   * BigQuery service with a single referenced table, whose queries create their destination table. The referenced
+   * table is a standard table unless another definition is set.
+   */
+  private static class FakeBigQuery {
+    private static final TableId EVENTS = TableId.of("p", "ds", "events");
+    private final BigQuery bigquery = Mockito.mock(BigQuery.class);
+    private final AtomicLong lastModified = new AtomicLong(100L);
+    private final List<String> queries = new ArrayList<>();
+    private final Set<TableId> tables = new HashSet<>();
+    private boolean streaming;
+    private Class<? extends TableDefinition> definition = StandardTableDefinition.class;
+
+    FakeBigQuery() throws Exception {
+      JobStatistics.QueryStatistics statistics = Mockito.mock(JobStatistics.QueryStatistics.class);
+      Mockito.when(statistics.getReferencedTables()).thenReturn(Collections.singletonList(EVENTS));
+      Job dryRun = Mockito.mock(Job.class);
+      Mockito.doReturn(statistics).when(dryRun).getStatistics();
+      Job query = Mockito.mock(Job.class);
+      Mockito.when(query.waitFor()).thenReturn(query);
+      Mockito.when(query.getStatus()).thenReturn(Mockito.mock(JobStatus.class));
+
+      Mockito.when(bigquery.create(Mockito.any(JobInfo.class))).thenAnswer(invocation -> {
+        QueryJobConfiguration config = invocation.<JobInfo>getArgument(0).getConfiguration();
+        if (Boolean.TRUE.equals(config.dryRun())) {
+          return dryRun;
+        }
+        queries.add(config.getQuery());
+        tables.add(config.getDestinationTable());
+        return query;
+      });
+      Mockito.when(bigquery.getTable(Mockito.any(TableId.class))).thenAnswer(invocation -> {
+        TableId tableId = invocation.getArgument(0);
+        if (EVENTS.equals(tableId)) {
+          Table events = Mockito.mock(Table.class);
+          Mockito.when(events.getLastModifiedTime()).thenReturn(lastModified.get());
+          if (definition != StandardTableDefinition.class) {
+            Mockito.doReturn(Mockito.mock(definition)).when(events).getDefinition();
+            return events;
+          }
+          StandardTableDefinition standard = Mockito.mock(StandardTableDefinition.class);
+          Mockito.when(standard.getStreamingBuffer()).thenReturn(
+            streaming ? Mockito.mock(StandardTableDefinition.StreamingBuffer.class) : null);
+          Mockito.doReturn(standard).when(events).getDefinition();
+          return events;
+        }
+        return tables.contains(tableId) ? Mockito.mock(Table.class, Mockito.RETURNS_DEEP_STUBS) : null;
+      });
+    }
+  }
+}
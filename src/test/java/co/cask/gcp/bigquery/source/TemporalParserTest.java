@@ -0,0 +1,84 @@
+/*
+ * Copyright © 2018 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package co.cask.gcp.bigquery.source;
+
+import co.cask.cdap.api.data.format.UnexpectedFormatException;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalTime;
+
+/**
+ * Tests for {@link TemporalParser}.
+ */
+public class TemporalParserTest {
+
+  @Test
+  public void testParseDate() {
+    for (String date : new String[] {"1970-01-01", "2019-02-28", "2020-02-29", "2000-02-29", "0001-12-31",
+      "9999-12-31", "1969-12-31", "2019-04-30"}) {
+      Assert.assertEquals(LocalDate.parse(date).toEpochDay(), parseDate(date));
+    }
+  }
+
+  @Test
+  public void testInvalidDates() {
+    for (String date : new String[] {"2019-02-29", "2019-02-30", "1900-02-29", "2019-04-31", "2019-06-31",
+      "2019-09-31", "2019-11-31", "2019-01-32", "2019-00-10", "2019-13-01", "2019-01-00", "2019/01/01",
+      "2019-1-01", "20a9-01-01"}) {
+      try {
+        parseDate(date);
+        Assert.fail("Expected " + date + " to be invalid.");
+      } catch (UnexpectedFormatException e) {
+        // expected
+      }
+    }
+  }
+
+  @Test
+  public void testParseTime() {
+    for (String time : new String[] {"00:00:00", "23:59:59", "12:34:56.7", "12:34:56.123456", "01:02:03.000001"}) {
+      Assert.assertEquals(LocalTime.parse(time).toNanoOfDay() / 1000, parseTime(time));
+    }
+  }
+
+  @Test
+  public void testInvalidTimes() {
+    for (String time : new String[] {"24:00:00", "12:60:00", "12:00:60", "99:99:99", "12:00:00.", "12:00:00.1234567",
+      "12-00-00", "1:00:00", "12:00:0a"}) {
+      try {
+        parseTime(time);
+        Assert.fail("Expected " + time + " to be invalid.");
+      } catch (UnexpectedFormatException e) {
+        // expected
+      }
+    }
+  }
+
+  private static int parseDate(String date) {
+    byte[] bytes = date.getBytes(StandardCharsets.UTF_8);
+    return TemporalParser.parseDate(bytes, 0, bytes.length);
+  }
+
+  private static long parseTime(String time) {
+    byte[] bytes = time.getBytes(StandardCharsets.UTF_8);
+    return TemporalParser.parseTimeMicros(bytes, 0, bytes.length);
+  }
+}
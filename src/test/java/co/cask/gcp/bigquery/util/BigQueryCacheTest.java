@@ -0,0 +1,97 @@
+/*
+ * Copyright © 2018 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.gcp.bigquery.util;
+
+import com.google.cloud.bigquery.Table;
+import com.google.cloud.bigquery.TableId;
+import com.google.common.base.Ticker;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tests for {@link BigQueryCache}.
+ */
+public class BigQueryCacheTest {
+  private static final TableId TABLE_ID = TableId.of("p", "ds", "tb");
+
+  @Test
+  public void testTableExpires() throws Exception {
+    AtomicLong nanos = new AtomicLong();
+    BigQueryCache.TableCache cache = new BigQueryCache.TableCache(new Ticker() {
+      @Override
+      public long read() {
+        return nanos.get();
+      }
+    });
+    AtomicInteger loads = new AtomicInteger();
+    Table table = Mockito.mock(Table.class);
+    BigQueryCache.TableLoader loader = () -> {
+      loads.incrementAndGet();
+      return table;
+    };
+
+    Assert.assertSame(table, cache.get(null, "p", TABLE_ID, loader));
+    nanos.addAndGet(TimeUnit.SECONDS.toNanos(59));
+    Assert.assertSame(table, cache.get(null, "p", TABLE_ID, loader));
+    Assert.assertEquals(1, loads.get());
+
+    nanos.addAndGet(TimeUnit.SECONDS.toNanos(2));
+    Assert.assertSame(table, cache.get(null, "p", TABLE_ID, loader));
+    Assert.assertEquals(2, loads.get());
+  }
+
+  @Test
+  public void testMissingTableNotCached() throws Exception {
+    BigQueryCache.TableCache cache = new BigQueryCache.TableCache(Ticker.systemTicker());
+    AtomicInteger loads = new AtomicInteger();
+    Table table = Mockito.mock(Table.class);
+    BigQueryCache.TableLoader loader = () -> loads.incrementAndGet() == 1 ? null : table;
+
+    Assert.assertNull(cache.get(null, "p", TABLE_ID, loader));
+    // the table is fetched again once it was created
+    Assert.assertSame(table, cache.get(null, "p", TABLE_ID, loader));
+    Assert.assertEquals(2, loads.get());
+  }
+
+  @Test
+  public void testInvalidateTable() throws Exception {
+    BigQueryCache.TableCache cache = new BigQueryCache.TableCache(Ticker.systemTicker());
+    AtomicInteger loads = new AtomicInteger();
+    BigQueryCache.TableLoader loader = () -> {
+      loads.incrementAndGet();
+      return Mockito.mock(Table.class);
+    };
+
+    // metadata is cached per credentials, and invalidated for all of them
+    Table first = cache.get(null, "p", TABLE_ID, loader);
+    Table other = cache.get("/path/to/account.json", "p", TABLE_ID, loader);
+    Table unrelated = cache.get(null, "p", TableId.of("p", "ds", "other"), loader);
+    Assert.assertEquals(3, loads.get());
+    Assert.assertNotSame(first, other);
+
+    cache.invalidate(TABLE_ID);
+    Assert.assertNotSame(first, cache.get(null, "p", TABLE_ID, loader));
+    Assert.assertNotSame(other, cache.get("/path/to/account.json", "p", TABLE_ID, loader));
+    Assert.assertSame(unrelated, cache.get(null, "p", TableId.of("p", "ds", "other"), loader));
+    Assert.assertEquals(5, loads.get());
+  }
+}
@@ -16,9 +16,23 @@
 
 package co.cask.gcp.gcs;
 
+import com.google.api.gax.paging.Page;
+import com.google.cloud.storage.Blob;
 import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.Bucket;
+import com.google.cloud.storage.BucketInfo;
+import com.google.cloud.storage.Storage;
 import org.junit.Assert;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Tests for storage client
@@ -67,4 +81,99 @@ public class StorageClientTest {
     Assert.assertEquals(BlobId.of("b0", "subdir/dir2/a/b/c"),
                         StorageClient.resolve("dir1/dir2", "dir1/dir2/a/b/c", GCSPath.from("b0/subdir/"), false));
   }
+
+  @Test
+  public void testExistingStagingBucket() {
+    Bucket unlabeled = mockBucket("staging-a", Collections.emptyMap(), 7);
+    Bucket labeled = mockBucket("staging-c", Collections.singletonMap("staging", "true"), 7);
+    Bucket first = mockBucket("staging-b", Collections.singletonMap("staging", "true"), 3);
+    Storage storage = mockStorage(unlabeled, labeled, first);
+
+    Assert.assertEquals("staging-b", new StorageClient(storage).getOrCreateStagingBucket("staging-", "staging", 7));
+    Mockito.verify(storage, Mockito.never()).create(ArgumentMatchers.any(BucketInfo.class));
+    Mockito.verify(first, Mockito.never()).toBuilder();
+  }
+
+  @Test
+  public void testStagingBucketWithoutDeleteRule() {
+    Bucket bucket = mockBucket("staging-a", Collections.singletonMap("staging", "true"), 30);
+    Bucket.Builder builder = Mockito.mock(Bucket.Builder.class);
+    Mockito.when(bucket.toBuilder()).thenReturn(builder);
+    Mockito.when(builder.setDeleteRules(ArgumentMatchers.any())).thenReturn(builder);
+    Mockito.when(builder.build()).thenReturn(bucket);
+    Storage storage = mockStorage(bucket);
+
+    Assert.assertEquals("staging-a", new StorageClient(storage).getOrCreateStagingBucket("staging-", "staging", 7));
+    ArgumentCaptor<Iterable<BucketInfo.DeleteRule>> rules = ArgumentCaptor.forClass(Iterable.class);
+    Mockito.verify(builder).setDeleteRules(rules.capture());
+    Assert.assertTrue(hasAgeDeleteRule(rules.getValue(), 7));
+    Mockito.verify(bucket).update();
+  }
+
+  @Test
+  public void testNewStagingBucket() {
+    Storage storage = mockStorage(mockBucket("staging-a", null, 7));
+
+    String name = new StorageClient(storage).getOrCreateStagingBucket("staging-", "staging", 7);
+    ArgumentCaptor<BucketInfo> bucketInfo = ArgumentCaptor.forClass(BucketInfo.class);
+    Mockito.verify(storage).create(bucketInfo.capture());
+    Assert.assertEquals(name, bucketInfo.getValue().getName());
+    Assert.assertTrue(name.startsWith("staging-"));
+    Assert.assertNotEquals("staging-a", name);
+    Assert.assertEquals(Collections.singletonMap("staging", "true"), bucketInfo.getValue().getLabels());
+    Assert.assertTrue(hasAgeDeleteRule(bucketInfo.getValue().getDeleteRules(), 7));
+    Assert.assertNotEquals(name, new StorageClient(storage).getOrCreateStagingBucket("staging-", "staging", 7));
+  }
+
+  @Test
+  public void testDeletePrefix() {
+    List<Blob> blobs = new ArrayList<>();
+    for (int i = 0; i < 250; i++) {
+      Blob blob = Mockito.mock(Blob.class);
+      Mockito.when(blob.getBlobId()).thenReturn(BlobId.of("b0", "tmp/" + i));
+      blobs.add(blob);
+    }
+    Page<Blob> page = Mockito.mock(Page.class);
+    Mockito.when(page.iterateAll()).thenReturn(blobs);
+    Storage storage = Mockito.mock(Storage.class);
+    Mockito.when(storage.list(ArgumentMatchers.eq("b0"), ArgumentMatchers.any(Storage.BlobListOption.class)))
+      .thenReturn(page);
+    Mockito.when(storage.delete(ArgumentMatchers.<Iterable<BlobId>>any())).thenAnswer(invocation -> {
+      List<Boolean> results = new ArrayList<>();
+      for (BlobId ignored : invocation.<Iterable<BlobId>>getArgument(0)) {
+        results.add(true);
+      }
+      return results;
+    });
+
+    Assert.assertEquals(250, new StorageClient(storage).deletePrefix("b0", "tmp/"));
+    Mockito.verify(storage, Mockito.times(3)).delete(ArgumentMatchers.<Iterable<BlobId>>any());
+  }
+
+  private static Bucket mockBucket(String name, Map<String, String> labels, int retentionDays) {
+    Bucket bucket = Mockito.mock(Bucket.class);
+    Mockito.when(bucket.getName()).thenReturn(name);
+    Mockito.when(bucket.getLabels()).thenReturn(labels);
+    Mockito.doReturn(Collections.singletonList(new BucketInfo.AgeDeleteRule(retentionDays)))
+      .when(bucket).getDeleteRules();
+    return bucket;
+  }
+
+  private static Storage mockStorage(Bucket... buckets) {
+    Page<Bucket> page = Mockito.mock(Page.class);
+    Mockito.when(page.iterateAll()).thenReturn(Arrays.asList(buckets));
+    Storage storage = Mockito.mock(Storage.class);
+    Mockito.when(storage.list(ArgumentMatchers.any(Storage.BucketListOption.class))).thenReturn(page);
+    return storage;
+  }
+
+  private static boolean hasAgeDeleteRule(Iterable<? extends BucketInfo.DeleteRule> rules, int retentionDays) {
+    for (BucketInfo.DeleteRule rule : rules) {
+      if (rule instanceof BucketInfo.AgeDeleteRule
+        && ((BucketInfo.AgeDeleteRule) rule).getDaysToLive() == retentionDays) {
+        return true;
+      }
+    }
+    return false;
+  }
 }
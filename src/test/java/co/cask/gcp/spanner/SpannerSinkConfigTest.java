@@ -18,6 +18,7 @@ package co.cask.gcp.spanner;
 
 import co.cask.cdap.api.data.schema.Schema;
 import co.cask.gcp.spanner.sink.SpannerSinkConfig;
+import org.junit.Assert;
 import org.junit.Test;
 
 public class SpannerSinkConfigTest {
@@ -51,4 +52,17 @@ public class SpannerSinkConfigTest {
     SpannerSinkConfig config = new SpannerSinkConfig("r", null, null, null, null, "id, name", schema.toString());
     config.validate();
   }
+
+  @Test
+  public void testDefaultSessionPool() {
+    Schema schema = Schema.recordOf("record", Schema.Field.of("id", Schema.of(Schema.Type.LONG)));
+
+    SpannerSinkConfig config = new SpannerSinkConfig("r", null, null, null, null, "id", schema.toString());
+    config.validate();
+    // one session per commit in flight
+    Assert.assertEquals(config.getMaxInFlightCommits(), config.getMinSessions());
+    Assert.assertEquals(config.getMaxInFlightCommits(), config.getMaxSessions());
+    Assert.assertNull(config.getNumChannels());
+    Assert.assertFalse(config.isWarmUpSessions());
+  }
 }
@@ -39,4 +39,27 @@ public class SpannerUtilTest {
                           "timestamp TIMESTAMP) PRIMARY KEY (id, name)",
                         SpannerUtil.convertSchemaToCreateStatement("table", "id, name", schema));
   }
+
+  @Test
+  public void convertSchemaWithArraysTest() {
+    Schema schema = Schema.recordOf("record",
+                                    Schema.Field.of("id", Schema.of(Schema.Type.INT)),
+                                    Schema.Field.of("flag", Schema.of(Schema.Type.BOOLEAN)),
+                                    Schema.Field.of("score", Schema.nullableOf(Schema.of(Schema.Type.FLOAT))),
+                                    Schema.Field.of("tags", Schema.arrayOf(Schema.of(Schema.Type.STRING))),
+                                    Schema.Field.of("dates", Schema.nullableOf(
+                                      Schema.arrayOf(Schema.nullableOf(Schema.of(Schema.LogicalType.DATE))))));
+
+    SpannerUtil.validateSinkSchema(schema);
+    Assert.assertEquals("CREATE TABLE table (id INT64 NOT NULL, flag BOOL NOT NULL, score FLOAT64, " +
+                          "tags ARRAY<STRING(MAX)> NOT NULL, dates ARRAY<DATE>) PRIMARY KEY (id)",
+                        SpannerUtil.convertSchemaToCreateStatement("table", "id", schema));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void validateNestedArrayTest() {
+    Schema matrix = Schema.arrayOf(Schema.arrayOf(Schema.of(Schema.Type.LONG)));
+    Schema schema = Schema.recordOf("record", Schema.Field.of("matrix", matrix));
+    SpannerUtil.validateSinkSchema(schema);
+  }
 }
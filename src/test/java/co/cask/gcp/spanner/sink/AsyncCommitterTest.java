@@ -0,0 +1,91 @@
+/*
+ * Copyright © 2018 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.gcp.spanner.sink;
+
+import com.google.cloud.Timestamp;
+import com.google.cloud.spanner.DatabaseClient;
+import com.google.cloud.spanner.Key;
+import com.google.cloud.spanner.Mutation;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for {@link AsyncCommitter}.
+ */
+public class AsyncCommitterTest {
+
+  @Test
+  public void testCommitsBoundedInFlight() throws Exception {
+    AtomicInteger inFlight = new AtomicInteger();
+    AtomicInteger maxInFlight = new AtomicInteger();
+    AtomicInteger committed = new AtomicInteger();
+    AsyncCommitter committer = new AsyncCommitter(client(mutations -> {
+      maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+      Thread.sleep(5);
+      committed.addAndGet(mutations.size());
+      inFlight.decrementAndGet();
+    }), 2);
+
+    for (int i = 0; i < 20; i++) {
+      committer.submit(Collections.singletonList(Mutation.delete("t", Key.of(i))));
+    }
+    committer.close();
+
+    Assert.assertEquals(20, committed.get());
+    Assert.assertTrue(maxInFlight.get() <= 2);
+  }
+
+  @Test
+  public void testFailureSurfacedOnClose() throws Exception {
+    AsyncCommitter committer = new AsyncCommitter(client(mutations -> {
+      throw new IllegalStateException("commit failed");
+    }), 1);
+    committer.submit(Collections.singletonList(Mutation.delete("t", Key.of(1))));
+    try {
+      committer.close();
+      Assert.fail("Expected the failed commit to be reported.");
+    } catch (IOException e) {
+      Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+    }
+  }
+
+  private static DatabaseClient client(Commit commit) {
+    return (DatabaseClient) Proxy.newProxyInstance(
+      AsyncCommitterTest.class.getClassLoader(), new Class[] { DatabaseClient.class }, (proxy, method, args) -> {
+        if (!method.getName().equals("write")) {
+          throw new UnsupportedOperationException(method.getName());
+        }
+        @SuppressWarnings("unchecked")
+        List<Mutation> mutations = (List<Mutation>) args[0];
+        commit.write(mutations);
+        return Timestamp.now();
+      });
+  }
+
+  /**
+   * Commit of a batch by the fake client.
+   */
+  private interface Commit {
+    void write(List<Mutation> mutations) throws Exception;
+  }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright © 2018 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.gcp.spanner.sink;
+
+import com.google.cloud.spanner.Key;
+import com.google.cloud.spanner.Mutation;
+import com.google.cloud.spanner.Value;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Tests for {@link CommitCheckpoint}.
+ */
+public class CommitCheckpointTest {
+
+  @Test
+  public void testSkipCommittedBatches() {
+    long hash = digest(row(0, "a"), row(1, "b"));
+    CommitCheckpoint checkpoint = new CommitCheckpoint("checkpoints", "run", "task",
+                                                       Collections.singletonMap(0L, hash));
+    Assert.assertTrue(checkpoint.isCommitted(0L, digest(row(0, "a"), row(1, "b"))));
+    // another batch at the same position, or the same batch at another position, is committed again
+    Assert.assertFalse(checkpoint.isCommitted(0L, digest(row(1, "b"), row(0, "a"))));
+    Assert.assertFalse(checkpoint.isCommitted(0L, digest(row(2, "c"))));
+    Assert.assertFalse(checkpoint.isCommitted(1L, hash));
+  }
+
+  @Test
+  public void testNewBatchLeavesRoomForRecord() {
+    CommitCheckpoint checkpoint = new CommitCheckpoint("checkpoints", "run", "task", Collections.emptyMap());
+    MutationBatch batch = checkpoint.newBatch();
+    int i = 0;
+    while (batch.addIfFits(row(i, "a"))) {
+      i++;
+    }
+    MutationBatch withRecord = new MutationBatch();
+    for (Mutation mutation : batch.getMutations()) {
+      Assert.assertTrue(withRecord.addIfFits(mutation));
+    }
+    Assert.assertTrue(withRecord.addIfFits(checkpoint.record(i, batch.getDigest())));
+    Assert.assertTrue(withRecord.getCells() <= MutationBatch.MAX_CELLS);
+  }
+
+  @Test
+  public void testRecord() {
+    Mutation mutation = new CommitCheckpoint("checkpoints", "run", "task", Collections.emptyMap()).record(3L, 7L);
+    Assert.assertEquals("checkpoints", mutation.getTable());
+    Map<String, Value> values = mutation.asMap();
+    Assert.assertEquals("run", values.get(CommitCheckpoint.RUN_ID).getString());
+    Assert.assertEquals("task", values.get(CommitCheckpoint.TASK_ID).getString());
+    Assert.assertEquals(3L, values.get(CommitCheckpoint.BATCH).getInt64());
+    Assert.assertEquals(7L, values.get(CommitCheckpoint.BATCH_HASH).getInt64());
+  }
+
+  @Test
+  public void testDeleteRun() {
+    Mutation mutation = CommitCheckpoint.deleteRun("checkpoints", "run");
+    Assert.assertEquals(Mutation.Op.DELETE, mutation.getOperation());
+    Assert.assertFalse(mutation.getKeySet().getKeys().iterator().hasNext());
+    Assert.assertEquals(Key.of("run"), mutation.getKeySet().getRanges().iterator().next().getStart());
+  }
+
+  private static long digest(Mutation... mutations) {
+    MutationBatch batch = new MutationBatch(MutationBatch.MAX_CELLS, MutationBatch.MAX_BYTES, true);
+    for (Mutation mutation : mutations) {
+      batch.addIfFits(mutation);
+    }
+    return batch.getDigest();
+  }
+
+  private static Mutation row(long id, String name) {
+    return Mutation.newInsertOrUpdateBuilder("t")
+      .set("id").to(id)
+      .set("name").to(name)
+      .build();
+  }
+}
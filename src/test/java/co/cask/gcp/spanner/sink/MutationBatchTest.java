@@ -0,0 +1,133 @@
+/*
+ * Copyright © 2018 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.gcp.spanner.sink;
+
+import com.google.cloud.ByteArray;
+import com.google.cloud.spanner.Key;
+import com.google.cloud.spanner.KeyRange;
+import com.google.cloud.spanner.KeySet;
+import com.google.cloud.spanner.Mutation;
+import com.google.cloud.spanner.Value;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+/**
+ * Tests for {@link MutationBatch}.
+ */
+public class MutationBatchTest {
+
+  @Test
+  public void testCellLimit() {
+    MutationBatch batch = new MutationBatch(10, Long.MAX_VALUE);
+    // three cells per mutation, so three mutations fit into ten cells
+    for (int i = 0; i < 3; i++) {
+      Assert.assertTrue(batch.addIfFits(row(i, "name", new byte[0])));
+    }
+    Assert.assertFalse(batch.addIfFits(row(3, "name", new byte[0])));
+    Assert.assertEquals(3, batch.size());
+    Assert.assertEquals(9, batch.getCells());
+
+    batch.clear();
+    Assert.assertTrue(batch.isEmpty());
+    Assert.assertEquals(0, batch.getCells());
+    Assert.assertEquals(0L, batch.getBytes());
+  }
+
+  @Test
+  public void testByteLimit() {
+    MutationBatch batch = new MutationBatch(Integer.MAX_VALUE, 1000L);
+    Assert.assertTrue(batch.addIfFits(row(0, "a", new byte[400])));
+    Assert.assertTrue(batch.addIfFits(row(1, "b", new byte[400])));
+    Assert.assertTrue(batch.getBytes() > 800L);
+    Assert.assertFalse(batch.addIfFits(row(2, "c", new byte[400])));
+    Assert.assertEquals(2, batch.size());
+  }
+
+  @Test
+  public void testLargeMutationAddedToEmptyBatch() {
+    MutationBatch batch = new MutationBatch(1, 1L);
+    Assert.assertTrue(batch.addIfFits(row(0, "name", new byte[100])));
+    Assert.assertFalse(batch.addIfFits(row(1, "name", new byte[0])));
+  }
+
+  @Test
+  public void testDeleteCountsAsOneCell() {
+    MutationBatch batch = new MutationBatch(2, Long.MAX_VALUE);
+    Assert.assertTrue(batch.addIfFits(Mutation.delete("t", Key.of(0L))));
+    Assert.assertTrue(batch.addIfFits(Mutation.delete("t", KeySet.range(KeyRange.prefix(Key.of(1L))))));
+    Assert.assertEquals(2, batch.getCells());
+    Assert.assertFalse(batch.addIfFits(Mutation.delete("t", Key.of(2L))));
+  }
+
+  @Test
+  public void testDigest() {
+    MutationBatch batch = new MutationBatch(MutationBatch.MAX_CELLS, MutationBatch.MAX_BYTES, true);
+    batch.addIfFits(row(0, "a", new byte[] {1}));
+    batch.addIfFits(Mutation.delete("t", Key.of(1L)));
+    long digest = batch.getDigest();
+    Assert.assertEquals(digest, batch.getDigest());
+
+    MutationBatch other = new MutationBatch(MutationBatch.MAX_CELLS, MutationBatch.MAX_BYTES, true);
+    other.addIfFits(row(0, "a", new byte[] {1}));
+    other.addIfFits(Mutation.delete("t", Key.of(1L)));
+    Assert.assertEquals(digest, other.getDigest());
+
+    // the order of the mutations, their values and the keys of deletes all change the digest
+    other.clear();
+    other.addIfFits(Mutation.delete("t", Key.of(1L)));
+    other.addIfFits(row(0, "a", new byte[] {1}));
+    Assert.assertNotEquals(digest, other.getDigest());
+    other.clear();
+    other.addIfFits(row(0, "a", new byte[] {2}));
+    other.addIfFits(Mutation.delete("t", Key.of(1L)));
+    Assert.assertNotEquals(digest, other.getDigest());
+    other.clear();
+    other.addIfFits(row(0, "a", new byte[] {1}));
+    other.addIfFits(Mutation.delete("t", Key.of(2L)));
+    Assert.assertNotEquals(digest, other.getDigest());
+
+    // mutations added after the digest was taken are part of the next digest
+    other.clear();
+    other.addIfFits(row(0, "a", new byte[] {1}));
+    Assert.assertNotEquals(digest, other.getDigest());
+    other.addIfFits(Mutation.delete("t", Key.of(1L)));
+    Assert.assertEquals(digest, other.getDigest());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testNoDigest() {
+    new MutationBatch().getDigest();
+  }
+
+  @Test
+  public void testEstimateArrayBytes() {
+    Assert.assertEquals(MutationBatch.estimateBytes(Value.int64(1L)) + 8L,
+                        MutationBatch.estimateBytes(Value.int64Array(new long[] {1L, 2L})));
+    Assert.assertEquals(MutationBatch.estimateBytes(Value.string("abc")),
+                        MutationBatch.estimateBytes(Value.stringArray(Arrays.asList("a", null, "bc"))));
+  }
+
+  private static Mutation row(long id, String name, byte[] data) {
+    return Mutation.newInsertOrUpdateBuilder("t")
+      .set("id").to(id)
+      .set("name").to(name)
+      .set("data").to(ByteArray.copyFrom(data))
+      .build();
+  }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright © 2018 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.gcp.spanner.sink;
+
+import co.cask.cdap.api.data.format.StructuredRecord;
+import co.cask.cdap.api.data.schema.Schema;
+import com.google.cloud.ByteArray;
+import com.google.cloud.Date;
+import com.google.cloud.Timestamp;
+import com.google.cloud.spanner.Key;
+import com.google.cloud.spanner.KeyRange;
+import com.google.cloud.spanner.KeySet;
+import com.google.cloud.spanner.Mutation;
+import com.google.cloud.spanner.Value;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Tests for {@link MutationBinder}.
+ */
+public class MutationBinderTest {
+
+  @Test
+  public void testBind() throws Exception {
+    Schema schema = Schema.recordOf("record",
+                                    Schema.Field.of("id", Schema.of(Schema.Type.LONG)),
+                                    Schema.Field.of("name", Schema.nullableOf(Schema.of(Schema.Type.STRING))),
+                                    Schema.Field.of("price", Schema.of(Schema.Type.DOUBLE)),
+                                    Schema.Field.of("flag", Schema.of(Schema.Type.BOOLEAN)),
+                                    Schema.Field.of("data", Schema.of(Schema.Type.BYTES)),
+                                    Schema.Field.of("dt", Schema.nullableOf(Schema.of(Schema.LogicalType.DATE))),
+                                    Schema.Field.of("ts",
+                                                    Schema.nullableOf(Schema.of(Schema.LogicalType.TIMESTAMP_MICROS))),
+                                    Schema.Field.of("missing",
+                                                    Schema.nullableOf(Schema.of(Schema.LogicalType.TIMESTAMP_MILLIS))));
+    ZonedDateTime ts = ZonedDateTime.of(2018, 11, 11, 11, 11, 11, 123456000, ZoneOffset.UTC);
+    StructuredRecord record = StructuredRecord.builder(schema)
+      .set("id", 1L)
+      .set("name", null)
+      .set("price", 2.5d)
+      .set("flag", true)
+      .set("data", ByteBuffer.wrap(new byte[] {1, 2}))
+      .setDate("dt", LocalDate.of(2018, 11, 11))
+      .setTimestamp("ts", ts)
+      .build();
+
+    Mutation mutation = MutationBinder.compile("t", schema).bind(record);
+    Assert.assertEquals("t", mutation.getTable());
+    Assert.assertEquals(Mutation.Op.INSERT_OR_UPDATE, mutation.getOperation());
+    Map<String, Value> values = mutation.asMap();
+    Assert.assertEquals(1L, values.get("id").getInt64());
+    Assert.assertTrue(values.get("name").isNull());
+    Assert.assertEquals(2.5d, values.get("price").getFloat64(), 0.00001d);
+    Assert.assertTrue(values.get("flag").getBool());
+    Assert.assertEquals(ByteArray.copyFrom(new byte[] {1, 2}), values.get("data").getBytes());
+    Assert.assertEquals(Date.fromYearMonthDay(2018, 11, 11), values.get("dt").getDate());
+    Assert.assertEquals(Timestamp.ofTimeSecondsAndNanos(ts.toEpochSecond(), ts.getNano()),
+                        values.get("ts").getTimestamp());
+    // null dates and timestamps are not written
+    Assert.assertFalse(values.containsKey("missing"));
+  }
+
+  @Test
+  public void testBindWidenedAndArrays() throws Exception {
+    Schema schema = Schema.recordOf("record",
+                                    Schema.Field.of("count", Schema.of(Schema.Type.INT)),
+                                    Schema.Field.of("ratio", Schema.nullableOf(Schema.of(Schema.Type.FLOAT))),
+                                    Schema.Field.of("ids", Schema.arrayOf(Schema.of(Schema.Type.LONG))),
+                                    Schema.Field.of("tags",
+                                                    Schema.arrayOf(Schema.nullableOf(Schema.of(Schema.Type.STRING)))),
+                                    Schema.Field.of("dates", Schema.arrayOf(Schema.of(Schema.LogicalType.DATE))),
+                                    Schema.Field.of("scores",
+                                                    Schema.nullableOf(Schema.arrayOf(Schema.of(Schema.Type.FLOAT)))));
+    StructuredRecord record = StructuredRecord.builder(schema)
+      .set("count", 3)
+      .set("ratio", null)
+      .set("ids", new long[] {1L, 2L})
+      .set("tags", Arrays.asList("a", null))
+      .set("dates", Collections.singletonList((int) LocalDate.of(2018, 11, 11).toEpochDay()))
+      .set("scores", null)
+      .build();
+
+    Map<String, Value> values = MutationBinder.compile("t", schema).bind(record).asMap();
+    Assert.assertEquals(3L, values.get("count").getInt64());
+    Assert.assertTrue(values.get("ratio").isNull());
+    Assert.assertEquals(Arrays.asList(1L, 2L), values.get("ids").getInt64Array());
+    Assert.assertEquals(Arrays.asList("a", null), values.get("tags").getStringArray());
+    Assert.assertEquals(Collections.singletonList(Date.fromYearMonthDay(2018, 11, 11)),
+                        values.get("dates").getDateArray());
+    Assert.assertTrue(values.get("scores").isNull());
+  }
+
+  @Test
+  public void testBindDelete() throws Exception {
+    Schema schema = Schema.recordOf("record",
+                                    Schema.Field.of("name", Schema.of(Schema.Type.STRING)),
+                                    Schema.Field.of("id", Schema.of(Schema.Type.INT)),
+                                    Schema.Field.of("dt", Schema.nullableOf(Schema.of(Schema.LogicalType.DATE))));
+    StructuredRecord record = StructuredRecord.builder(schema)
+      .set("name", "a")
+      .set("id", 1)
+      .setDate("dt", LocalDate.of(2018, 11, 11))
+      .build();
+
+    Mutation delete = MutationBinder.compileDelete("t", schema, Arrays.asList("id", "dt"), false).bind(record);
+    Assert.assertEquals(Mutation.delete("t", Key.of(1L, Date.fromYearMonthDay(2018, 11, 11))), delete);
+
+    Mutation prefixDelete = MutationBinder.compileDelete("t", schema, Collections.singletonList("name"), true)
+      .bind(record);
+    Assert.assertEquals(Mutation.delete("t", KeySet.range(KeyRange.prefix(Key.of("a")))), prefixDelete);
+  }
+
+  @Test(expected = IOException.class)
+  public void testDeleteKeyNotInSchema() throws Exception {
+    Schema schema = Schema.recordOf("record", Schema.Field.of("name", Schema.of(Schema.Type.STRING)));
+    MutationBinder.compileDelete("t", schema, Collections.singletonList("id"), false);
+  }
+
+  @Test(expected = IOException.class)
+  public void testUnsupportedType() throws Exception {
+    Schema schema = Schema.recordOf("record",
+                                    Schema.Field.of("values", Schema.mapOf(Schema.of(Schema.Type.STRING),
+                                                                           Schema.of(Schema.Type.STRING))));
+    MutationBinder.compile("t", schema);
+  }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright © 2018 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.gcp.spanner.sink;
+
+import co.cask.cdap.api.data.format.StructuredRecord;
+import co.cask.cdap.api.data.schema.Schema;
+import com.google.cloud.ByteArray;
+import com.google.cloud.spanner.Mutation;
+import com.google.cloud.spanner.Value;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Tests for {@link SortedMutationWindow}.
+ */
+public class SortedMutationWindowTest {
+  private static final Schema SCHEMA =
+    Schema.recordOf("record",
+                    Schema.Field.of("tenant", Schema.nullableOf(Schema.of(Schema.Type.STRING))),
+                    Schema.Field.of("id", Schema.of(Schema.Type.BYTES)));
+
+  @Test
+  public void testSortedByKey() {
+    SortedMutationWindow window = new SortedMutationWindow(Arrays.asList("tenant", "id"), 4);
+    add(window, "b", new byte[] {1});
+    add(window, null, new byte[] {5});
+    add(window, "a", new byte[] {(byte) 0xff});
+    Assert.assertFalse(window.isFull());
+    add(window, "a", new byte[] {1, 2});
+    Assert.assertTrue(window.isFull());
+
+    List<String> order = window.drainSorted().stream()
+      .map(SortedMutationWindowTest::label)
+      .collect(Collectors.toList());
+    // nulls first, and bytes compared as unsigned values
+    Assert.assertEquals(Arrays.asList("null:5", "a:1", "a:255", "b:1"), order);
+    Assert.assertTrue(window.isEmpty());
+  }
+
+  @Test
+  public void testCompareBytes() {
+    Assert.assertTrue(SortedMutationWindow.compareKeys(new Object[] {new byte[] {1, 2}},
+                                                       new Object[] {new byte[] {(byte) 0x80}}) < 0);
+    Assert.assertTrue(SortedMutationWindow.compareKeys(new Object[] {new byte[] {1}},
+                                                       new Object[] {new byte[] {1, 0}}) < 0);
+    Assert.assertEquals(0, SortedMutationWindow.compareKeys(new Object[] {1L, "x"}, new Object[] {1L, "x"}));
+  }
+
+  private static void add(SortedMutationWindow window, String tenant, byte[] id) {
+    StructuredRecord record = StructuredRecord.builder(SCHEMA).set("tenant", tenant).set("id", id).build();
+    Mutation mutation = Mutation.newInsertOrUpdateBuilder("t")
+      .set("tenant").to(tenant)
+      .set("id").to(ByteArray.copyFrom(id))
+      .build();
+    window.add(record, mutation);
+  }
+
+  private static String label(Mutation mutation) {
+    Value tenant = mutation.asMap().get("tenant");
+    int id = mutation.asMap().get("id").getBytes().toByteArray()[0] & 0xff;
+    return (tenant.isNull() ? "null" : tenant.getString()) + ":" + id;
+  }
+}